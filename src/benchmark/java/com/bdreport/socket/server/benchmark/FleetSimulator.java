@@ -0,0 +1,464 @@
+package com.bdreport.socket.server.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.bdreport.socket.server.Application;
+import com.bdreport.socket.server.netty.NettyTransport;
+import com.bdreport.socket.server.netty.TCPServer;
+import com.bdreport.socket.server.netty.TransportType;
+
+/**
+ * Simulates a fleet of gateways against {@link TCPServer}.
+ * <p>
+ * Each of {@code connections} gateways sends well-formed B1 to B4 frames of
+ * {@code channels} samples at {@code rate} frames per second, cut into
+ * packets according to {@code fragmentation}, and times every ack. Acks
+ * arrive in frame order on each connection, so they are matched to send
+ * times first in, first out. Latencies after the warmup go into an HDR
+ * histogram. Unless {@code server} names a running server, an ActiveMQ
+ * broker and the application are started in this JVM, and a consumer
+ * drains the queue so the broker rate can be reported too.
+ * <p>
+ * The results are written as JSON to {@code report} so that runs can be
+ * compared. Run with
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.bdreport.socket.server.benchmark.FleetSimulator \
+ *     -Dbenchmark.args="--connections=1000 --rate=10 --channels=64 --fragmentation=SPLIT --duration=60"
+ * </pre>
+ *
+ * Options are {@code --name=value}; see {@link #OPTIONS} for the defaults.
+ */
+public class FleetSimulator {
+
+	private static final int ACK_LENGTH = 6;
+
+	private static final byte ACK_SUCCEED = (byte) 0x60;
+
+	private static final byte[] FUNC_CODES = { (byte) 0xB1, (byte) 0xB2, (byte) 0xB3, (byte) 0xB4 };
+
+	private static final Map<String, String> OPTIONS = new LinkedHashMap<String, String>();
+
+	static {
+		OPTIONS.put("connections", "100");
+		OPTIONS.put("rate", "1");
+		OPTIONS.put("channels", "64");
+		// WHOLE: one frame per packet, SPLIT: every frame in pieces,
+		// COALESCED: batch frames per packet
+		OPTIONS.put("fragmentation", "WHOLE");
+		OPTIONS.put("pieces", "3");
+		OPTIONS.put("batch", "4");
+		OPTIONS.put("warmup", "5");
+		OPTIONS.put("duration", "30");
+		OPTIONS.put("threads", "2");
+		OPTIONS.put("transport", "AUTO");
+		// host:port of a running server; empty starts broker and server here
+		OPTIONS.put("server", "");
+		OPTIONS.put("queue", "bdreport.queue");
+		OPTIONS.put("report", "target/fleet-report.json");
+	}
+
+	enum Fragmentation {
+		WHOLE, SPLIT, COALESCED
+	}
+
+	private final Map<String, String> options;
+
+	private final int connections;
+
+	private final double rate;
+
+	private final int channels;
+
+	private final Fragmentation fragmentation;
+
+	private final int pieces;
+
+	private final int batch;
+
+	private final Recorder recorder = new Recorder(TimeUnit.SECONDS.toNanos(60), 3);
+
+	private final AtomicLong sent = new AtomicLong();
+
+	private final AtomicLong acked = new AtomicLong();
+
+	private final AtomicLong nakked = new AtomicLong();
+
+	private final AtomicLong consumed = new AtomicLong();
+
+	private final List<Gateway> gateways = new ArrayList<Gateway>();
+
+	private BrokerService broker;
+
+	private Connection consumerConnection;
+
+	private ConfigurableApplicationContext application;
+
+	public FleetSimulator(Map<String, String> options) {
+		this.options = options;
+		connections = Integer.parseInt(options.get("connections"));
+		rate = Double.parseDouble(options.get("rate"));
+		channels = Integer.parseInt(options.get("channels"));
+		fragmentation = Fragmentation.valueOf(options.get("fragmentation"));
+		pieces = Integer.parseInt(options.get("pieces"));
+		batch = fragmentation == Fragmentation.COALESCED ? Integer.parseInt(options.get("batch")) : 1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<String, String>(OPTIONS);
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			String name = arg.startsWith("--") && separator > 2 ? arg.substring(2, separator) : null;
+			if (name == null || !OPTIONS.containsKey(name)) {
+				System.err.println("Unknown option " + arg + ", options and defaults are " + OPTIONS);
+				System.exit(1);
+			}
+			options.put(name, arg.substring(separator + 1));
+		}
+		new FleetSimulator(options).run();
+		System.exit(0);
+	}
+
+	/**
+	 * A simulated gateway. Sending and ack handling both run on the event
+	 * loop of its channel, so its state needs no locking.
+	 */
+	private class Gateway extends ChannelInboundHandlerAdapter implements Runnable {
+
+		private final byte[][] frames = new byte[FUNC_CODES.length][];
+
+		private long[] sendTimes = new long[64];
+
+		private int head;
+
+		private int size;
+
+		private int ackBytes;
+
+		private byte ackCode;
+
+		private long sequence;
+
+		private Channel channel;
+
+		private ScheduledFuture<?> schedule;
+
+		Gateway(int gatewayNo) {
+			for (int i = 0; i < FUNC_CODES.length; i++) {
+				frames[i] = Frames.build(FUNC_CODES[i], gatewayNo, channels, gatewayNo * FUNC_CODES.length + i);
+			}
+		}
+
+		void start(Channel channel, long periodNanos, long delayNanos) {
+			this.channel = channel;
+			schedule = channel.eventLoop().scheduleAtFixedRate(this, delayNanos, periodNanos,
+					TimeUnit.NANOSECONDS);
+		}
+
+		void stop() {
+			if (schedule != null) {
+				schedule.cancel(false);
+			}
+		}
+
+		@Override
+		public void run() {
+			if (!channel.isActive()) {
+				return;
+			}
+			if (fragmentation == Fragmentation.COALESCED) {
+				ByteBuf packet = channel.alloc().buffer(batch * frames[0].length);
+				for (int i = 0; i < batch; i++) {
+					packet.writeBytes(nextFrame());
+				}
+				channel.writeAndFlush(packet, channel.voidPromise());
+			} else if (fragmentation == Fragmentation.SPLIT) {
+				byte[] frame = nextFrame();
+				int piece = (frame.length + pieces - 1) / pieces;
+				for (int offset = 0; offset < frame.length; offset += piece) {
+					int length = Math.min(piece, frame.length - offset);
+					channel.writeAndFlush(channel.alloc().buffer(length).writeBytes(frame, offset, length),
+							channel.voidPromise());
+				}
+			} else {
+				byte[] frame = nextFrame();
+				channel.writeAndFlush(channel.alloc().buffer(frame.length).writeBytes(frame),
+						channel.voidPromise());
+			}
+		}
+
+		/**
+		 * Returns the next frame, with a data time that advances by a second
+		 * per frame so frames of a gateway never repeat within a day. The
+		 * checksum only covers the samples, so it stays valid.
+		 */
+		private byte[] nextFrame() {
+			long n = sequence++;
+			byte[] frame = frames[(int) (n % FUNC_CODES.length)];
+			long seconds = n / FUNC_CODES.length;
+			frame[8] = (byte) (seconds / 3600 % 24);
+			frame[9] = (byte) (seconds / 60 % 60);
+			frame[10] = (byte) (seconds % 60);
+			if (size == sendTimes.length) {
+				long[] grown = new long[size * 2];
+				for (int i = 0; i < size; i++) {
+					grown[i] = sendTimes[(head + i) % size];
+				}
+				sendTimes = grown;
+				head = 0;
+			}
+			sendTimes[(head + size++) % sendTimes.length] = System.nanoTime();
+			sent.incrementAndGet();
+			return frame;
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			ByteBuf buf = (ByteBuf) msg;
+			try {
+				long now = System.nanoTime();
+				while (buf.isReadable()) {
+					byte b = buf.readByte();
+					if (ackBytes == 1) {
+						ackCode = b;
+					}
+					if (++ackBytes == ACK_LENGTH) {
+						ackBytes = 0;
+						if (size > 0) {
+							recorder.recordValue(Math.max(0, now - sendTimes[head]));
+							head = (head + 1) % sendTimes.length;
+							size--;
+						}
+						(ackCode == ACK_SUCCEED ? acked : nakked).incrementAndGet();
+					}
+				}
+			} finally {
+				buf.release();
+			}
+		}
+
+		int outstanding() {
+			return size;
+		}
+	}
+
+	public void run() throws Exception {
+		InetSocketAddress serverAddress;
+		if (options.get("server").isEmpty()) {
+			serverAddress = startEmbedded();
+		} else {
+			String[] hostPort = options.get("server").split(":");
+			serverAddress = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+		}
+
+		NettyTransport nettyTransport = NettyTransport.select(TransportType.valueOf(options.get("transport")));
+		EventLoopGroup group = nettyTransport.newEventLoopGroup(Integer.parseInt(options.get("threads")),
+				"fleet-gateway");
+		try {
+			Bootstrap bootstrap = new Bootstrap();
+			bootstrap.group(group).channel(nettyTransport.getSocketChannelClass())
+					.option(ChannelOption.TCP_NODELAY, true)
+					.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+			long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) * batch / rate);
+			Random random = new Random(0);
+			for (int i = 0; i < connections; i++) {
+				final Gateway gateway = new Gateway(i % 0xFFFF + 1);
+				bootstrap.handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) {
+						ch.pipeline().addLast(gateway);
+					}
+				});
+				Channel channel = bootstrap.connect(serverAddress).sync().channel();
+				gateways.add(gateway);
+				gateway.start(channel, periodNanos, (long) (random.nextDouble() * periodNanos));
+			}
+			System.out.println("Connected " + connections + " gateways to " + serverAddress);
+
+			long warmup = Long.parseLong(options.get("warmup"));
+			long duration = Long.parseLong(options.get("duration"));
+			TimeUnit.SECONDS.sleep(warmup);
+			recorder.getIntervalHistogram();
+			long sentBefore = sent.get();
+			long ackedBefore = acked.get();
+			long nakkedBefore = nakked.get();
+			long consumedBefore = consumed.get();
+			long started = System.nanoTime();
+			TimeUnit.SECONDS.sleep(duration);
+			double seconds = (System.nanoTime() - started) / 1e9;
+			long sentCount = sent.get() - sentBefore;
+			long ackedCount = acked.get() - ackedBefore;
+			long nakkedCount = nakked.get() - nakkedBefore;
+			long consumedCount = consumed.get() - consumedBefore;
+
+			for (Gateway gateway : gateways) {
+				gateway.stop();
+			}
+			TimeUnit.SECONDS.sleep(2);
+			Histogram histogram = recorder.getIntervalHistogram();
+			int outstanding = 0;
+			for (Gateway gateway : gateways) {
+				gateway.channel.close().sync();
+				outstanding += gateway.outstanding();
+			}
+
+			Map<String, Object> report = new LinkedHashMap<String, Object>();
+			report.put("timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+			report.put("options", options);
+			report.put("transport", nettyTransport.getType().name());
+			report.put("frameLength", gateways.get(0).frames[0].length);
+			report.put("seconds", seconds);
+			report.put("framesSent", sentCount);
+			report.put("acks", ackedCount);
+			report.put("naks", nakkedCount);
+			report.put("outstandingAtEnd", outstanding);
+			report.put("framesPerSecond", ackedCount / seconds);
+			if (consumerConnection != null) {
+				report.put("brokerMessages", consumedCount);
+				report.put("brokerMessagesPerSecond", consumedCount / seconds);
+			}
+			report.put("latencyMicros", latency(histogram));
+			String json = JSON.toJSONString(report, SerializerFeature.PrettyFormat);
+			File reportFile = new File(options.get("report"));
+			if (reportFile.getAbsoluteFile().getParentFile() != null) {
+				reportFile.getAbsoluteFile().getParentFile().mkdirs();
+			}
+			Files.write(reportFile.toPath(), json.getBytes(Charset.forName("utf-8")));
+			System.out.println(json);
+			System.out.println("Report written to " + reportFile.getAbsolutePath());
+		} finally {
+			group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+			stopEmbedded();
+		}
+	}
+
+	private static Map<String, Object> latency(Histogram histogram) {
+		Map<String, Object> latency = new LinkedHashMap<String, Object>();
+		latency.put("count", histogram.getTotalCount());
+		latency.put("min", histogram.getMinValue() / 1000.0);
+		latency.put("mean", histogram.getMean() / 1000.0);
+		for (double percentile : Arrays.asList(50.0, 90.0, 99.0, 99.9, 99.99)) {
+			latency.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile)
+					: String.valueOf(percentile)), histogram.getValueAtPercentile(percentile) / 1000.0);
+		}
+		latency.put("max", histogram.getMaxValue() / 1000.0);
+		return latency;
+	}
+
+	/**
+	 * Starts a broker on a free port, a consumer draining the queue and the
+	 * application in this JVM, with its files in a temporary directory.
+	 */
+	private InetSocketAddress startEmbedded() throws Exception {
+		broker = new BrokerService();
+		broker.setBrokerName("fleet");
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.addConnector("tcp://127.0.0.1:" + freePort());
+		broker.start();
+		String brokerUrl = broker.getTransportConnectors().get(0).getPublishableConnectString();
+
+		consumerConnection = new ActiveMQConnectionFactory(brokerUrl).createConnection();
+		consumerConnection.start();
+		Session session = consumerConnection.createSession(false, Session.DUPS_OK_ACKNOWLEDGE);
+		session.createConsumer(new ActiveMQQueue(options.get("queue"))).setMessageListener(new MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+				consumed.incrementAndGet();
+			}
+		});
+
+		File directory = Files.createTempDirectory("fleet").toFile();
+		int tcpPort = freePort();
+		System.setProperty("spring.devtools.restart.enabled", "false");
+		application = SpringApplication.run(Application.class, "--tcp.port=" + tcpPort,
+				"--spring.activemq.broker-url=" + brokerUrl, "--spring.activemq.in-memory=false",
+				"--bdreport.queue.name=" + options.get("queue"), "--bdreport.logpath=" + directory,
+				"--bdreport.archive.path=" + new File(directory, "archive"),
+				"--bdreport.spool.path=" + new File(directory, "spool"));
+		final TCPServer tcpServer = application.getBean(TCPServer.class);
+		Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tcpServer.start();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, "fleet-server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", tcpPort);
+		for (int attempt = 0; attempt < 100; attempt++) {
+			try (Socket socket = new Socket(address.getAddress(), tcpPort)) {
+				return address;
+			} catch (IOException e) {
+				TimeUnit.MILLISECONDS.sleep(100);
+			}
+		}
+		throw new IOException("Server did not start on " + address);
+	}
+
+	private void stopEmbedded() throws Exception {
+		if (application != null) {
+			application.close();
+		}
+		if (consumerConnection != null) {
+			consumerConnection.close();
+		}
+		if (broker != null) {
+			broker.stop();
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
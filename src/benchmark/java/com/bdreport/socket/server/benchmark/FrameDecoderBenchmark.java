@@ -0,0 +1,87 @@
+package com.bdreport.socket.server.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bdreport.socket.server.netty.handler.TcpFrameDecoder;
+
+/**
+ * Compares the legacy byte-at-a-time framing loop with {@link TcpFrameDecoder}
+ * on a read buffer holding {@code framesPerRead} frames of {@code channels}
+ * samples. Scores are reads per second; multiply by {@code framesPerRead} for
+ * frames per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+	@Param({ "4", "64", "256" })
+	public int channels;
+
+	@Param({ "16" })
+	public int framesPerRead;
+
+	private ByteBuf read;
+
+	private LegacyFrameScanner legacyScanner;
+
+	private TcpFrameDecoder frameDecoder;
+
+	private byte[][] lastFrame = new byte[1][];
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		byte[] stream = Frames.stream(framesPerRead, channels);
+		read = PooledByteBufAllocator.DEFAULT.directBuffer(stream.length);
+		read.writeBytes(stream);
+		legacyScanner = new LegacyFrameScanner();
+		frameDecoder = new TcpFrameDecoder();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		read.release();
+	}
+
+	@Benchmark
+	public int legacyLoop(Blackhole bh) {
+		read.readerIndex(0);
+		int frames = legacyScanner.scan(read, lastFrame);
+		bh.consume(lastFrame[0]);
+		return frames;
+	}
+
+	@Benchmark
+	public int scanningDecoder(Blackhole bh) {
+		read.readerIndex(0);
+		int frames = 0;
+		ByteBuf frame;
+		while ((frame = frameDecoder.decodeFrame(read)) != null) {
+			bh.consume(frame);
+			frame.release();
+			frames++;
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,79 @@
+package com.bdreport.socket.server.benchmark;
+
+import java.util.Random;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+
+/**
+ * Builds well-formed, check-summed gateway frames for benchmarks.
+ */
+public final class Frames {
+
+	private Frames() {
+	}
+
+	/**
+	 * Returns a frame with function code {@code funcCode}, gateway
+	 * {@code gatewayNo} and {@code channels} half-float samples in a typical
+	 * sensor range.
+	 */
+	public static byte[] build(byte funcCode, int gatewayNo, int channels, long seed) {
+		Random random = new Random(seed);
+		int length = channels * 2;
+		byte[] frame = new byte[TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH + length + 1
+				+ TcpPackageModel.PACKAGE_FRAME_TAIL_LENGTH];
+		frame[0] = TcpPackageModel.PACKAGE_FRAME_HEAD_BYTE_EE;
+		frame[1] = funcCode;
+		frame[2] = (byte) (gatewayNo >> 8);
+		frame[3] = (byte) gatewayNo;
+		frame[4] = (byte) (2017 >> 8);
+		frame[5] = (byte) 2017;
+		frame[6] = 6;
+		frame[7] = 13;
+		frame[8] = 9;
+		frame[9] = (byte) random.nextInt(60);
+		frame[10] = (byte) random.nextInt(60);
+		frame[11] = (byte) (length >> 8);
+		frame[12] = (byte) length;
+		int offset = TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH;
+		for (int i = 0; i < channels; i++) {
+			short half = TcpPackageModel.toHalfFloat(20.0f + random.nextFloat() * 10.0f);
+			frame[offset++] = (byte) (half >> 8);
+			frame[offset++] = (byte) half;
+		}
+		byte sum = checkSum(frame, TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH, length);
+		if (sum == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF && channels > 0) {
+			// Keep 0xFF out of the checksum so the tail stays unambiguous.
+			frame[offset - 1]++;
+			sum++;
+		}
+		frame[offset++] = sum;
+		frame[offset++] = TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF;
+		frame[offset++] = TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FC;
+		frame[offset++] = TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF;
+		frame[offset] = TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF;
+		return frame;
+	}
+
+	/**
+	 * Returns {@code count} frames of {@code channels} samples each,
+	 * concatenated as they would arrive in one read.
+	 */
+	public static byte[] stream(int count, int channels) {
+		byte[] first = build((byte) 0xB1, 1, channels, 0);
+		byte[] stream = new byte[first.length * count];
+		for (int i = 0; i < count; i++) {
+			byte[] frame = build((byte) (0xB1 + i % 4), i + 1, channels, i);
+			System.arraycopy(frame, 0, stream, i * frame.length, frame.length);
+		}
+		return stream;
+	}
+
+	private static byte checkSum(byte[] buf, int offset, int length) {
+		byte sum = 0;
+		for (int i = offset; i < offset + length; i++) {
+			sum = (byte) (sum + buf[i]);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,193 @@
+package com.bdreport.socket.server.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.bdreport.socket.server.aggregate.WindowAggregator;
+import com.bdreport.socket.server.archive.FrameArchive;
+import com.bdreport.socket.server.data.FrameKernels;
+import com.bdreport.socket.server.data.TcpPackageFlyweight;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.deadband.DeadbandFilter;
+import com.bdreport.socket.server.dedup.FrameDeduplicator;
+import com.bdreport.socket.server.diagnostics.WireCapture;
+import com.bdreport.socket.server.jdbc.JdbcSink;
+import com.bdreport.socket.server.jms.JmsPublishRequest;
+import com.bdreport.socket.server.jms.JmsPublisher;
+import com.bdreport.socket.server.latest.LatestValueCache;
+import com.bdreport.socket.server.metrics.IngestMetrics;
+import com.bdreport.socket.server.netty.ChannelRepository;
+import com.bdreport.socket.server.netty.handler.TcpFrameDecoder;
+import com.bdreport.socket.server.netty.handler.TcpServerHandler;
+
+/**
+ * The stages every frame goes through on ingest, for frames of
+ * {@code channels} samples: a whole read through the pipeline
+ * ({@link TcpFrameDecoder} and {@link TcpServerHandler#channelRead}, scored
+ * per read of {@code framesPerRead} frames), parsing into
+ * {@link TcpPackageModel}, the data checksum, half-float decoding one sample
+ * at a time and in bulk through {@link FrameKernels}, and JSON serialization
+ * of the data model. JMS and the archive are stubbed out.
+ * <p>
+ * Allocation per operation matters as much as throughput here, so run with
+ * the GC profiler:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="IngestBenchmark -prof gc"
+ * </pre>
+ *
+ * and read {@code gc.alloc.rate.norm} next to each score.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestBenchmark {
+
+	@Param({ "4", "64", "256" })
+	public int channels;
+
+	@Param({ "16" })
+	public int framesPerRead;
+
+	private static class DiscardingPublisher extends JmsPublisher {
+
+		@Override
+		public boolean publish(JmsPublishRequest request) {
+			return true;
+		}
+	}
+
+	private byte[] frame;
+
+	private byte[] data;
+
+	private short[] halves;
+
+	private float[] samples;
+
+	private ByteBuf frameBuffer;
+
+	private ByteBuf read;
+
+	private TcpPackageModel model;
+
+	private EmbeddedChannel channel;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		frame = Frames.build((byte) 0xB1, 1, channels, 0);
+		data = Arrays.copyOfRange(frame, TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH,
+				TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH + channels * 2);
+		halves = new short[channels];
+		for (int i = 0; i < channels; i++) {
+			halves[i] = (short) (((data[2 * i] & 0xFF) << 8) | (data[2 * i + 1] & 0xFF));
+		}
+		samples = new float[channels];
+		frameBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(frame.length).writeBytes(frame);
+		byte[] stream = Frames.stream(framesPerRead, channels);
+		read = PooledByteBufAllocator.DEFAULT.directBuffer(stream.length).writeBytes(stream);
+		model = new TcpPackageModel(frame);
+
+		FrameArchive frameArchive = new FrameArchive();
+		frameArchive.setEnabled(false);
+		TcpServerHandler tcpServerHandler = new TcpServerHandler();
+		tcpServerHandler.setChannelRepository(new ChannelRepository());
+		tcpServerHandler.setFrameArchive(frameArchive);
+		tcpServerHandler.setJmsPublisher(new DiscardingPublisher());
+		tcpServerHandler.setIngestMetrics(new IngestMetrics());
+		tcpServerHandler.setWireCapture(new WireCapture());
+		tcpServerHandler.setFrameDeduplicator(new FrameDeduplicator());
+		tcpServerHandler.setDeadbandFilter(new DeadbandFilter());
+		tcpServerHandler.setWindowAggregator(new WindowAggregator());
+		tcpServerHandler.setLatestValueCache(new LatestValueCache());
+		tcpServerHandler.setJdbcSink(new JdbcSink());
+		channel = new EmbeddedChannel(new TcpFrameDecoder(), tcpServerHandler) {
+			@Override
+			protected SocketAddress remoteAddress0() {
+				return new InetSocketAddress("192.168.0.14", 56167);
+			}
+		};
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		channel.finishAndReleaseAll();
+		read.release();
+		frameBuffer.release();
+	}
+
+	@Benchmark
+	public int channelRead() {
+		read.readerIndex(0);
+		channel.writeInbound(read.retainedDuplicate());
+		int acks = 0;
+		ByteBuf ack;
+		while ((ack = channel.readOutbound()) != null) {
+			ack.release();
+			acks++;
+		}
+		return acks;
+	}
+
+	@Benchmark
+	public TcpPackageModel parse() {
+		return new TcpPackageModel(frame);
+	}
+
+	@Benchmark
+	public int wrap() {
+		return TcpPackageFlyweight.current().wrap(frameBuffer);
+	}
+
+	@Benchmark
+	public byte checkSum() {
+		return model.checkSum(data);
+	}
+
+	@Benchmark
+	public byte checkSumBuffer() {
+		return TcpPackageFlyweight.checkSum(frameBuffer, TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH, channels * 2);
+	}
+
+	@Benchmark
+	public void toFloat(Blackhole bh) {
+		for (short half : halves) {
+			bh.consume(TcpPackageModel.toFloat(half));
+		}
+	}
+
+	@Benchmark
+	public float[] decode() {
+		FrameKernels.decode(frameBuffer, TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH, channels, samples);
+		return samples;
+	}
+
+	@Benchmark
+	public String toJson() {
+		return model.toJsonString();
+	}
+}
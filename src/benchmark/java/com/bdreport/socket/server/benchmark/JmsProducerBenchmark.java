@@ -0,0 +1,148 @@
+package com.bdreport.socket.server.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.jms.JmsAckPolicy;
+import com.bdreport.socket.server.jms.JmsDeliveryMode;
+import com.bdreport.socket.server.jms.JmsProducerConfig;
+import com.bdreport.socket.server.jms.JmsPublishListener;
+import com.bdreport.socket.server.jms.JmsPublishRequest;
+import com.bdreport.socket.server.jms.JmsPublisher;
+
+/**
+ * Messages per second through {@link JmsPublisher} into an embedded broker on
+ * the vm:// transport, for each delivery mode, send mode and batching setting.
+ * The broker keeps messages in memory, so persistent delivery shows the cost
+ * of synchronous sends rather than of disk writes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JmsProducerBenchmark {
+
+	private static final int MESSAGES = 1000;
+
+	@Param({ "PERSISTENT", "NON_PERSISTENT" })
+	public JmsDeliveryMode deliveryMode;
+
+	@Param({ "false", "true" })
+	public boolean asyncSend;
+
+	@Param({ "true", "false" })
+	public boolean transacted;
+
+	private BrokerService broker;
+
+	private PooledConnectionFactory connectionFactory;
+
+	private Connection consumerConnection;
+
+	private JmsPublisher jmsPublisher;
+
+	private TcpPackageModel[] models;
+
+	private volatile CountDownLatch latch;
+
+	private final JmsPublishListener listener = new JmsPublishListener() {
+		@Override
+		public void published(JmsPublishRequest request) {
+			latch.countDown();
+		}
+
+		@Override
+		public void failed(JmsPublishRequest request, Exception cause) {
+			throw new IllegalStateException(cause);
+		}
+	};
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		broker = new BrokerService();
+		broker.setBrokerName("bench");
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.start();
+
+		ActiveMQConnectionFactory activeMQConnectionFactory = JmsProducerConfig
+				.createConnectionFactory("vm://bench?create=false", null, null, asyncSend, 1024 * 1024);
+		connectionFactory = new PooledConnectionFactory(activeMQConnectionFactory);
+		ActiveMQQueue queue = new ActiveMQQueue("bdreport.bench.queue");
+
+		consumerConnection = activeMQConnectionFactory.createConnection();
+		consumerConnection.start();
+		Session session = consumerConnection.createSession(false, Session.DUPS_OK_ACKNOWLEDGE);
+		session.createConsumer(queue).setMessageListener(new MessageListener() {
+			@Override
+			public void onMessage(Message message) {
+			}
+		});
+
+		jmsPublisher = new JmsPublisher();
+		jmsPublisher.setConnectionFactory(connectionFactory);
+		jmsPublisher.setQueue(queue);
+		jmsPublisher.setThreadCount(2);
+		jmsPublisher.setQueueCapacity(MESSAGES);
+		jmsPublisher.setBatchSize(100);
+		jmsPublisher.setBatchWindowMs(5);
+		jmsPublisher.setReconnectDelayMs(100);
+		jmsPublisher.setDeliveryMode(deliveryMode);
+		jmsPublisher.setTransacted(transacted);
+		jmsPublisher.setAckPolicy(JmsAckPolicy.COMMIT);
+		jmsPublisher.start();
+
+		models = new TcpPackageModel[16];
+		for (int i = 0; i < models.length; i++) {
+			models[i] = new TcpPackageModel(Frames.build((byte) 0xB1, i + 1, 64, i));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		jmsPublisher.stop();
+		consumerConnection.close();
+		connectionFactory.stop();
+		broker.stop();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void publish() throws Exception {
+		latch = new CountDownLatch(MESSAGES);
+		for (int i = 0; i < MESSAGES; i++) {
+			JmsPublishRequest request = new JmsPublishRequest(models[i % models.length], null, listener);
+			while (!jmsPublisher.publish(request)) {
+				Thread.yield();
+			}
+		}
+		latch.await();
+	}
+}
@@ -0,0 +1,74 @@
+package com.bdreport.socket.server.benchmark;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+
+/**
+ * The byte-at-a-time head/tail state machine that TcpServerHandler.channelRead
+ * used before TcpFrameDecoder, kept as the baseline for framing benchmarks.
+ * The per-byte debug logging is left out so only the framing cost is measured.
+ */
+public class LegacyFrameScanner {
+
+	private int isHead = TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_NULL;
+	private int isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
+
+	private ByteBuf byteBuf = Unpooled.buffer(10240);
+
+	/**
+	 * Consumes all readable bytes of {@code in} and returns the number of
+	 * completed frames; the bytes of the last frame are stored in
+	 * {@code lastFrame}.
+	 */
+	public int scan(ByteBuf in, byte[][] lastFrame) {
+		int frames = 0;
+		while (in.isReadable()) {
+			byte byHex = (byte) in.readByte();
+			if (isHead == TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_NULL) {
+				if (byHex == TcpPackageModel.PACKAGE_FRAME_HEAD_BYTE_EE) {
+					isHead = TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_START;
+					byteBuf.writeByte(byHex);
+				}
+			} else {
+				if (byHex == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF) {
+					switch (isTail) {
+					case TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL:
+						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_START;
+						break;
+					case TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_2:
+						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_3;
+						break;
+					case TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_3:
+						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_END;
+						break;
+					default:
+						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
+						break;
+					}
+				} else if (byHex == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FC) {
+					if (isTail == TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_START) {
+						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_2;
+					} else {
+						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
+					}
+				} else {
+					isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
+				}
+				byteBuf.writeByte(byHex);
+				if (isTail == TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_END) {
+					byte[] hexByte = new byte[byteBuf.readableBytes()];
+					byteBuf.readBytes(hexByte);
+					lastFrame[0] = hexByte;
+					frames++;
+
+					isHead = TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_NULL;
+					isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
+					byteBuf.clear();
+				}
+			}
+		}
+		return frames;
+	}
+}
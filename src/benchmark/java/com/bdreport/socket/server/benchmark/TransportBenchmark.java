@@ -0,0 +1,183 @@
+package com.bdreport.socket.server.benchmark;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bdreport.socket.server.netty.NettyTransport;
+import com.bdreport.socket.server.netty.TransportType;
+import com.bdreport.socket.server.netty.handler.TcpFrameDecoder;
+
+/**
+ * Frames per second through a loopback server built like
+ * {@code Application.bootstrap()}, for each transport, with
+ * {@code connections} gateways connected at once. Every invocation sends
+ * 1000 frames spread evenly over the connections ({@code connections} must
+ * divide 1000) and waits until all of them have been framed by
+ * {@link TcpFrameDecoder} and acknowledged, so the score includes the round
+ * trip through both event loop groups. The server handler only acks;
+ * JMS and the archive are left out to isolate the transport.
+ * <p>
+ * Run with
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="TransportBenchmark"
+ * </pre>
+ *
+ * Connections need one file descriptor per side, so raise {@code ulimit -n}
+ * above {@code 2 * connections}. EPOLL falls back to NIO where native epoll
+ * is unavailable, which then shows as two equal rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportBenchmark {
+
+	private static final byte[] ACK = { (byte) 0xEE, (byte) 0x60, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF,
+			(byte) 0xFF };
+
+	@Param({ "NIO", "EPOLL" })
+	public TransportType transport;
+
+	@Param({ "100", "1000" })
+	public int connections;
+
+	private EventLoopGroup bossGroup;
+
+	private EventLoopGroup workerGroup;
+
+	private EventLoopGroup clientGroup;
+
+	private Channel serverChannel;
+
+	private final List<Channel> clientChannels = new ArrayList<Channel>();
+
+	private ByteBuf frame;
+
+	private volatile CountDownLatch latch;
+
+	@ChannelHandler.Sharable
+	private static class AckHandler extends ChannelInboundHandlerAdapter {
+
+		private final ByteBuf ack = Unpooled.unreleasableBuffer(Unpooled.directBuffer(ACK.length).writeBytes(ACK));
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			((ByteBuf) msg).release();
+			ctx.writeAndFlush(ack.duplicate());
+		}
+	}
+
+	private class AckCounter extends ChannelInboundHandlerAdapter {
+
+		private int pending;
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			ByteBuf buf = (ByteBuf) msg;
+			pending += buf.readableBytes();
+			buf.release();
+			for (; pending >= ACK.length; pending -= ACK.length) {
+				latch.countDown();
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		NettyTransport nettyTransport = NettyTransport.select(transport);
+		bossGroup = nettyTransport.newEventLoopGroup(1, "bench-boss");
+		workerGroup = nettyTransport.newEventLoopGroup(2, "bench-worker");
+		clientGroup = nettyTransport.newEventLoopGroup(2, "bench-client");
+
+		final AckHandler ackHandler = new AckHandler();
+		ServerBootstrap server = new ServerBootstrap();
+		server.group(bossGroup, workerGroup).channel(nettyTransport.getServerChannelClass())
+				.option(ChannelOption.SO_BACKLOG, connections)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) {
+						ch.pipeline().addLast(new TcpFrameDecoder(), ackHandler);
+					}
+				});
+		serverChannel = server.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+		Bootstrap client = new Bootstrap();
+		client.group(clientGroup).channel(nettyTransport.getSocketChannelClass())
+				.option(ChannelOption.TCP_NODELAY, true)
+				.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.handler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) {
+						ch.pipeline().addLast(new AckCounter());
+					}
+				});
+		for (int i = 0; i < connections; i++) {
+			clientChannels.add(client.connect(serverChannel.localAddress()).sync().channel());
+		}
+
+		byte[] bytes = Frames.build((byte) 0xB1, 1, 64, 1);
+		frame = Unpooled.unreleasableBuffer(Unpooled.directBuffer(bytes.length).writeBytes(bytes));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		for (Channel channel : clientChannels) {
+			channel.close().sync();
+		}
+		clientChannels.clear();
+		serverChannel.close().sync();
+		clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(1000)
+	public void roundTrip() throws Exception {
+		int rounds = 1000 / connections;
+		latch = new CountDownLatch(rounds * connections);
+		for (int round = 0; round < rounds; round++) {
+			for (Channel channel : clientChannels) {
+				channel.writeAndFlush(frame.duplicate());
+			}
+		}
+		latch.await();
+	}
+}
@@ -2,10 +2,9 @@ package com.bdreport.socket.server;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
 
 import org.apache.activemq.command.ActiveMQQueue;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,8 +16,12 @@ import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.*;
 import org.springframework.jms.annotation.EnableJms;
 
+import com.bdreport.socket.server.netty.ByteBufAllocatorType;
 import com.bdreport.socket.server.netty.ChannelRepository;
+import com.bdreport.socket.server.netty.GatewayExecutorGroup;
+import com.bdreport.socket.server.netty.NettyTransport;
 import com.bdreport.socket.server.netty.TCPServer;
+import com.bdreport.socket.server.netty.TransportType;
 import com.bdreport.socket.server.netty.handler.TcpChannelInitializer;
 
 import ch.qos.logback.classic.Logger;
@@ -67,11 +70,41 @@ public class Application {
     @Value("${worker.thread.count:2}")
     private int workerCount;
 
+    @Value("${processing.thread.count:0}")
+    private int processingCount;
+
+    @Value("${processing.queue.capacity:4096}")
+    private int processingQueueCapacity;
+
     @Value("${so.keepalive:true}")
     private boolean keepAlive;
 
     @Value("${so.backlog:100}")
     private int backlog;
+
+    @Value("${tcp.transport:AUTO}")
+    private TransportType transportType;
+
+    @Value("${so.reuseport:false}")
+    private boolean reusePort;
+
+    @Value("${tcp.nodelay:true}")
+    private boolean tcpNoDelay;
+
+    @Value("${so.rcvbuf:0}")
+    private int receiveBufferSize;
+
+    @Value("${so.sndbuf:0}")
+    private int sendBufferSize;
+
+    @Value("${write.buffer.low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+
+    @Value("${write.buffer.high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+
+    @Value("${bytebuf.allocator:POOLED}")
+    private ByteBufAllocatorType allocatorType;
     
     @Value("${bdreport.queue.name:'bdreport.queue'}")
     private String queueName;
@@ -81,14 +114,17 @@ public class Application {
     public ServerBootstrap bootstrap() {
         ServerBootstrap b = new ServerBootstrap();
         b.group(bossGroup(), workerGroup())
-                .channel(NioServerSocketChannel.class)
-                .handler(new LoggingHandler(LogLevel.DEBUG))
+                .channel(nettyTransport().getServerChannelClass())
                 .childHandler(tcpChannelInitializer);
         Map<ChannelOption<?>, Object> tcpChannelOptions = tcpChannelOptions();
         Set<ChannelOption<?>> keySet = tcpChannelOptions.keySet();
         for (@SuppressWarnings("rawtypes") ChannelOption option : keySet) {
             b.option(option, tcpChannelOptions.get(option));
         }
+        Map<ChannelOption<?>, Object> tcpChildChannelOptions = tcpChildChannelOptions();
+        for (@SuppressWarnings("rawtypes") ChannelOption option : tcpChildChannelOptions.keySet()) {
+            b.childOption(option, tcpChildChannelOptions.get(option));
+        }
         return b;
     }
 
@@ -96,22 +132,65 @@ public class Application {
     @Qualifier("tcpChannelInitializer")
     private TcpChannelInitializer tcpChannelInitializer;
 
+    @Bean(name = "nettyTransport")
+    public NettyTransport nettyTransport() {
+        return NettyTransport.select(transportType);
+    }
+
+    /**
+     * Options of the listening socket. With epoll, {@code so.reuseport} lets
+     * {@link TCPServer} bind one listening socket per boss thread.
+     */
     @Bean(name = "tcpChannelOptions")
     public Map<ChannelOption<?>, Object> tcpChannelOptions() {
         Map<ChannelOption<?>, Object> options = new HashMap<ChannelOption<?>, Object>();
-        options.put(ChannelOption.SO_KEEPALIVE, keepAlive);
         options.put(ChannelOption.SO_BACKLOG, backlog);
+        options.put(ChannelOption.ALLOCATOR, allocatorType.getAllocator());
+        if (reusePort && nettyTransport().isEpoll()) {
+            options.put(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        return options;
+    }
+
+    /**
+     * Options of the accepted gateway connections. Buffer sizes of
+     * {@code 0} keep the operating system defaults.
+     */
+    @Bean(name = "tcpChildChannelOptions")
+    public Map<ChannelOption<?>, Object> tcpChildChannelOptions() {
+        Map<ChannelOption<?>, Object> options = new HashMap<ChannelOption<?>, Object>();
+        options.put(ChannelOption.SO_KEEPALIVE, keepAlive);
+        options.put(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            options.put(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            options.put(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        options.put(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark));
+        options.put(ChannelOption.ALLOCATOR, allocatorType.getAllocator());
         return options;
     }
 
     @Bean(name = "bossGroup", destroyMethod = "shutdownGracefully")
-    public NioEventLoopGroup bossGroup() {
-        return new NioEventLoopGroup(bossCount);
+    public EventLoopGroup bossGroup() {
+        return nettyTransport().newEventLoopGroup(bossCount, "tcp-boss");
     }
 
     @Bean(name = "workerGroup", destroyMethod = "shutdownGracefully")
-    public NioEventLoopGroup workerGroup() {
-        return new NioEventLoopGroup(workerCount);
+    public EventLoopGroup workerGroup() {
+        return nettyTransport().newEventLoopGroup(workerCount, "tcp-worker");
+    }
+
+    /**
+     * Threads that parse, archive and publish frames, pinned per gateway.
+     * With {@code 0} this work stays on the worker threads. Each thread
+     * queues at most {@code processing.queue.capacity} frames.
+     */
+    @Bean(name = "processingGroup", destroyMethod = "shutdownGracefully")
+    public GatewayExecutorGroup processingGroup() {
+        return new GatewayExecutorGroup(processingCount, "tcp-processing", processingQueueCapacity);
     }
 
     @Bean(name = "tcpSocketAddress")
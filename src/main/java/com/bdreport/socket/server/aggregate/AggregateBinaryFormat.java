@@ -0,0 +1,96 @@
+package com.bdreport.socket.server.aggregate;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of an {@link AggregateRecord} sent as a JMS {@code BytesMessage}
+ * when the aggregate queue is configured with format {@code BINARY}. All
+ * values are big-endian.
+ *
+ * <pre>
+ * offset  size  field
+ * 0       1     format version, currently {@link #VERSION_1}
+ * 1       1     function code, 0xB1 - 0xB4
+ * 2       2     gateway number, unsigned
+ * 4       8     window start, epoch milliseconds
+ * 12      4     window length in seconds
+ * 16      4     frames in the window
+ * 20      2     channel count c, unsigned
+ * 22      20*c  per channel: count:int min:float max:float avg:float last:float
+ * </pre>
+ */
+public final class AggregateBinaryFormat {
+
+	public static final byte VERSION_1 = 1;
+
+	/** Size of a version 1 message without channels. */
+	public static final int FIXED_LENGTH_V1 = 22;
+
+	public static final int CHANNEL_LENGTH_V1 = 20;
+
+	/** JMS type set on binary messages so consumers can tell them from JSON. */
+	public static final String JMS_TYPE = "bdreport.aggregate.binary";
+
+	private AggregateBinaryFormat() {
+	}
+
+	public static byte[] encode(AggregateRecord record) {
+		int channels = record.getDataLength();
+		ByteBuffer buffer = ByteBuffer.allocate(FIXED_LENGTH_V1 + channels * CHANNEL_LENGTH_V1);
+		buffer.put(VERSION_1);
+		buffer.put((byte) Integer.parseInt(record.getFuncCode(), 16));
+		buffer.putShort((short) record.getGatewayNo());
+		buffer.putLong(record.getWindowStartMillis());
+		buffer.putInt(record.getWindowSeconds());
+		buffer.putInt(record.getFrameCount());
+		buffer.putShort((short) channels);
+		for (int i = 0; i < channels; i++) {
+			buffer.putInt(record.getCount()[i]);
+			buffer.putFloat(record.getMin()[i]);
+			buffer.putFloat(record.getMax()[i]);
+			buffer.putFloat(record.getAvg()[i]);
+			buffer.putFloat(record.getLast()[i]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes one message from the remaining bytes of {@code buffer}.
+	 *
+	 * @throws IllegalArgumentException if the version is not supported or the
+	 *             message is truncated
+	 */
+	public static AggregateRecord decode(ByteBuffer buffer) {
+		try {
+			int version = buffer.get();
+			if (version != VERSION_1) {
+				throw new IllegalArgumentException("Unsupported aggregate format version: " + version);
+			}
+			AggregateRecord record = new AggregateRecord();
+			String hex = Integer.toHexString(buffer.get() & 0xFF).toUpperCase();
+			record.setFuncCode(hex.length() == 1 ? "0" + hex : hex);
+			record.setGatewayNo(buffer.getShort() & 0xFFFF);
+			record.setWindowStartMillis(buffer.getLong());
+			record.setWindowSeconds(buffer.getInt());
+			record.setFrameCount(buffer.getInt());
+			int channels = buffer.getShort() & 0xFFFF;
+			record.setDataLength(channels);
+			record.setCount(new int[channels]);
+			record.setMin(new float[channels]);
+			record.setMax(new float[channels]);
+			record.setAvg(new float[channels]);
+			record.setLast(new float[channels]);
+			for (int i = 0; i < channels; i++) {
+				record.getCount()[i] = buffer.getInt();
+				record.getMin()[i] = buffer.getFloat();
+				record.getMax()[i] = buffer.getFloat();
+				record.getAvg()[i] = buffer.getFloat();
+				record.getLast()[i] = buffer.getFloat();
+			}
+			return record;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated aggregate message", e);
+		}
+	}
+}
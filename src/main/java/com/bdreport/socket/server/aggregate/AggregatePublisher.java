@@ -0,0 +1,227 @@
+package com.bdreport.socket.server.aggregate;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PreDestroy;
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.alibaba.fastjson.JSON;
+import com.bdreport.socket.server.jms.JmsDeliveryMode;
+import com.bdreport.socket.server.jms.JmsMessageFormat;
+
+/**
+ * Sends the records of closed windows to {@code bdreport.aggregate.queue.name},
+ * separate from the raw data queue.
+ * <p>
+ * Windows close in bursts, one record per gateway and function code, so a
+ * single thread with its own connection drains a bounded queue and commits
+ * up to {@code batchSize} records per transaction. A batch that fails is kept
+ * and sent again after {@code reconnectDelayMs}; records offered while the
+ * queue is full are dropped and counted. Started by {@link WindowAggregator}
+ * when aggregation is enabled.
+ */
+@Component
+public class AggregatePublisher {
+
+	private static Logger logger = Logger.getLogger(AggregatePublisher.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	@Value("${bdreport.aggregate.queue.name:bdreport.aggregate.queue}")
+	private String queueName = "bdreport.aggregate.queue";
+
+	@Value("${bdreport.aggregate.queue.format:JSON}")
+	private JmsMessageFormat messageFormat = JmsMessageFormat.JSON;
+
+	@Value("${bdreport.aggregate.queue-capacity:65536}")
+	private int queueCapacity = 65536;
+
+	@Value("${bdreport.aggregate.batch-size:500}")
+	private int batchSize = 500;
+
+	@Value("${bdreport.jms.publisher.reconnect-delay-ms:1000}")
+	private long reconnectDelayMs = 1000;
+
+	@Value("${bdreport.jms.delivery-mode:PERSISTENT}")
+	private JmsDeliveryMode deliveryMode = JmsDeliveryMode.PERSISTENT;
+
+	@Autowired(required = false)
+	private ConnectionFactory connectionFactory;
+
+	private Queue<AggregateRecord> queue;
+
+	private Thread thread;
+
+	private volatile boolean running;
+
+	private Connection connection;
+
+	private Session session;
+
+	private MessageProducer producer;
+
+	private final AtomicLong sentCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		queue = PlatformDependent.newFixedMpscQueue(queueCapacity);
+		running = true;
+		thread = new DefaultThreadFactory("aggregate-publisher").newThread(new Runnable() {
+			@Override
+			public void run() {
+				sendLoop();
+			}
+		});
+		thread.start();
+		logger.info("Publishing window aggregates to " + queueName + " as " + messageFormat);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	/**
+	 * Queues a record for sending.
+	 *
+	 * @return {@code false} if the publisher is stopped or its queue is full
+	 */
+	public boolean publish(AggregateRecord record) {
+		if (!running || !queue.offer(record)) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public int getQueueDepth() {
+		return queue == null ? 0 : queue.size();
+	}
+
+	private void sendLoop() {
+		AggregateRecord[] batch = new AggregateRecord[batchSize];
+		int size = 0;
+		while (running || size > 0 || !queue.isEmpty()) {
+			AggregateRecord record;
+			while (size < batch.length && (record = queue.poll()) != null) {
+				batch[size++] = record;
+			}
+			if (size == 0) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			try {
+				connect();
+				for (int i = 0; i < size; i++) {
+					producer.send(createMessage(batch[i]));
+				}
+				session.commit();
+				sentCount.addAndGet(size);
+				for (int i = 0; i < size; i++) {
+					batch[i] = null;
+				}
+				size = 0;
+			} catch (JMSException e) {
+				logger.error("Sending " + size + " aggregate records failed: " + e.getMessage());
+				close();
+				if (!running) {
+					droppedCount.addAndGet(size);
+					break;
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(reconnectDelayMs));
+			}
+		}
+		close();
+	}
+
+	private Message createMessage(AggregateRecord record) throws JMSException {
+		if (messageFormat == JmsMessageFormat.BINARY) {
+			BytesMessage message = session.createBytesMessage();
+			message.setJMSType(AggregateBinaryFormat.JMS_TYPE);
+			message.writeBytes(AggregateBinaryFormat.encode(record));
+			return message;
+		}
+		return session.createTextMessage(JSON.toJSONString(record));
+	}
+
+	private void connect() throws JMSException {
+		if (producer != null) {
+			return;
+		}
+		connection = connectionFactory.createConnection();
+		connection.start();
+		session = connection.createSession(true, Session.SESSION_TRANSACTED);
+		producer = session.createProducer(session.createQueue(queueName));
+		producer.setDeliveryMode(deliveryMode.getValue());
+	}
+
+	private void close() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (JMSException e) {
+				logger.debug("Closing JMS connection failed: " + e.getMessage());
+			}
+		}
+		connection = null;
+		session = null;
+		producer = null;
+	}
+
+	public void setQueueName(String queueName) {
+		this.queueName = queueName;
+	}
+
+	public void setMessageFormat(JmsMessageFormat messageFormat) {
+		this.messageFormat = messageFormat;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setReconnectDelayMs(long reconnectDelayMs) {
+		this.reconnectDelayMs = reconnectDelayMs;
+	}
+
+	public void setConnectionFactory(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+}
@@ -0,0 +1,147 @@
+package com.bdreport.socket.server.aggregate;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import com.bdreport.socket.server.data.FloatArraySerializer;
+
+/**
+ * Per-channel statistics of one gateway and function code over one closed
+ * window, as published by {@link AggregatePublisher}.
+ * <p>
+ * The arrays have one element per channel. A channel without samples in the
+ * window has a count of {@code 0} and NaN statistics, written as
+ * {@code null} in JSON.
+ */
+public class AggregateRecord {
+
+	@JSONField(name = "gateway_no", ordinal = 1)
+	private int gatewayNo;
+
+	@JSONField(name = "data_type", ordinal = 2)
+	private String funcCode;
+
+	@JSONField(name = "window_start", ordinal = 3)
+	private long windowStartMillis;
+
+	@JSONField(name = "window_seconds", ordinal = 4)
+	private int windowSeconds;
+
+	@JSONField(name = "frame_count", ordinal = 5)
+	private int frameCount;
+
+	@JSONField(name = "data_length", ordinal = 6)
+	private int dataLength;
+
+	@JSONField(name = "count", ordinal = 7)
+	private int[] count;
+
+	@JSONField(name = "min", ordinal = 8, serializeUsing = FloatArraySerializer.class)
+	private float[] min;
+
+	@JSONField(name = "max", ordinal = 9, serializeUsing = FloatArraySerializer.class)
+	private float[] max;
+
+	@JSONField(name = "avg", ordinal = 10, serializeUsing = FloatArraySerializer.class)
+	private float[] avg;
+
+	@JSONField(name = "last", ordinal = 11, serializeUsing = FloatArraySerializer.class)
+	private float[] last;
+
+	public int getGatewayNo() {
+		return gatewayNo;
+	}
+
+	public void setGatewayNo(int gatewayNo) {
+		this.gatewayNo = gatewayNo;
+	}
+
+	/**
+	 * Returns the function code as upper-case hex, e.g. "B1".
+	 */
+	public String getFuncCode() {
+		return funcCode;
+	}
+
+	public void setFuncCode(String funcCode) {
+		this.funcCode = funcCode;
+	}
+
+	/**
+	 * Returns the start of the window as epoch milliseconds, on the same
+	 * clock as the frame times.
+	 */
+	public long getWindowStartMillis() {
+		return windowStartMillis;
+	}
+
+	public void setWindowStartMillis(long windowStartMillis) {
+		this.windowStartMillis = windowStartMillis;
+	}
+
+	public int getWindowSeconds() {
+		return windowSeconds;
+	}
+
+	public void setWindowSeconds(int windowSeconds) {
+		this.windowSeconds = windowSeconds;
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public void setFrameCount(int frameCount) {
+		this.frameCount = frameCount;
+	}
+
+	public int getDataLength() {
+		return dataLength;
+	}
+
+	public void setDataLength(int dataLength) {
+		this.dataLength = dataLength;
+	}
+
+	public int[] getCount() {
+		return count;
+	}
+
+	public void setCount(int[] count) {
+		this.count = count;
+	}
+
+	public float[] getMin() {
+		return min;
+	}
+
+	public void setMin(float[] min) {
+		this.min = min;
+	}
+
+	public float[] getMax() {
+		return max;
+	}
+
+	public void setMax(float[] max) {
+		this.max = max;
+	}
+
+	public float[] getAvg() {
+		return avg;
+	}
+
+	public void setAvg(float[] avg) {
+		this.avg = avg;
+	}
+
+	/**
+	 * Returns the sample of each channel with the latest frame time in the
+	 * window.
+	 */
+	public float[] getLast() {
+		return last;
+	}
+
+	public void setLast(float[] last) {
+		this.last = last;
+	}
+}
@@ -0,0 +1,401 @@
+package com.bdreport.socket.server.aggregate;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+
+/**
+ * Tumbling-window statistics of every channel, per gateway and function
+ * code, published through {@link AggregatePublisher} as each window closes.
+ * Off by default.
+ * <p>
+ * Windows are {@code windowS} long, aligned to the epoch and assigned by
+ * frame time. Each gateway and function code keeps two windows in primitive
+ * arrays that are reused from window to window and only grow with the
+ * channel count: the current one and the one before, which stays open for
+ * frames up to {@code latenessMs} late. A window closes once a frame of the
+ * same gateway and function code is {@code latenessMs} past its end, or, for
+ * a gateway that went quiet, once as much time has passed on the server
+ * clock; frames for a window that has closed are counted as late and left
+ * out. Frames stamped more than a window ahead of the server clock are
+ * counted as future and left out too, so that one bad clock cannot close
+ * every window early. NaN samples are not aggregated.
+ */
+@Component
+public class WindowAggregator {
+
+	private static Logger logger = Logger.getLogger(WindowAggregator.class.getName());
+
+	private static final int FIRST_FUNC_CODE = 0xB1;
+
+	private static final int FUNC_CODES = 4;
+
+	private static final long NO_WINDOW = Long.MIN_VALUE;
+
+	@Value("${bdreport.aggregate.enabled:false}")
+	private boolean enabled;
+
+	@Value("${bdreport.aggregate.window-s:60}")
+	private int windowS = 60;
+
+	@Value("${bdreport.aggregate.lateness-ms:5000}")
+	private long latenessMs = 5000;
+
+	@Value("${bdreport.aggregate.sweep-interval-ms:1000}")
+	private long sweepIntervalMs = 1000;
+
+	@Autowired
+	private AggregatePublisher aggregatePublisher;
+
+	private long windowMillis;
+
+	private AtomicReferenceArray<Series> series;
+
+	private final Queue<Series> allSeries = new ConcurrentLinkedQueue<Series>();
+
+	private Thread sweeper;
+
+	private volatile boolean running;
+
+	private final LongCounter frames = PlatformDependent.newLongCounter();
+
+	private final LongCounter lateFrames = PlatformDependent.newLongCounter();
+
+	private final LongCounter futureFrames = PlatformDependent.newLongCounter();
+
+	private final LongCounter windows = PlatformDependent.newLongCounter();
+
+	/*
+	 * The two windows of one gateway and function code. Window w uses the
+	 * channel range [w * capacity, w * capacity + capacity) of each array.
+	 */
+	private static final class Series {
+
+		final int gatewayNo;
+
+		final String funcCode;
+
+		final long[] windowStart = { NO_WINDOW, NO_WINDOW };
+
+		final int[] frames = new int[2];
+
+		final int[] width = new int[2];
+
+		int capacity;
+
+		int[] count = new int[0];
+
+		double[] sum = new double[0];
+
+		float[] min = new float[0];
+
+		float[] max = new float[0];
+
+		float[] last = new float[0];
+
+		long[] lastTime = new long[0];
+
+		/*
+		 * Latest frame time seen, and the server time it arrived at.
+		 */
+		long maxTime = Long.MIN_VALUE;
+
+		long arrivedMillis;
+
+		Series(int gatewayNo, String funcCode) {
+			this.gatewayNo = gatewayNo;
+			this.funcCode = funcCode;
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		windowMillis = TimeUnit.SECONDS.toMillis(windowS);
+		if (windowMillis <= 0 || latenessMs < 0 || latenessMs >= windowMillis) {
+			throw new IllegalArgumentException(
+					"Aggregate lateness must be shorter than the window: " + latenessMs + " ms, " + windowS + " s");
+		}
+		series = new AtomicReferenceArray<Series>(0x10000 * FUNC_CODES);
+		aggregatePublisher.start();
+		running = true;
+		sweeper = new DefaultThreadFactory("window-aggregator").newThread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(sweepIntervalMs));
+					sweep(System.currentTimeMillis());
+				}
+			}
+		});
+		sweeper.start();
+		logger.info("Aggregating " + windowS + " s windows, " + latenessMs + " ms lateness");
+	}
+
+	/**
+	 * Stops sweeping and publishes the windows still open.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(sweeper);
+		sweeper.join(TimeUnit.SECONDS.toMillis(10));
+		sweep(Long.MAX_VALUE);
+	}
+
+	public boolean isEnabled() {
+		return series != null;
+	}
+
+	/**
+	 * Adds the samples of a frame to the window of its frame time.
+	 */
+	public void add(JmsRealDataModel dataModel, byte funcCode) {
+		int code = (funcCode & 0xFF) - FIRST_FUNC_CODE;
+		float[] values = dataModel.getDataList();
+		if (code < 0 || code >= FUNC_CODES || values == null) {
+			return;
+		}
+		int key = (dataModel.getGatewayNo() & 0xFFFF) * FUNC_CODES + code;
+		Series s = series.get(key);
+		if (s == null) {
+			if (series.compareAndSet(key, null, new Series(dataModel.getGatewayNo(), dataModel.getFuncCode()))) {
+				allSeries.add(series.get(key));
+			}
+			s = series.get(key);
+		}
+		frames.increment();
+		add(s, dataModel.getDataTimeMillis(), values, System.currentTimeMillis());
+	}
+
+	private void add(Series s, long time, float[] values, long nowMillis) {
+		if (time > nowMillis + windowMillis) {
+			futureFrames.increment();
+			return;
+		}
+		synchronized (s) {
+			if (time > s.maxTime) {
+				s.maxTime = time;
+			}
+			s.arrivedMillis = nowMillis;
+			closeDue(s, s.maxTime);
+			long start = time - ((time % windowMillis) + windowMillis) % windowMillis;
+			if (start + windowMillis + latenessMs <= s.maxTime) {
+				lateFrames.increment();
+				return;
+			}
+			int w = (int) ((start / windowMillis) & 1);
+			if (s.windowStart[w] != start) {
+				if (s.windowStart[w] != NO_WINDOW) {
+					if (s.windowStart[w] > start) {
+						lateFrames.increment();
+						return;
+					}
+					close(s, w);
+				}
+				open(s, w, start, values.length);
+			}
+			if (values.length > s.capacity) {
+				grow(s, values.length);
+			}
+			accumulate(s, w, time, values);
+		}
+	}
+
+	private void accumulate(Series s, int w, long time, float[] values) {
+		int base = w * s.capacity;
+		for (int i = 0; i < values.length; i++) {
+			float value = values[i];
+			if (Float.isNaN(value)) {
+				continue;
+			}
+			int c = base + i;
+			s.count[c]++;
+			s.sum[c] += value;
+			if (value < s.min[c]) {
+				s.min[c] = value;
+			}
+			if (value > s.max[c]) {
+				s.max[c] = value;
+			}
+			if (time >= s.lastTime[c]) {
+				s.last[c] = value;
+				s.lastTime[c] = time;
+			}
+		}
+		s.frames[w]++;
+		if (values.length > s.width[w]) {
+			s.width[w] = values.length;
+		}
+	}
+
+	/**
+	 * Closes the windows of {@code s} whose lateness has passed by
+	 * {@code watermark}, oldest first.
+	 */
+	private void closeDue(Series s, long watermark) {
+		int older = s.windowStart[0] <= s.windowStart[1] ? 0 : 1;
+		for (int w : new int[] { older, 1 - older }) {
+			long start = s.windowStart[w];
+			if (start != NO_WINDOW && watermark - windowMillis - latenessMs >= start) {
+				close(s, w);
+			}
+		}
+	}
+
+	private void open(Series s, int w, long start, int channels) {
+		if (channels > s.capacity) {
+			grow(s, channels);
+		}
+		int from = w * s.capacity;
+		int to = from + s.capacity;
+		Arrays.fill(s.count, from, to, 0);
+		Arrays.fill(s.sum, from, to, 0);
+		Arrays.fill(s.min, from, to, Float.POSITIVE_INFINITY);
+		Arrays.fill(s.max, from, to, Float.NEGATIVE_INFINITY);
+		Arrays.fill(s.last, from, to, Float.NaN);
+		Arrays.fill(s.lastTime, from, to, Long.MIN_VALUE);
+		s.windowStart[w] = start;
+		s.frames[w] = 0;
+		s.width[w] = 0;
+	}
+
+	/**
+	 * Widens both windows of {@code s} to {@code channels}, keeping what they
+	 * hold so far.
+	 */
+	private void grow(Series s, int channels) {
+		int old = s.capacity;
+		int[] count = new int[2 * channels];
+		double[] sum = new double[2 * channels];
+		float[] min = new float[2 * channels];
+		float[] max = new float[2 * channels];
+		float[] last = new float[2 * channels];
+		long[] lastTime = new long[2 * channels];
+		Arrays.fill(min, Float.POSITIVE_INFINITY);
+		Arrays.fill(max, Float.NEGATIVE_INFINITY);
+		Arrays.fill(last, Float.NaN);
+		Arrays.fill(lastTime, Long.MIN_VALUE);
+		for (int w = 0; w < 2; w++) {
+			System.arraycopy(s.count, w * old, count, w * channels, old);
+			System.arraycopy(s.sum, w * old, sum, w * channels, old);
+			System.arraycopy(s.min, w * old, min, w * channels, old);
+			System.arraycopy(s.max, w * old, max, w * channels, old);
+			System.arraycopy(s.last, w * old, last, w * channels, old);
+			System.arraycopy(s.lastTime, w * old, lastTime, w * channels, old);
+		}
+		s.count = count;
+		s.sum = sum;
+		s.min = min;
+		s.max = max;
+		s.last = last;
+		s.lastTime = lastTime;
+		s.capacity = channels;
+	}
+
+	private void close(Series s, int w) {
+		int channels = s.width[w];
+		int base = w * s.capacity;
+		AggregateRecord record = new AggregateRecord();
+		record.setGatewayNo(s.gatewayNo);
+		record.setFuncCode(s.funcCode);
+		record.setWindowStartMillis(s.windowStart[w]);
+		record.setWindowSeconds(windowS);
+		record.setFrameCount(s.frames[w]);
+		record.setDataLength(channels);
+		record.setCount(Arrays.copyOfRange(s.count, base, base + channels));
+		float[] min = new float[channels];
+		float[] max = new float[channels];
+		float[] avg = new float[channels];
+		for (int i = 0; i < channels; i++) {
+			int c = base + i;
+			boolean empty = s.count[c] == 0;
+			min[i] = empty ? Float.NaN : s.min[c];
+			max[i] = empty ? Float.NaN : s.max[c];
+			avg[i] = empty ? Float.NaN : (float) (s.sum[c] / s.count[c]);
+		}
+		record.setMin(min);
+		record.setMax(max);
+		record.setAvg(avg);
+		record.setLast(Arrays.copyOfRange(s.last, base, base + channels));
+		s.windowStart[w] = NO_WINDOW;
+		windows.increment();
+		aggregatePublisher.publish(record);
+	}
+
+	/**
+	 * Closes the windows of gateways that went quiet, by the frame time each
+	 * gateway would be at now.
+	 */
+	void sweep(long nowMillis) {
+		for (Series s : allSeries) {
+			synchronized (s) {
+				long watermark = nowMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+						: s.maxTime + Math.max(0, nowMillis - s.arrivedMillis);
+				closeDue(s, watermark);
+			}
+		}
+	}
+
+	public long getFrameCount() {
+		return frames.value();
+	}
+
+	public long getLateFrameCount() {
+		return lateFrames.value();
+	}
+
+	public long getFutureFrameCount() {
+		return futureFrames.value();
+	}
+
+	public long getWindowCount() {
+		return windows.value();
+	}
+
+	public AggregatePublisher getAggregatePublisher() {
+		return aggregatePublisher;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setWindowS(int windowS) {
+		this.windowS = windowS;
+	}
+
+	public void setLatenessMs(long latenessMs) {
+		this.latenessMs = latenessMs;
+	}
+
+	public void setSweepIntervalMs(long sweepIntervalMs) {
+		this.sweepIntervalMs = sweepIntervalMs;
+	}
+
+	public void setAggregatePublisher(AggregatePublisher aggregatePublisher) {
+		this.aggregatePublisher = aggregatePublisher;
+	}
+}
@@ -0,0 +1,74 @@
+package com.bdreport.socket.server.archive;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * On-disk layout of archive segments. All values are big-endian.
+ *
+ * <pre>
+ * segment  := header record*
+ * header   := magic:int version:int
+ * record   := frameLength:int receivedMillis:long dataTimeMillis:long
+ *             gatewayNo:short funcCode:byte frame:byte[frameLength]
+ * </pre>
+ *
+ * Segments are named {@code yyyyMMdd-NNNNNN.seg} after the day they were
+ * opened on and a sequence number within that day.
+ * <p>
+ * Every sealed segment has an index file of the same name with the suffix
+ * {@code .idx}. Its entries are sorted by key, then by data time, and the
+ * directory gives the entries of each key:
+ *
+ * <pre>
+ * index     := header directory entry*
+ * header    := magic:int version:int keyCount:int entryCount:int
+ *              minDataTimeMillis:long maxDataTimeMillis:long
+ * directory := (key:int first:int count:int)[keyCount]
+ * entry     := dataTimeMillis:long offset:long
+ * key       := gatewayNo &lt;&lt; 8 | funcCode
+ * </pre>
+ */
+public final class ArchiveFormat {
+
+	public static final int SEGMENT_MAGIC = 0x42444152; // "BDAR"
+
+	public static final int SEGMENT_VERSION = 1;
+
+	public static final int SEGMENT_HEADER_LENGTH = 8;
+
+	public static final int RECORD_HEADER_LENGTH = 4 + 8 + 8 + 2 + 1;
+
+	public static final String SEGMENT_SUFFIX = ".seg";
+
+	public static final int INDEX_MAGIC = 0x42444958; // "BDIX"
+
+	public static final int INDEX_VERSION = 1;
+
+	public static final int INDEX_HEADER_LENGTH = 4 + 4 + 4 + 4 + 8 + 8;
+
+	public static final int INDEX_KEY_LENGTH = 4 + 4 + 4;
+
+	public static final int INDEX_ENTRY_LENGTH = 8 + 8;
+
+	public static final String INDEX_SUFFIX = ".idx";
+
+	private ArchiveFormat() {
+	}
+
+	public static String segmentName(String day, int sequence) {
+		return day + "-" + String.format("%06d", sequence) + SEGMENT_SUFFIX;
+	}
+
+	public static String indexName(String segmentName) {
+		return segmentName.substring(0, segmentName.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX;
+	}
+
+	public static int key(int gatewayNo, byte funcCode) {
+		return (gatewayNo & 0xFFFF) << 8 | (funcCode & 0xFF);
+	}
+
+	public static String day(long millis) {
+		return new SimpleDateFormat("yyyyMMdd").format(new Date(millis));
+	}
+}
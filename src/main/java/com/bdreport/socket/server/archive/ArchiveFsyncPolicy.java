@@ -0,0 +1,16 @@
+package com.bdreport.socket.server.archive;
+
+/**
+ * When the archive writer forces appended records to disk.
+ */
+public enum ArchiveFsyncPolicy {
+
+	/** Leave it to the operating system. */
+	NEVER,
+
+	/** After every group of records written together. */
+	BATCH,
+
+	/** At most once per {@code bdreport.archive.fsync-interval-ms}. */
+	INTERVAL
+}
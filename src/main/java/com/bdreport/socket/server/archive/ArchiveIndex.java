@@ -0,0 +1,213 @@
+package com.bdreport.socket.server.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Index over the archive keyed by gateway, function code and data time.
+ * <p>
+ * Sealed segments have an index file each (see {@link ArchiveFormat}); only
+ * their time range and key directory are held in memory, so a query opens
+ * just the index files of segments that can match and binary searches them.
+ * Entries of the segment being written are kept in memory until it is sealed.
+ * Missing index files are rebuilt from their segments when the index is
+ * opened.
+ */
+public class ArchiveIndex {
+
+	private static Logger logger = Logger.getLogger(ArchiveIndex.class.getName());
+
+	/**
+	 * Function code argument of {@link #query} that matches every function
+	 * code.
+	 */
+	public static final int ANY_FUNC_CODE = -1;
+
+	private static final Comparator<ArchivedFrame> DATA_TIME_ORDER = new Comparator<ArchivedFrame>() {
+		@Override
+		public int compare(ArchivedFrame a, ArchivedFrame b) {
+			return a.getDataTimeMillis() < b.getDataTimeMillis() ? -1
+					: (a.getDataTimeMillis() == b.getDataTimeMillis() ? 0 : 1);
+		}
+	};
+
+	private final File directory;
+
+	private final TreeMap<String, SegmentIndex> sealed = new TreeMap<String, SegmentIndex>();
+
+	private final SegmentIndexBuilder active = new SegmentIndexBuilder();
+
+	private File activeSegment;
+
+	public ArchiveIndex(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Loads the index files of all segments, rebuilding the missing ones.
+	 */
+	public synchronized void open() throws IOException {
+		sealed.clear();
+		for (File segment : segments()) {
+			if (segment.equals(activeSegment)) {
+				continue;
+			}
+			File indexFile = new File(directory, ArchiveFormat.indexName(segment.getName()));
+			SegmentIndex index = null;
+			if (indexFile.exists()) {
+				try {
+					index = SegmentIndex.load(segment, indexFile);
+				} catch (IOException e) {
+					logger.warn("Rebuilding unreadable index " + indexFile + ": " + e.getMessage());
+				}
+			}
+			if (index == null) {
+				index = rebuild(segment, indexFile);
+			}
+			sealed.put(segment.getName(), index);
+		}
+	}
+
+	/**
+	 * Deletes the index files of all sealed segments and rebuilds them from
+	 * the segments.
+	 */
+	public synchronized void rebuild() throws IOException {
+		for (File segment : segments()) {
+			if (!segment.equals(activeSegment)) {
+				File indexFile = new File(directory, ArchiveFormat.indexName(segment.getName()));
+				if (indexFile.exists() && !indexFile.delete()) {
+					throw new IOException("Cannot delete " + indexFile);
+				}
+			}
+		}
+		open();
+	}
+
+	/**
+	 * Returns the archived frames of a gateway whose data time lies within
+	 * {@code [fromMillis, toMillis]}, ordered by data time.
+	 *
+	 * @param funcCode the function code, or {@link #ANY_FUNC_CODE}
+	 * @param limit the maximum number of frames to return
+	 */
+	public List<ArchivedFrame> query(int gatewayNo, int funcCode, long fromMillis, long toMillis, int limit)
+			throws IOException {
+		int fromKey = ArchiveFormat.key(gatewayNo, (byte) (funcCode == ANY_FUNC_CODE ? 0x00 : funcCode));
+		int toKey = ArchiveFormat.key(gatewayNo, (byte) (funcCode == ANY_FUNC_CODE ? 0xFF : funcCode));
+
+		List<SegmentIndex> segments;
+		List<Long> activeOffsets = new ArrayList<Long>();
+		File segment;
+		synchronized (this) {
+			segments = new ArrayList<SegmentIndex>(sealed.values());
+			segment = activeSegment;
+			active.find(fromKey, toKey, fromMillis, toMillis, activeOffsets);
+		}
+
+		List<ArchivedFrame> frames = new ArrayList<ArchivedFrame>();
+		List<Long> offsets = new ArrayList<Long>();
+		for (SegmentIndex index : segments) {
+			offsets.clear();
+			index.find(fromKey, toKey, fromMillis, toMillis, offsets);
+			read(index.getSegmentFile(), offsets, frames);
+		}
+		if (segment != null) {
+			read(segment, activeOffsets, frames);
+		}
+		Collections.sort(frames, DATA_TIME_ORDER);
+		return frames.size() > limit ? new ArrayList<ArchivedFrame>(frames.subList(0, limit)) : frames;
+	}
+
+	/**
+	 * Starts collecting entries for a new segment.
+	 */
+	synchronized void activate(File segment) {
+		active.clear();
+		activeSegment = segment;
+	}
+
+	/**
+	 * Adds an entry for the active segment. It stays invisible until
+	 * {@link #commit()}.
+	 */
+	synchronized void add(int gatewayNo, byte funcCode, long dataTimeMillis, long offset) {
+		active.add(ArchiveFormat.key(gatewayNo, funcCode), dataTimeMillis, offset);
+	}
+
+	/**
+	 * Makes the entries added so far visible, once their records have been
+	 * written.
+	 */
+	synchronized void commit() {
+		active.commit();
+	}
+
+	/**
+	 * Writes the index file of the active segment.
+	 */
+	synchronized void seal() throws IOException {
+		if (activeSegment == null) {
+			return;
+		}
+		File segment = activeSegment;
+		activeSegment = null;
+		File indexFile = new File(directory, ArchiveFormat.indexName(segment.getName()));
+		active.write(indexFile);
+		active.clear();
+		sealed.put(segment.getName(), SegmentIndex.load(segment, indexFile));
+	}
+
+	private SegmentIndex rebuild(File segment, File indexFile) throws IOException {
+		SegmentIndexBuilder builder = new SegmentIndexBuilder();
+		try (ArchiveSegmentReader reader = new ArchiveSegmentReader(segment)) {
+			ArchivedFrame frame;
+			while ((frame = reader.next()) != null) {
+				builder.add(ArchiveFormat.key(frame.getGatewayNo(), frame.getFuncCode()), frame.getDataTimeMillis(),
+						reader.offset());
+			}
+		}
+		builder.commit();
+		builder.write(indexFile);
+		logger.info("Rebuilt archive index " + indexFile + " with " + builder.committed() + " entries");
+		return SegmentIndex.load(segment, indexFile);
+	}
+
+	private static void read(File segment, List<Long> offsets, List<ArchivedFrame> frames) throws IOException {
+		if (offsets.isEmpty()) {
+			return;
+		}
+		try (ArchiveSegmentReader reader = new ArchiveSegmentReader(segment)) {
+			for (Long offset : offsets) {
+				ArchivedFrame frame = reader.read(offset);
+				if (frame != null) {
+					frames.add(frame);
+				}
+			}
+		}
+	}
+
+	private File[] segments() {
+		File[] segments = directory.listFiles();
+		if (segments == null) {
+			return new File[0];
+		}
+		List<File> files = new ArrayList<File>();
+		for (File file : segments) {
+			if (file.getName().endsWith(ArchiveFormat.SEGMENT_SUFFIX)) {
+				files.add(file);
+			}
+		}
+		segments = files.toArray(new File[files.size()]);
+		Arrays.sort(segments);
+		return segments;
+	}
+}
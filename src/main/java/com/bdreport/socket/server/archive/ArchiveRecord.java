@@ -0,0 +1,28 @@
+package com.bdreport.socket.server.archive;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A raw frame queued for the archive writer. Holds a reference to the frame
+ * buffer until the writer has copied it.
+ */
+class ArchiveRecord {
+
+	final ByteBuf frame;
+
+	final long receivedMillis;
+
+	final long dataTimeMillis;
+
+	final int gatewayNo;
+
+	final byte funcCode;
+
+	ArchiveRecord(ByteBuf frame, long receivedMillis, long dataTimeMillis, int gatewayNo, byte funcCode) {
+		this.frame = frame;
+		this.receivedMillis = receivedMillis;
+		this.dataTimeMillis = dataTimeMillis;
+		this.gatewayNo = gatewayNo;
+		this.funcCode = funcCode;
+	}
+}
@@ -0,0 +1,101 @@
+package com.bdreport.socket.server.archive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads records from an archive segment, either in order or at an offset
+ * taken from the index.
+ */
+public class ArchiveSegmentReader implements Closeable {
+
+	private final File file;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer header = ByteBuffer.allocate(ArchiveFormat.RECORD_HEADER_LENGTH);
+
+	private long position = ArchiveFormat.SEGMENT_HEADER_LENGTH;
+
+	private long offset;
+
+	public ArchiveSegmentReader(File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer segmentHeader = ByteBuffer.allocate(ArchiveFormat.SEGMENT_HEADER_LENGTH);
+		if (!readFully(segmentHeader, 0) || segmentHeader.getInt(0) != ArchiveFormat.SEGMENT_MAGIC) {
+			channel.close();
+			throw new IOException(file + " is not an archive segment");
+		}
+		if (segmentHeader.getInt(4) != ArchiveFormat.SEGMENT_VERSION) {
+			channel.close();
+			throw new IOException(file + " has unsupported version " + segmentHeader.getInt(4));
+		}
+	}
+
+	/**
+	 * Reads the record after the previous one.
+	 *
+	 * @return {@code null} at the end of the segment, including a record cut
+	 *         short by a crash
+	 */
+	public ArchivedFrame next() throws IOException {
+		ArchivedFrame frame = read(position);
+		if (frame != null) {
+			offset = position;
+			position += ArchiveFormat.RECORD_HEADER_LENGTH + frame.getFrame().length;
+		}
+		return frame;
+	}
+
+	/**
+	 * Returns the offset of the record last returned by {@link #next()}.
+	 */
+	public long offset() {
+		return offset;
+	}
+
+	/**
+	 * Reads the record at {@code offset}.
+	 *
+	 * @return {@code null} if the segment ends before the record does
+	 */
+	public ArchivedFrame read(long offset) throws IOException {
+		header.clear();
+		if (!readFully(header, offset)) {
+			return null;
+		}
+		header.flip();
+		int frameLength = header.getInt();
+		long receivedMillis = header.getLong();
+		long dataTimeMillis = header.getLong();
+		int gatewayNo = header.getShort() & 0xFFFF;
+		byte funcCode = header.get();
+		if (frameLength < 0 || frameLength > channel.size()) {
+			throw new IOException("Corrupt record at " + offset + " in " + file);
+		}
+		ByteBuffer frame = ByteBuffer.allocate(frameLength);
+		if (!readFully(frame, offset + ArchiveFormat.RECORD_HEADER_LENGTH)) {
+			return null;
+		}
+		return new ArchivedFrame(gatewayNo, funcCode, dataTimeMillis, receivedMillis, frame.array());
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private boolean readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
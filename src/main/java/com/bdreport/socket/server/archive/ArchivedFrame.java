@@ -0,0 +1,45 @@
+package com.bdreport.socket.server.archive;
+
+/**
+ * A frame read back from the archive, with the fields stored next to it.
+ */
+public class ArchivedFrame {
+
+	private final int gatewayNo;
+
+	private final byte funcCode;
+
+	private final long dataTimeMillis;
+
+	private final long receivedMillis;
+
+	private final byte[] frame;
+
+	public ArchivedFrame(int gatewayNo, byte funcCode, long dataTimeMillis, long receivedMillis, byte[] frame) {
+		this.gatewayNo = gatewayNo;
+		this.funcCode = funcCode;
+		this.dataTimeMillis = dataTimeMillis;
+		this.receivedMillis = receivedMillis;
+		this.frame = frame;
+	}
+
+	public int getGatewayNo() {
+		return gatewayNo;
+	}
+
+	public byte getFuncCode() {
+		return funcCode;
+	}
+
+	public long getDataTimeMillis() {
+		return dataTimeMillis;
+	}
+
+	public long getReceivedMillis() {
+		return receivedMillis;
+	}
+
+	public byte[] getFrame() {
+		return frame;
+	}
+}
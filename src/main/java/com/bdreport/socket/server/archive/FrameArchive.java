@@ -0,0 +1,422 @@
+package com.bdreport.socket.server.archive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.metrics.LatencyHistogram;
+
+/**
+ * Appends raw frames to rolling segment files, replacing one log file per
+ * frame.
+ * <p>
+ * Event loops hand frames over through a bounded lock-free queue. A single
+ * writer thread copies every frame it can drain into one buffer and writes
+ * the whole group to the current segment with one {@link FileChannel} write
+ * (group commit), then forces it to disk according to the
+ * {@link ArchiveFsyncPolicy}. Segments roll when they reach
+ * {@code segmentSize} bytes and at midnight. See {@link ArchiveFormat} for the
+ * layout.
+ * <p>
+ * A failed write closes the segment and discards the group it was writing;
+ * those frames are counted as dropped and later frames go to a new segment.
+ * <p>
+ * The writer also maintains the {@link ArchiveIndex}, so frames can be found
+ * by gateway, function code and data time with {@link #query}.
+ */
+@Component
+public class FrameArchive {
+
+	private static Logger logger = Logger.getLogger(FrameArchive.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+	private static final int GROUP_COMMIT_SIZE = WRITE_BUFFER_SIZE / 2;
+
+	@Value("${bdreport.archive.enabled:true}")
+	private boolean enabled = true;
+
+	@Value("${bdreport.archive.path:${bdreport.logpath:/var/log/}/archive}")
+	private String path;
+
+	@Value("${bdreport.archive.segment-size:67108864}")
+	private long segmentSize = 64 * 1024 * 1024;
+
+	@Value("${bdreport.archive.fsync:INTERVAL}")
+	private ArchiveFsyncPolicy fsyncPolicy = ArchiveFsyncPolicy.INTERVAL;
+
+	@Value("${bdreport.archive.fsync-interval-ms:1000}")
+	private long fsyncIntervalMs = 1000;
+
+	@Value("${bdreport.archive.queue-capacity:16384}")
+	private int queueCapacity = 16384;
+
+	@Value("${bdreport.archive.index:true}")
+	private boolean indexEnabled = true;
+
+	private Queue<ArchiveRecord> queue;
+
+	private Thread writerThread;
+
+	private volatile boolean running;
+
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+	private File directory;
+
+	private ArchiveIndex index;
+
+	private FileChannel segment;
+
+	private String segmentDay;
+
+	private int segmentSequence;
+
+	private long segmentPosition;
+
+	private long nextDayMillis;
+
+	private boolean dirty;
+
+	private long lastForceNanos;
+
+	private int bufferedRecords;
+
+	private final LongCounter droppedFrames = PlatformDependent.newLongCounter();
+
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		directory = new File(path);
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create archive directory " + directory);
+		}
+		if (indexEnabled) {
+			index = new ArchiveIndex(directory);
+			index.open();
+		}
+		queue = PlatformDependent.newFixedMpscQueue(queueCapacity);
+		running = true;
+		writerThread = new DefaultThreadFactory("frame-archive").newThread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		});
+		writerThread.start();
+		logger.info("Archiving frames to " + directory + ", fsync policy " + fsyncPolicy);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (writerThread != null) {
+			LockSupport.unpark(writerThread);
+			writerThread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	/**
+	 * Queues a validated frame for archiving. The frame is retained until it
+	 * has been written, so the caller may release its own reference.
+	 *
+	 * @return {@code false} if archiving is disabled or the queue is full
+	 */
+	public boolean append(ByteBuf frame, int gatewayNo, byte funcCode, long dataTimeMillis) {
+		if (!running) {
+			return false;
+		}
+		ArchiveRecord record = new ArchiveRecord(frame.retain(), System.currentTimeMillis(), dataTimeMillis,
+				gatewayNo, funcCode);
+		if (!queue.offer(record)) {
+			frame.release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the archived frames of a gateway whose data time lies within
+	 * {@code [fromMillis, toMillis]}, ordered by data time.
+	 *
+	 * @param funcCode the function code, or {@link ArchiveIndex#ANY_FUNC_CODE}
+	 * @throws IllegalStateException if the index is disabled
+	 */
+	public List<ArchivedFrame> query(int gatewayNo, int funcCode, long fromMillis, long toMillis, int limit)
+			throws IOException {
+		if (index == null) {
+			throw new IllegalStateException("Archive index is disabled");
+		}
+		return index.query(gatewayNo, funcCode, fromMillis, toMillis, limit);
+	}
+
+	public ArchiveIndex getIndex() {
+		return index;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public int getQueueDepth() {
+		return queue == null ? 0 : queue.size();
+	}
+
+	/**
+	 * Returns the number of frames lost to failed archive writes.
+	 */
+	public long getDroppedCount() {
+		return droppedFrames.value();
+	}
+
+	/**
+	 * Returns the times taken to write, and with the {@code BATCH} policy
+	 * force, each group of frames.
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	public void setFsyncPolicy(ArchiveFsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	public void setFsyncIntervalMs(long fsyncIntervalMs) {
+		this.fsyncIntervalMs = fsyncIntervalMs;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setIndexEnabled(boolean indexEnabled) {
+		this.indexEnabled = indexEnabled;
+	}
+
+	private void writeLoop() {
+		while (running || !queue.isEmpty()) {
+			ArchiveRecord record = queue.poll();
+			if (record == null) {
+				try {
+					forceIfDue();
+				} catch (IOException e) {
+					logger.error("Archive fsync failed: " + e.getMessage(), e);
+				}
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			try {
+				long started = System.nanoTime();
+				do {
+					write(record);
+				} while (writeBuffer.position() < GROUP_COMMIT_SIZE && (record = queue.poll()) != null);
+				flush();
+				if (fsyncPolicy == ArchiveFsyncPolicy.BATCH) {
+					force();
+				} else {
+					forceIfDue();
+				}
+				writeLatency.record(System.nanoTime() - started);
+			} catch (IOException e) {
+				logger.error("Archive write failed: " + e.getMessage(), e);
+				closeSegment();
+			}
+		}
+		try {
+			flush();
+			force();
+		} catch (IOException e) {
+			logger.error("Archive flush failed: " + e.getMessage(), e);
+		}
+		closeSegment();
+	}
+
+	private void write(ArchiveRecord record) throws IOException {
+		try {
+			int frameLength = record.frame.readableBytes();
+			int recordLength = ArchiveFormat.RECORD_HEADER_LENGTH + frameLength;
+			if (recordLength > writeBuffer.capacity()) {
+				logger.warn("Frame of " + frameLength + " bytes too large to archive");
+				return;
+			}
+			if (recordLength > writeBuffer.remaining()) {
+				flush();
+			}
+			if (segment == null || record.receivedMillis >= nextDayMillis
+					|| (segmentPosition + writeBuffer.position() + recordLength > segmentSize
+							&& segmentPosition + writeBuffer.position() > ArchiveFormat.SEGMENT_HEADER_LENGTH)) {
+				flush();
+				roll(record.receivedMillis);
+			}
+			long offset = segmentPosition + writeBuffer.position();
+			writeBuffer.putInt(frameLength);
+			writeBuffer.putLong(record.receivedMillis);
+			writeBuffer.putLong(record.dataTimeMillis);
+			writeBuffer.putShort((short) record.gatewayNo);
+			writeBuffer.put(record.funcCode);
+			int limit = writeBuffer.limit();
+			writeBuffer.limit(writeBuffer.position() + frameLength);
+			record.frame.getBytes(record.frame.readerIndex(), writeBuffer);
+			writeBuffer.limit(limit);
+			if (index != null) {
+				index.add(record.gatewayNo, record.funcCode, record.dataTimeMillis, offset);
+			}
+			bufferedRecords++;
+		} catch (IOException e) {
+			// lost together with the group already buffered
+			bufferedRecords++;
+			throw e;
+		} finally {
+			record.frame.release();
+		}
+	}
+
+	private void flush() throws IOException {
+		if (writeBuffer.position() == 0) {
+			return;
+		}
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining()) {
+			segmentPosition += segment.write(writeBuffer);
+		}
+		writeBuffer.clear();
+		bufferedRecords = 0;
+		dirty = true;
+		if (index != null) {
+			index.commit();
+		}
+	}
+
+	private void force() throws IOException {
+		if (dirty && segment != null && fsyncPolicy != ArchiveFsyncPolicy.NEVER) {
+			segment.force(false);
+			lastForceNanos = System.nanoTime();
+		}
+		dirty = false;
+	}
+
+	private void forceIfDue() throws IOException {
+		if (dirty && fsyncPolicy == ArchiveFsyncPolicy.INTERVAL
+				&& System.nanoTime() - lastForceNanos >= TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs)) {
+			force();
+		}
+	}
+
+	private void roll(long millis) throws IOException {
+		force();
+		closeSegment();
+		String day = ArchiveFormat.day(millis);
+		if (!day.equals(segmentDay)) {
+			segmentDay = day;
+			segmentSequence = lastSequence(day);
+			nextDayMillis = nextDayMillis(millis);
+		}
+		segmentSequence++;
+		File file = new File(directory, ArchiveFormat.segmentName(day, segmentSequence));
+		segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(ArchiveFormat.SEGMENT_HEADER_LENGTH);
+		header.putInt(ArchiveFormat.SEGMENT_MAGIC).putInt(ArchiveFormat.SEGMENT_VERSION).flip();
+		while (header.hasRemaining()) {
+			segment.write(header);
+		}
+		segmentPosition = ArchiveFormat.SEGMENT_HEADER_LENGTH;
+		if (index != null) {
+			index.activate(file);
+		}
+		logger.debug("Opened archive segment " + file);
+	}
+
+	private void closeSegment() {
+		if (segment != null) {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				logger.error("Closing archive segment failed: " + e.getMessage(), e);
+			}
+			if (index != null) {
+				try {
+					index.seal();
+				} catch (IOException e) {
+					logger.error("Writing archive index failed: " + e.getMessage(), e);
+				}
+			}
+		}
+		segment = null;
+		if (bufferedRecords > 0) {
+			droppedFrames.add(bufferedRecords);
+			logger.error("Dropped " + bufferedRecords + " frames not yet archived");
+			bufferedRecords = 0;
+		}
+		writeBuffer.clear();
+	}
+
+	private int lastSequence(String day) {
+		int last = 0;
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(day + "-") && name.endsWith(ArchiveFormat.SEGMENT_SUFFIX)) {
+					try {
+						last = Math.max(last, Integer.parseInt(name.substring(day.length() + 1,
+								name.length() - ArchiveFormat.SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						logger.debug("Ignoring " + name + " in archive directory");
+					}
+				}
+			}
+		}
+		return last;
+	}
+
+	private static long nextDayMillis(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,235 @@
+package com.bdreport.socket.server.archive;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the raw bytes of frames that failed validation, for diagnosing
+ * misbehaving gateways. Off by default.
+ * <p>
+ * Rejected frames are copied and handed to a writer thread through a bounded
+ * queue, so a gateway sending garbage cannot slow down the processing
+ * threads. The writer appends one line per frame, with receive time, remote
+ * address, parse status and the frame in hex, to a file per day named
+ * {@code yyyyMMdd.quarantine}. Frames are dropped when the queue is full or
+ * the day's file has reached {@code maxBytesPerDay}.
+ */
+@Component
+public class FrameQuarantine {
+
+	private static Logger logger = Logger.getLogger(FrameQuarantine.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	public static final String FILE_SUFFIX = ".quarantine";
+
+	@Value("${bdreport.quarantine.enabled:false}")
+	private boolean enabled;
+
+	@Value("${bdreport.quarantine.path:${bdreport.logpath:/var/log/}/quarantine}")
+	private String path;
+
+	@Value("${bdreport.quarantine.queue-capacity:1024}")
+	private int queueCapacity = 1024;
+
+	@Value("${bdreport.quarantine.max-bytes-per-day:67108864}")
+	private long maxBytesPerDay = 64 * 1024 * 1024;
+
+	private static final class Entry {
+
+		final long receivedMillis;
+
+		final String remoteAddress;
+
+		final int status;
+
+		final byte[] frame;
+
+		Entry(long receivedMillis, String remoteAddress, int status, byte[] frame) {
+			this.receivedMillis = receivedMillis;
+			this.remoteAddress = remoteAddress;
+			this.status = status;
+			this.frame = frame;
+		}
+	}
+
+	private Queue<Entry> queue;
+
+	private Thread writerThread;
+
+	private volatile boolean running;
+
+	private File directory;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong writtenCount = new AtomicLong();
+
+	private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd");
+
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private String day;
+
+	private Writer writer;
+
+	private long fileBytes;
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		directory = new File(path);
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create quarantine directory " + directory);
+		}
+		queue = PlatformDependent.newFixedMpscQueue(queueCapacity);
+		running = true;
+		writerThread = new DefaultThreadFactory("frame-quarantine").newThread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		});
+		writerThread.start();
+		logger.info("Quarantining rejected frames to " + directory);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (writerThread != null) {
+			LockSupport.unpark(writerThread);
+			writerThread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	/**
+	 * Queues a copy of a rejected frame. The caller keeps its reference.
+	 *
+	 * @return {@code false} if quarantine is disabled or the queue is full
+	 */
+	public boolean append(ByteBuf frame, String remoteAddress, int status) {
+		if (!running) {
+			return false;
+		}
+		if (!queue.offer(new Entry(System.currentTimeMillis(), remoteAddress, status, ByteBufUtil.getBytes(frame)))) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private void writeLoop() {
+		while (running || !queue.isEmpty()) {
+			Entry entry = queue.poll();
+			if (entry == null) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			try {
+				do {
+					write(entry);
+				} while ((entry = queue.poll()) != null);
+				if (writer != null) {
+					writer.flush();
+				}
+			} catch (IOException e) {
+				logger.error("Quarantine write failed: " + e.getMessage(), e);
+				close();
+			}
+		}
+		close();
+	}
+
+	private void write(Entry entry) throws IOException {
+		Date received = new Date(entry.receivedMillis);
+		String entryDay = dayFormat.format(received);
+		if (!entryDay.equals(day) || writer == null) {
+			close();
+			File file = new File(directory, entryDay + FILE_SUFFIX);
+			writer = new OutputStreamWriter(Files.newOutputStream(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND), US_ASCII);
+			day = entryDay;
+			fileBytes = file.length();
+		}
+		String line = timeFormat.format(received) + ' ' + entry.remoteAddress + " status=0x"
+				+ Integer.toHexString(entry.status) + ' ' + ByteBufUtil.hexDump(entry.frame).toUpperCase() + '\n';
+		if (fileBytes + line.length() > maxBytesPerDay) {
+			droppedCount.incrementAndGet();
+			return;
+		}
+		writer.write(line);
+		fileBytes += line.length();
+		writtenCount.incrementAndGet();
+	}
+
+	private void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				logger.error("Closing quarantine file failed: " + e.getMessage(), e);
+			}
+		}
+		writer = null;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setMaxBytesPerDay(long maxBytesPerDay) {
+		this.maxBytesPerDay = maxBytesPerDay;
+	}
+}
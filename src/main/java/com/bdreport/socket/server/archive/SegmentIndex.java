@@ -0,0 +1,137 @@
+package com.bdreport.socket.server.archive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * The index of a sealed segment. Only the header and the key directory are
+ * kept in memory; entries are binary searched in the index file.
+ */
+final class SegmentIndex {
+
+	private final File segmentFile;
+
+	private final File indexFile;
+
+	private final long minMillis;
+
+	private final long maxMillis;
+
+	private final int[] keys;
+
+	private final int[] firsts;
+
+	private final int[] counts;
+
+	private final long entriesOffset;
+
+	private SegmentIndex(File segmentFile, File indexFile, long minMillis, long maxMillis, int[] keys,
+			int[] firsts, int[] counts) {
+		this.segmentFile = segmentFile;
+		this.indexFile = indexFile;
+		this.minMillis = minMillis;
+		this.maxMillis = maxMillis;
+		this.keys = keys;
+		this.firsts = firsts;
+		this.counts = counts;
+		this.entriesOffset = ArchiveFormat.INDEX_HEADER_LENGTH + (long) keys.length * ArchiveFormat.INDEX_KEY_LENGTH;
+	}
+
+	static SegmentIndex load(File segmentFile, File indexFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readInt() != ArchiveFormat.INDEX_MAGIC || in.readInt() != ArchiveFormat.INDEX_VERSION) {
+				throw new IOException(indexFile + " is not an archive index");
+			}
+			int keyCount = in.readInt();
+			int entryCount = in.readInt();
+			long minMillis = in.readLong();
+			long maxMillis = in.readLong();
+			if (indexFile.length() != ArchiveFormat.INDEX_HEADER_LENGTH
+					+ (long) keyCount * ArchiveFormat.INDEX_KEY_LENGTH
+					+ (long) entryCount * ArchiveFormat.INDEX_ENTRY_LENGTH) {
+				throw new IOException(indexFile + " is truncated");
+			}
+			int[] keys = new int[keyCount];
+			int[] firsts = new int[keyCount];
+			int[] counts = new int[keyCount];
+			for (int i = 0; i < keyCount; i++) {
+				keys[i] = in.readInt();
+				firsts[i] = in.readInt();
+				counts[i] = in.readInt();
+			}
+			return new SegmentIndex(segmentFile, indexFile, minMillis, maxMillis, keys, firsts, counts);
+		}
+	}
+
+	File getSegmentFile() {
+		return segmentFile;
+	}
+
+	/**
+	 * Adds the offsets of the entries matching the range to {@code out}, in
+	 * key and data time order.
+	 */
+	void find(int fromKey, int toKey, long fromMillis, long toMillis, List<Long> out) throws IOException {
+		if (toMillis < minMillis || fromMillis > maxMillis) {
+			return;
+		}
+		int k = lowerBound(fromKey);
+		if (k == keys.length || keys[k] > toKey) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer entry = ByteBuffer.allocate(ArchiveFormat.INDEX_ENTRY_LENGTH);
+			for (; k < keys.length && keys[k] <= toKey; k++) {
+				int low = firsts[k];
+				int high = firsts[k] + counts[k];
+				while (low < high) {
+					int middle = (low + high) >>> 1;
+					if (readEntry(channel, entry, middle).getLong(0) < fromMillis) {
+						low = middle + 1;
+					} else {
+						high = middle;
+					}
+				}
+				for (int i = low; i < firsts[k] + counts[k]; i++) {
+					readEntry(channel, entry, i);
+					if (entry.getLong(0) > toMillis) {
+						break;
+					}
+					out.add(entry.getLong(8));
+				}
+			}
+		}
+	}
+
+	private int lowerBound(int key) {
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private ByteBuffer readEntry(FileChannel channel, ByteBuffer entry, int i) throws IOException {
+		entry.clear();
+		long position = entriesOffset + (long) i * ArchiveFormat.INDEX_ENTRY_LENGTH;
+		while (entry.hasRemaining()) {
+			if (channel.read(entry, position + entry.position()) < 0) {
+				throw new IOException(indexFile + " is truncated");
+			}
+		}
+		return entry;
+	}
+}
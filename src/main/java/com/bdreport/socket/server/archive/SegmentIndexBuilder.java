@@ -0,0 +1,181 @@
+package com.bdreport.socket.server.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the index entries of the segment being written, in arrival order,
+ * and writes them sorted into an index file when the segment is sealed.
+ * Entries become visible to queries once committed, that is once the records
+ * they point to have been written.
+ */
+final class SegmentIndexBuilder {
+
+	private int[] keys = new int[1024];
+
+	private long[] times = new long[1024];
+
+	private long[] offsets = new long[1024];
+
+	private int size;
+
+	private int committed;
+
+	void add(int key, long dataTimeMillis, long offset) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			times = Arrays.copyOf(times, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		keys[size] = key;
+		times[size] = dataTimeMillis;
+		offsets[size] = offset;
+		size++;
+	}
+
+	void commit() {
+		committed = size;
+	}
+
+	void clear() {
+		size = 0;
+		committed = 0;
+	}
+
+	int committed() {
+		return committed;
+	}
+
+	/**
+	 * Adds the offsets of the committed entries matching the range to
+	 * {@code out}.
+	 */
+	void find(int fromKey, int toKey, long fromMillis, long toMillis, List<Long> out) {
+		for (int i = 0; i < committed; i++) {
+			if (keys[i] >= fromKey && keys[i] <= toKey && times[i] >= fromMillis && times[i] <= toMillis) {
+				out.add(offsets[i]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the committed entries as an index file, replacing {@code file}
+	 * atomically.
+	 */
+	void write(File file) throws IOException {
+		int count = committed;
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		sort(order, 0, count - 1);
+
+		int keyCount = 0;
+		long minMillis = Long.MAX_VALUE;
+		long maxMillis = Long.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			if (i == 0 || keys[order[i]] != keys[order[i - 1]]) {
+				keyCount++;
+			}
+			minMillis = Math.min(minMillis, times[i]);
+			maxMillis = Math.max(maxMillis, times[i]);
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(ArchiveFormat.INDEX_MAGIC);
+			out.writeInt(ArchiveFormat.INDEX_VERSION);
+			out.writeInt(keyCount);
+			out.writeInt(count);
+			out.writeLong(minMillis);
+			out.writeLong(maxMillis);
+			for (int first = 0, i = 1; i <= count; i++) {
+				if (i == count || keys[order[i]] != keys[order[first]]) {
+					out.writeInt(keys[order[first]]);
+					out.writeInt(first);
+					out.writeInt(i - first);
+					first = i;
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeLong(times[order[i]]);
+				out.writeLong(offsets[order[i]]);
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private int compare(int a, int b) {
+		if (keys[a] != keys[b]) {
+			return keys[a] < keys[b] ? -1 : 1;
+		}
+		if (times[a] != times[b]) {
+			return times[a] < times[b] ? -1 : 1;
+		}
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	/**
+	 * Sorts entry numbers by key, data time and arrival. Frames mostly arrive
+	 * in order, so small ranges are finished by insertion sort and the pivot
+	 * is the median of three.
+	 */
+	private void sort(int[] order, int low, int high) {
+		while (high - low > 16) {
+			int middle = (low + high) >>> 1;
+			if (compare(order[middle], order[low]) < 0) {
+				swap(order, middle, low);
+			}
+			if (compare(order[high], order[low]) < 0) {
+				swap(order, high, low);
+			}
+			if (compare(order[high], order[middle]) < 0) {
+				swap(order, high, middle);
+			}
+			int pivot = order[middle];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (compare(order[i], pivot) < 0) {
+					i++;
+				}
+				while (compare(order[j], pivot) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(order, i++, j--);
+				}
+			}
+			if (j - low < high - i) {
+				sort(order, low, j);
+				low = i;
+			} else {
+				sort(order, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			int entry = order[i];
+			int j = i - 1;
+			while (j >= low && compare(order[j], entry) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = entry;
+		}
+	}
+
+	private static void swap(int[] order, int i, int j) {
+		int entry = order[i];
+		order[i] = order[j];
+		order[j] = entry;
+	}
+}
@@ -0,0 +1,143 @@
+package com.bdreport.socket.server.data;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Packs the time fields of a frame into a {@code long} and formats them as
+ * {@code data_date_time}, {@code "yyyy-MM-dd HH:mm:ss"}.
+ * <p>
+ * Fields are packed as they arrive, before any range checks, so the text is
+ * exactly what {@code String.format("%04d-%02d-%02d %02d:%02d:%02d")} gives
+ * for them. Formatting goes through a cache bound to the calling thread that
+ * keeps the last result and the last date prefix, since consecutive frames
+ * mostly share the second and nearly always the day. Fields outside their
+ * usual ranges fall back to {@code String.format}.
+ */
+public final class DataTimeFormat {
+
+	private static final FastThreadLocal<DataTimeFormat> CURRENT = new FastThreadLocal<DataTimeFormat>() {
+		@Override
+		protected DataTimeFormat initialValue() {
+			return new DataTimeFormat();
+		}
+	};
+
+	/**
+	 * Set in every packed time, so that a packed time is never {@code 0}.
+	 */
+	private static final long PRESENT = 1L << 56;
+
+	private static final int DATE_SHIFT = 24;
+
+	private static final int DATE_LENGTH = 11;
+
+	private final char[] chars = new char[19];
+
+	private long datePart = -1;
+
+	private long lastPacked;
+
+	private String lastText;
+
+	private DataTimeFormat() {
+	}
+
+	/**
+	 * Packs the raw time fields of a frame: the year as an unsigned short and
+	 * the others as the signed bytes read from the frame.
+	 */
+	public static long pack(int year, int month, int day, int hour, int minute, int second) {
+		return PRESENT | (long) (year & 0xFFFF) << 40 | (long) (month & 0xFF) << 32 | (long) (day & 0xFF) << 24
+				| (hour & 0xFF) << 16 | (minute & 0xFF) << 8 | (second & 0xFF);
+	}
+
+	public static int getYear(long packed) {
+		return (int) (packed >>> 40) & 0xFFFF;
+	}
+
+	public static int getMonth(long packed) {
+		return (byte) (packed >>> 32);
+	}
+
+	public static int getDay(long packed) {
+		return (byte) (packed >>> 24);
+	}
+
+	public static int getHour(long packed) {
+		return (byte) (packed >>> 16);
+	}
+
+	public static int getMinute(long packed) {
+		return (byte) (packed >>> 8);
+	}
+
+	public static int getSecond(long packed) {
+		return (byte) packed;
+	}
+
+	/**
+	 * Formats a packed time as {@code "yyyy-MM-dd HH:mm:ss"}.
+	 */
+	public static String format(long packed) {
+		return CURRENT.get().formatCached(packed);
+	}
+
+	/**
+	 * Returns {@code dataTime} without its {@code '-'}, {@code ':'} and
+	 * {@code ' '} characters, e.g. {@code "20170613090000"}.
+	 */
+	public static String compact(String dataTime) {
+		char[] compact = new char[dataTime.length()];
+		int length = 0;
+		for (int i = 0; i < dataTime.length(); i++) {
+			char c = dataTime.charAt(i);
+			if (c != '-' && c != ':' && c != ' ') {
+				compact[length++] = c;
+			}
+		}
+		return new String(compact, 0, length);
+	}
+
+	private String formatCached(long packed) {
+		if (packed == lastPacked) {
+			return lastText;
+		}
+		int year = getYear(packed);
+		int month = getMonth(packed);
+		int day = getDay(packed);
+		int hour = getHour(packed);
+		int minute = getMinute(packed);
+		int second = getSecond(packed);
+		String text;
+		if (year > 9999 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || month > 99
+				|| day > 99 || hour > 99 || minute > 99 || second > 99) {
+			text = String.format("%04d-%02d-%02d %02d:%02d:%02d", year, month, day, hour, minute, second);
+		} else {
+			long date = packed >>> DATE_SHIFT;
+			if (date != datePart) {
+				putDigits(0, year / 100);
+				putDigits(2, year % 100);
+				chars[4] = '-';
+				putDigits(5, month);
+				chars[7] = '-';
+				putDigits(8, day);
+				chars[10] = ' ';
+				datePart = date;
+			}
+			putDigits(DATE_LENGTH, hour);
+			chars[13] = ':';
+			putDigits(14, minute);
+			chars[16] = ':';
+			putDigits(17, second);
+			text = new String(chars);
+		}
+		lastPacked = packed;
+		lastText = text;
+		return text;
+	}
+
+	private void putDigits(int index, int value) {
+		chars[index] = (char) ('0' + value / 10);
+		chars[index + 1] = (char) ('0' + value % 10);
+	}
+}
@@ -0,0 +1,40 @@
+package com.bdreport.socket.server.data;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.ObjectSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+
+/**
+ * Writes a {@code float[]} exactly like fastjson writes a {@code List<Float>},
+ * i.e. NaN and infinite samples become {@code null}, so primitive sample
+ * arrays keep the JSON format consumers already parse.
+ */
+public class FloatArraySerializer implements ObjectSerializer {
+
+	@Override
+	public void write(JSONSerializer serializer, Object object, Object fieldName, Type fieldType, int features)
+			throws IOException {
+		SerializeWriter out = serializer.getWriter();
+		if (object == null) {
+			out.writeNull();
+			return;
+		}
+		float[] values = (float[]) object;
+		out.write('[');
+		for (int i = 0; i < values.length; i++) {
+			if (i != 0) {
+				out.write(',');
+			}
+			float value = values[i];
+			if (Float.isNaN(value) || Float.isInfinite(value)) {
+				out.writeNull();
+			} else {
+				out.writeFloat(value, false);
+			}
+		}
+		out.write(']');
+	}
+}
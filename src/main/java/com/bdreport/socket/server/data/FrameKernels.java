@@ -0,0 +1,158 @@
+package com.bdreport.socket.server.data;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * Bulk kernels for the data section of a frame: half-float decoding and the
+ * data checksum.
+ * <p>
+ * Samples are decoded through a table of all 65,536 half-float bit patterns,
+ * built once from {@link TcpPackageModel#toFloat(short)} so that the results
+ * are bit for bit the same as decoding one sample at a time. The checksum
+ * reads eight bytes at a time and adds them in parallel lanes of a long.
+ * Both read words, with unaligned unsafe loads where the platform allows;
+ * heap buffers are read through their backing array, other buffers through
+ * {@link ByteBuf#getLong(int)}.
+ */
+public final class FrameKernels {
+
+	private static final float[] HALF_TO_FLOAT = new float[0x10000];
+
+	static {
+		for (int i = 0; i < HALF_TO_FLOAT.length; i++) {
+			HALF_TO_FLOAT[i] = TcpPackageModel.toFloat((short) i);
+		}
+	}
+
+	private static final long LOW_BYTES = 0x00FF00FF00FF00FFL;
+
+	private static final long LANE_SUM = 0x0001000100010001L;
+
+	private static final boolean UNSAFE_WORDS = PlatformDependent.hasUnsafe() && PlatformDependent.isUnaligned();
+
+	private FrameKernels() {
+	}
+
+	/**
+	 * Decodes one half-float sample.
+	 */
+	public static float toFloat(short half) {
+		return HALF_TO_FLOAT[half & 0xFFFF];
+	}
+
+	/**
+	 * Decodes {@code count} big-endian half-float samples starting at
+	 * {@code offset} into the first {@code count} elements of {@code dst}.
+	 */
+	public static void decode(byte[] src, int offset, int count, float[] dst) {
+		checkRange(offset, count * 2, src.length);
+		int i = 0;
+		for (int words = count & ~3; i < words; i += 4, offset += 8) {
+			long word = getLong(src, offset);
+			dst[i] = HALF_TO_FLOAT[(int) (word >>> 48)];
+			dst[i + 1] = HALF_TO_FLOAT[(int) (word >>> 32) & 0xFFFF];
+			dst[i + 2] = HALF_TO_FLOAT[(int) (word >>> 16) & 0xFFFF];
+			dst[i + 3] = HALF_TO_FLOAT[(int) word & 0xFFFF];
+		}
+		for (; i < count; i++, offset += 2) {
+			dst[i] = HALF_TO_FLOAT[((src[offset] & 0xFF) << 8) | (src[offset + 1] & 0xFF)];
+		}
+	}
+
+	/**
+	 * Decodes {@code count} half-float samples starting at {@code index} into
+	 * the first {@code count} elements of {@code dst}, without changing the
+	 * indexes of {@code buf}.
+	 */
+	public static void decode(ByteBuf buf, int index, int count, float[] dst) {
+		checkRange(index, count * 2, buf.capacity());
+		if (buf.hasArray()) {
+			decode(buf.array(), buf.arrayOffset() + index, count, dst);
+			return;
+		}
+		int i = 0;
+		for (int words = count & ~3; i < words; i += 4, index += 8) {
+			long word = buf.getLong(index);
+			dst[i] = HALF_TO_FLOAT[(int) (word >>> 48)];
+			dst[i + 1] = HALF_TO_FLOAT[(int) (word >>> 32) & 0xFFFF];
+			dst[i + 2] = HALF_TO_FLOAT[(int) (word >>> 16) & 0xFFFF];
+			dst[i + 3] = HALF_TO_FLOAT[(int) word & 0xFFFF];
+		}
+		for (; i < count; i++, index += 2) {
+			dst[i] = HALF_TO_FLOAT[buf.getUnsignedShort(index)];
+		}
+	}
+
+	/**
+	 * Adds {@code length} bytes of {@code src} starting at {@code offset},
+	 * modulo 256.
+	 */
+	public static byte checkSum(byte[] src, int offset, int length) {
+		checkRange(offset, length, src.length);
+		long lanes = 0;
+		int i = offset;
+		for (int words = offset + (length & ~7); i < words; i += 8) {
+			lanes = addLanes(lanes, getLong(src, i));
+		}
+		byte sum = foldLanes(lanes);
+		for (int end = offset + length; i < end; i++) {
+			sum += src[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Adds {@code length} bytes of {@code buf} starting at {@code index},
+	 * modulo 256, without changing its indexes.
+	 */
+	public static byte checkSum(ByteBuf buf, int index, int length) {
+		checkRange(index, length, buf.capacity());
+		if (buf.hasArray()) {
+			return checkSum(buf.array(), buf.arrayOffset() + index, length);
+		}
+		long lanes = 0;
+		int i = index;
+		for (int words = index + (length & ~7); i < words; i += 8) {
+			lanes = addLanes(lanes, buf.getLong(i));
+		}
+		byte sum = foldLanes(lanes);
+		for (int end = index + length; i < end; i++) {
+			sum += buf.getByte(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Adds the eight bytes of {@code word} into four 16 bit lanes, each kept
+	 * modulo 256 so that no lane carries into the next.
+	 */
+	private static long addLanes(long lanes, long word) {
+		return (lanes + (word & LOW_BYTES) + ((word >>> 8) & LOW_BYTES)) & LOW_BYTES;
+	}
+
+	private static byte foldLanes(long lanes) {
+		return (byte) ((lanes * LANE_SUM) >>> 48);
+	}
+
+	/**
+	 * Reads eight bytes big-endian. The caller has checked the range, which
+	 * the unsafe read relies on.
+	 */
+	private static long getLong(byte[] src, int offset) {
+		if (UNSAFE_WORDS) {
+			long word = PlatformDependent.getLong(src, offset);
+			return PlatformDependent.BIG_ENDIAN_NATIVE_ORDER ? word : Long.reverseBytes(word);
+		}
+		return ((long) src[offset] << 56) | ((src[offset + 1] & 0xFFL) << 48) | ((src[offset + 2] & 0xFFL) << 40)
+				| ((src[offset + 3] & 0xFFL) << 32) | ((src[offset + 4] & 0xFFL) << 24)
+				| ((src[offset + 5] & 0xFFL) << 16) | ((src[offset + 6] & 0xFFL) << 8) | (src[offset + 7] & 0xFFL);
+	}
+
+	private static void checkRange(int index, int length, int capacity) {
+		if (index < 0 || length < 0 || index > capacity - length) {
+			throw new IndexOutOfBoundsException(
+					"index: " + index + ", length: " + length + " (expected: range(0, " + capacity + "))");
+		}
+	}
+}
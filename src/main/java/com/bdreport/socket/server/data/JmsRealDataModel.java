@@ -1,8 +1,5 @@
 package com.bdreport.socket.server.data;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.springframework.stereotype.Component;
 
 import com.alibaba.fastjson.annotation.JSONField;
@@ -25,7 +22,20 @@ public class JmsRealDataModel {
 	@JSONField(name = "data_date_time", ordinal = 3)
 	private String dataTime;
 
+	@JSONField(serialize = false)
+	private long dataTimeMillis = 0;
+
+	@JSONField(serialize = false)
+	private long packedDataTime = 0;
+
+	/**
+	 * Returns the frame time as {@code "yyyy-MM-dd HH:mm:ss"}, formatted from
+	 * the packed time on first use if it was not set as text.
+	 */
 	public String getDataTime() {
+		if (dataTime == null && packedDataTime != 0) {
+			dataTime = DataTimeFormat.format(packedDataTime);
+		}
 		return dataTime;
 	}
 
@@ -33,31 +43,76 @@ public class JmsRealDataModel {
 		this.dataTime = dataTime;
 	}
 
+	/**
+	 * Returns the time fields of the frame as packed by
+	 * {@link DataTimeFormat#pack}, or {@code 0} if the model was built from
+	 * text.
+	 */
+	public long getPackedDataTime() {
+		return packedDataTime;
+	}
+
+	/**
+	 * Sets the packed time fields and drops any text set before, so that
+	 * {@link #getDataTime()} formats them when asked.
+	 */
+	public void setPackedDataTime(long packedDataTime) {
+		this.packedDataTime = packedDataTime;
+		this.dataTime = null;
+	}
+
+	/**
+	 * Returns the frame time as epoch milliseconds in the server time zone.
+	 */
+	public long getDataTimeMillis() {
+		return dataTimeMillis;
+	}
+
+	public void setDataTimeMillis(long dataTimeMillis) {
+		this.dataTimeMillis = dataTimeMillis;
+	}
+
 	@JSONField(name = "data_length", ordinal = 6)
 	private int dataLength = 0;
 
-	@JSONField(name = "data_list", ordinal = 7)
-	private List<Float> dataList;
+	@JSONField(name = "data_list", ordinal = 7, serializeUsing = FloatArraySerializer.class)
+	private float[] dataList;
 
-	public List<Float> getDataList() {
+	public float[] getDataList() {
 		return dataList;
 	}
 
-	public void setDataList(List<Float> dataList) {
+	public void setDataList(float[] dataList) {
 		this.dataList = dataList;
 	}
 
+	@JSONField(name = "data_index", ordinal = 8)
+	private int[] dataIndex;
+
+	/**
+	 * Returns the channel of each sample in the data list when only changed
+	 * channels are published, or {@code null} when the list has every
+	 * channel. The field is left out of the JSON when {@code null}.
+	 */
+	public int[] getDataIndex() {
+		return dataIndex;
+	}
+
+	public void setDataIndex(int[] dataIndex) {
+		this.dataIndex = dataIndex;
+	}
+
 	public JmsRealDataModel() {
 
 	}
 
 	public JmsRealDataModel(String ipAddr, int inetPort, String funcCode, int gwNo, String dataTime, int length,
-			List<Float> dataList) {
+			float[] dataList) {
 		initDataModel(ipAddr, inetPort, funcCode, gwNo, dataTime, length, dataList);
 	}
 
 	public void initDataModel(String ipAddr, int inetPort, String funcCode, int gwNo, String dataTime, int length,
-			List<Float> dataList) {
+			float[] dataList) {
 		this.ipAddr = ipAddr;
 		this.inetPort = inetPort;
 		this.funcCode = funcCode;
@@ -67,6 +122,19 @@ public class JmsRealDataModel {
 		this.dataList = dataList;
 	}
 
+	/**
+	 * Returns a shallow copy sharing the data list and index arrays, which
+	 * are replaced rather than modified once a model is built.
+	 */
+	public JmsRealDataModel copy() {
+		JmsRealDataModel copy = new JmsRealDataModel(ipAddr, inetPort, funcCode, gatewayNo, dataTime, dataLength,
+				dataList);
+		copy.dataTimeMillis = dataTimeMillis;
+		copy.packedDataTime = packedDataTime;
+		copy.dataIndex = dataIndex;
+		return copy;
+	}
+
 	public String getIpAddr() {
 		return ipAddr;
 	}
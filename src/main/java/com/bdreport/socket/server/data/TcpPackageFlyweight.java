@@ -0,0 +1,234 @@
+package com.bdreport.socket.server.data;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Calendar;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reusable, allocation-free view of a B1-B4 frame held in a {@link ByteBuf}.
+ * <p>
+ * {@link #wrap(ByteBuf)} validates the frame and remembers its position; all
+ * accessors then read straight from the buffer at fixed offsets, so nothing is
+ * copied or allocated while parsing. A view is only valid until the next
+ * {@code wrap} and as long as the wrapped buffer is not released. Use
+ * {@link #current()} to get the instance bound to the calling thread.
+ */
+public final class TcpPackageFlyweight {
+
+	private static Logger logger = Logger.getLogger(TcpPackageFlyweight.class.getName());
+
+	private static final FastThreadLocal<TcpPackageFlyweight> CURRENT = new FastThreadLocal<TcpPackageFlyweight>() {
+		@Override
+		protected TcpPackageFlyweight initialValue() {
+			return new TcpPackageFlyweight();
+		}
+	};
+
+	private static final String[] FUNC_CODE_NAMES = new String[256];
+
+	static {
+		char[] digits = "0123456789ABCDEF".toCharArray();
+		for (int i = 0; i < FUNC_CODE_NAMES.length; i++) {
+			FUNC_CODE_NAMES[i] = new String(new char[] { digits[i >> 4], digits[i & 0x0F] });
+		}
+	}
+
+	public static final int OFFSET_FUNC_CODE = 1;
+	public static final int OFFSET_GATEWAY_NO = 2;
+	public static final int OFFSET_YEAR = 4;
+	public static final int OFFSET_MONTH = 6;
+	public static final int OFFSET_DAY = 7;
+	public static final int OFFSET_HOUR = 8;
+	public static final int OFFSET_MINUTE = 9;
+	public static final int OFFSET_SECOND = 10;
+	public static final int OFFSET_LENGTH = 11;
+	public static final int OFFSET_DATA = TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH;
+
+	private ByteBuf buf;
+	private int base;
+	private int frameLength;
+	private int status = TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_NULL;
+
+	private final Calendar calendar = Calendar.getInstance();
+
+	/**
+	 * Returns the view bound to the calling thread.
+	 */
+	public static TcpPackageFlyweight current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Points this view at the readable bytes of {@code frame} and validates
+	 * them. The reader index of {@code frame} is left unchanged.
+	 *
+	 * @return one of the {@code TcpPackageModel.PACKAGE_PARSE_*} codes
+	 */
+	public int wrap(ByteBuf frame) {
+		this.buf = frame;
+		if (frame == null) {// package null
+			logger.debug("Package Null Error.");
+			frameLength = 0;
+			return status = TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_NULL;
+		}
+		base = frame.readerIndex();
+		frameLength = frame.readableBytes();
+		return status = validate();
+	}
+
+	private int validate() {
+		if (frameLength < 2) {// package empty
+			logger.debug("Package Empty Error.");
+			return TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_EMPTY;
+		}
+		byte funcCode = getFuncCode();
+		if (!isDataFuncCode(funcCode)) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Package FuncCode Unkown: " + funcCode);
+			}
+			return TcpPackageModel.PACKAGE_PARSE_FAILED_FUNCCODE_UNKOWN;
+		}
+		if (frameLength < TcpPackageModel.PACKAGE_FRAME_HEADER_LENGTH) {// package broken
+			logger.debug("Package Broken Error.");
+			return TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_BROKEN;
+		}
+		int length = getDataLength();
+		if (frameLength < OFFSET_DATA + length + 1) {// data broken
+			if (logger.isDebugEnabled()) {
+				logger.debug("Package Data Broken Error, Data Length: " + length);
+			}
+			return TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_BROKEN;
+		}
+		if (getCheckSum() != checkSum(buf, base + OFFSET_DATA, length)) { // Data Checksum Error
+			logger.debug("Package Data Checksum Error.");
+			return TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_CHECKSUM_ERROR;
+		}
+		return TcpPackageModel.PACKAGE_PARSE_SUCCEED;
+	}
+
+	public static boolean isDataFuncCode(byte funcCode) {
+		return funcCode == (byte) 0xB1 || funcCode == (byte) 0xB2 || funcCode == (byte) 0xB3
+				|| funcCode == (byte) 0xB4;
+	}
+
+	/**
+	 * Adds {@code length} bytes of {@code buf} starting at {@code index}
+	 * without changing its indexes.
+	 */
+	public static byte checkSum(ByteBuf buf, int index, int length) {
+		return FrameKernels.checkSum(buf, index, length);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isValid() {
+		return status == TcpPackageModel.PACKAGE_PARSE_SUCCEED;
+	}
+
+	public ByteBuf getBuffer() {
+		return buf;
+	}
+
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	public byte getFuncCode() {
+		return buf.getByte(base + OFFSET_FUNC_CODE);
+	}
+
+	/**
+	 * Returns the function code as upper-case hex, e.g. "B1".
+	 */
+	public String getFuncCodeName() {
+		return FUNC_CODE_NAMES[getFuncCode() & 0xFF];
+	}
+
+	public int getGatewayNo() {
+		return buf.getUnsignedShort(base + OFFSET_GATEWAY_NO);
+	}
+
+	public int getYear() {
+		return buf.getUnsignedShort(base + OFFSET_YEAR);
+	}
+
+	public int getMonth() {
+		return buf.getByte(base + OFFSET_MONTH);
+	}
+
+	public int getDay() {
+		return buf.getByte(base + OFFSET_DAY);
+	}
+
+	public int getHour() {
+		return buf.getByte(base + OFFSET_HOUR);
+	}
+
+	public int getMinute() {
+		return buf.getByte(base + OFFSET_MINUTE);
+	}
+
+	public int getSecond() {
+		return buf.getByte(base + OFFSET_SECOND);
+	}
+
+	/**
+	 * Returns the time fields of the frame packed by
+	 * {@link DataTimeFormat#pack}.
+	 */
+	public long getPackedDataTime() {
+		return DataTimeFormat.pack(getYear(), getMonth(), getDay(), getHour(), getMinute(), getSecond());
+	}
+
+	/**
+	 * Returns the frame time as epoch milliseconds, reading the fields in the
+	 * server time zone. Out-of-range fields roll over like a lenient
+	 * {@link Calendar}.
+	 */
+	public long getDataTimeMillis() {
+		calendar.clear();
+		calendar.set(getYear(), getMonth() - 1, getDay(), getHour(), getMinute(), getSecond());
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Returns the length of the data section in bytes.
+	 */
+	public int getDataLength() {
+		return buf.getUnsignedShort(base + OFFSET_LENGTH);
+	}
+
+	/**
+	 * Returns the number of half-float samples in the data section.
+	 */
+	public int getSampleCount() {
+		return getDataLength() / 2;
+	}
+
+	public byte getCheckSum() {
+		return buf.getByte(base + OFFSET_DATA + getDataLength());
+	}
+
+	/**
+	 * Returns the raw half-float bits of sample {@code i}.
+	 */
+	public short getHalf(int i) {
+		return buf.getShort(base + OFFSET_DATA + i * 2);
+	}
+
+	public float getSample(int i) {
+		return FrameKernels.toFloat(getHalf(i));
+	}
+
+	/**
+	 * Decodes the first {@code dst.length} samples into {@code dst}.
+	 */
+	public void getSamples(float[] dst) {
+		FrameKernels.decode(buf, base + OFFSET_DATA, dst.length, dst);
+	}
+}
@@ -1,9 +1,6 @@
 package com.bdreport.socket.server.data;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
@@ -11,6 +8,7 @@ import org.springframework.stereotype.Component;
 
 import com.alibaba.fastjson.JSON;
 
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
 @Component
@@ -24,6 +22,8 @@ public class TcpPackageModel {
 
 	private JmsRealDataModel dataModel = new JmsRealDataModel();
 
+	private int parseStatus = PACKAGE_PARSE_FAILED_PACKAGE_NULL;
+
 	public static final int PACKAGE_PARSE_SUCCEED = 0x00;
 	public static final int PACKAGE_PARSE_FAILED_PACKAGE_NULL = 0x10;
 	public static final int PACKAGE_PARSE_FAILED_PACKAGE_EMPTY = 0x20;
@@ -44,6 +44,12 @@ public class TcpPackageModel {
 	public static final int PACKAGE_FRAME_TAIL_STATUS_3 = 3;
 	public static final int PACKAGE_FRAME_TAIL_STATUS_END = 4;
 
+	public static final int PACKAGE_FRAME_HEADER_LENGTH = 13;
+	public static final int PACKAGE_FRAME_TAIL_LENGTH = 4;
+	public static final int PACKAGE_FRAME_MIN_LENGTH = 1 + PACKAGE_FRAME_TAIL_LENGTH;
+	public static final int PACKAGE_FRAME_MAX_LENGTH = PACKAGE_FRAME_HEADER_LENGTH + 0xFFFF + 1
+			+ PACKAGE_FRAME_TAIL_LENGTH;
+
 	public TcpPackageModel() {
 
 	}
@@ -75,6 +81,13 @@ public class TcpPackageModel {
 		from(buf);
 	}
 
+	public TcpPackageModel(ChannelHandlerContext ctx, TcpPackageFlyweight view) {
+		InetSocketAddress socket = ((InetSocketAddress) (ctx.channel().remoteAddress()));
+		ipAddr = socket.getAddress().getHostAddress();
+		inetPort = socket.getPort();
+		from(view);
+	}
+
 	public JmsRealDataModel getDataModel() {
 		return dataModel;
 	}
@@ -83,11 +96,18 @@ public class TcpPackageModel {
 		this.dataModel = dataModel;
 	}
 
+	public int getParseStatus() {
+		return parseStatus;
+	}
+
 	public void fromBytes(byte[] buf) {
 		from(buf);
 	}
 
 	public String toHexString() {
+		if (bytesMsg == null) {
+			return "";
+		}
 		return Hex.encodeHexString(bytesMsg).toUpperCase();
 	}
 
@@ -96,75 +116,42 @@ public class TcpPackageModel {
 	}
 
 	public byte checkSum(byte[] buf) {
-		byte sum = 0;
-		for (int i = 0; i < buf.length; i++) {
-			sum = (byte) (sum + buf[i]);
-		}
-		byte[] hex = new byte[1];
-		hex[0] = sum;
-		logger.debug("Data: " + Hex.encodeHexString(buf).toUpperCase());
-		logger.debug("Data Checksum: " + Hex.encodeHexString(hex).toUpperCase());
-		return sum;
+		return FrameKernels.checkSum(buf, 0, buf.length);
 	}
 
 	private int from(byte[] buf) {
 		if (buf == null) {// package null
 			logger.debug("Package Null Error.");
-			return PACKAGE_PARSE_FAILED_PACKAGE_NULL;
-		}
-		int len = buf.length;
-		if (len < 2) {// package empty
-			logger.debug("Package Empty Error.");
-			return PACKAGE_PARSE_FAILED_PACKAGE_EMPTY;
+			return parseStatus = PACKAGE_PARSE_FAILED_PACKAGE_NULL;
 		}
-		bytesMsg = Arrays.copyOf(buf, len);
-		byte funcCode = (byte) 0;
-
-		funcCode = bytesMsg[1];
-		if (funcCode == (byte) 0xB1 || funcCode == (byte) 0xB2 || funcCode == (byte) 0xB3 || funcCode == (byte) 0xB4) {
-			if (len < 13) {// package broken
-				logger.debug("Package Broken Error.");
-				return PACKAGE_PARSE_FAILED_PACKAGE_BROKEN;
-			}
-			int gatewayNo = (int) (((bytesMsg[2] & 0xFF) << 8) | (bytesMsg[3] & 0xFF));
-			int year = (int) (((bytesMsg[4] & 0xFF) << 8) | (bytesMsg[5] & 0xFF));
-			int month = (int) bytesMsg[6];
-			int day = (int) bytesMsg[7];
-			int hour = (int) bytesMsg[8];
-			int minute = (int) bytesMsg[9];
-			int second = (int) bytesMsg[10];
-			int length = (int) (((bytesMsg[11] & 0xFF) << 8) | (bytesMsg[12] & 0xFF));
-			if (len < 13 + length) {// data broken
-				logger.debug("Package Data Broken Error, Data Length: " + length);
-				return PACKAGE_PARSE_FAILED_DATA_BROKEN;
-			}
-			byte[] data = Arrays.copyOfRange(bytesMsg, 13, 13 + length);
-			int datalen = length / 2;
-			List<Float> dataList = new ArrayList();
-
-			if (bytesMsg[13 + length] == checkSum(data)) {
-				for (int i = 0; i < datalen; i++) {
-					float f = toFloat((short) (((data[i * 2] & 0xFF) << 8) | (data[i * 2 + 1] & 0xFF)));
-					dataList.add(f);
-				}
-			} else { // Data Checksum Error
-				logger.debug("Package Data Checksum Error.");
-				return PACKAGE_PARSE_FAILED_DATA_CHECKSUM_ERROR;
-			}
-			String strTime = String.format("%04d-%02d-%02d %02d:%02d:%02d", year, month, day, hour, minute, second);
-			logger.debug("Package Data Time: " + strTime);
-			byte[] fc = new byte[1];
-			fc[0] = funcCode;
-			dataModel.initDataModel(ipAddr, inetPort, Hex.encodeHexString(fc).toUpperCase(), gatewayNo, strTime,
-					datalen, dataList);
-		} else {
-			logger.debug("Package FuncCode Unkown: " + funcCode);
-			return PACKAGE_PARSE_FAILED_FUNCCODE_UNKOWN;
+		bytesMsg = buf;
+		TcpPackageFlyweight view = TcpPackageFlyweight.current();
+		parseStatus = view.wrap(Unpooled.wrappedBuffer(buf));
+		if (parseStatus == PACKAGE_PARSE_SUCCEED) {
+			from(view);
 		}
+		return parseStatus;
+	}
+
+	/**
+	 * Fills the data model from a validated frame view.
+	 */
+	public void from(TcpPackageFlyweight view) {
+		int datalen = view.getSampleCount();
+		float[] dataList = new float[datalen];
+		view.getSamples(dataList);
+		dataModel.initDataModel(ipAddr, inetPort, view.getFuncCodeName(), view.getGatewayNo(), null, datalen,
+				dataList);
+		dataModel.setPackedDataTime(view.getPackedDataTime());
+		dataModel.setDataTimeMillis(view.getDataTimeMillis());
+		parseStatus = view.getStatus();
 		logger.debug("Package Parse Succeed.");
-		return PACKAGE_PARSE_SUCCEED;
 	}
 
+	/**
+	 * Decodes one half-float sample. This is the reference conversion that
+	 * {@link FrameKernels} tabulates; the parser decodes through the table.
+	 */
 	public static float toFloat(final short half) {
 		switch ((int) half) {
 		case 0x0000:
@@ -0,0 +1,223 @@
+package com.bdreport.socket.server.deadband;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.data.TcpPackageFlyweight;
+
+/**
+ * Change-only publishing for the function codes listed in
+ * {@code bdreport.deadband.func-codes}. Off when the list is empty.
+ * <p>
+ * For every gateway and function code the filter keeps the last published
+ * value of each channel. A channel has changed when it moved away from that
+ * value by more than {@code absolute} and by more than {@code percent} of
+ * it; with both at {@code 0} any change counts. A frame then carries only its
+ * changed channels, with their indexes in {@code data_index}, and is not
+ * published at all if none changed. {@code data_length} stays the channel
+ * count of the frame.
+ * <p>
+ * The first frame of a gateway, a frame whose channel count differs from the
+ * last one and the first frame after {@code snapshotIntervalS} are published
+ * in full, so that consumers can rebuild the complete state from any
+ * snapshot onward.
+ */
+@Component
+public class DeadbandFilter {
+
+	private static Logger logger = Logger.getLogger(DeadbandFilter.class.getName());
+
+	private static final int FIRST_FUNC_CODE = 0xB1;
+
+	private static final int FUNC_CODES = 4;
+
+	@Value("${bdreport.deadband.func-codes:}")
+	private String[] funcCodes = new String[0];
+
+	@Value("${bdreport.deadband.absolute:0}")
+	private float absolute;
+
+	@Value("${bdreport.deadband.percent:0}")
+	private float percent;
+
+	@Value("${bdreport.deadband.snapshot-interval-s:300}")
+	private long snapshotIntervalS = 300;
+
+	private final boolean[] enabledFuncCodes = new boolean[FUNC_CODES];
+
+	private float fraction;
+
+	private long snapshotIntervalMillis;
+
+	private AtomicReferenceArray<Channels> channels;
+
+	private final LongCounter samplesReceived = PlatformDependent.newLongCounter();
+
+	private final LongCounter samplesPublished = PlatformDependent.newLongCounter();
+
+	private final LongCounter snapshots = PlatformDependent.newLongCounter();
+
+	private final LongCounter deltas = PlatformDependent.newLongCounter();
+
+	private final LongCounter suppressed = PlatformDependent.newLongCounter();
+
+	/*
+	 * Last published values of one gateway and function code. Frames of a
+	 * gateway are processed one at a time, so the lock is not contended.
+	 */
+	private static final class Channels {
+
+		float[] published;
+
+		int[] changed;
+
+		long snapshotMillis;
+	}
+
+	@PostConstruct
+	public void start() {
+		boolean any = false;
+		for (String name : funcCodes) {
+			if (name.trim().isEmpty()) {
+				continue;
+			}
+			int funcCode = Integer.parseInt(name.trim(), 16);
+			if (!TcpPackageFlyweight.isDataFuncCode((byte) funcCode)) {
+				throw new IllegalArgumentException("Not a data function code: " + name);
+			}
+			enabledFuncCodes[funcCode - FIRST_FUNC_CODE] = true;
+			any = true;
+		}
+		if (!any) {
+			return;
+		}
+		fraction = percent / 100;
+		snapshotIntervalMillis = TimeUnit.SECONDS.toMillis(snapshotIntervalS);
+		channels = new AtomicReferenceArray<Channels>(0x10000 * FUNC_CODES);
+		logger.info("Publishing changes only for " + Arrays.toString(funcCodes) + ", deadband " + absolute + " / "
+				+ percent + "%, snapshot every " + snapshotIntervalS + " s");
+	}
+
+	public boolean isEnabled() {
+		return channels != null;
+	}
+
+	/**
+	 * Reduces {@code dataModel} to its changed channels if change-only
+	 * publishing applies to {@code funcCode}.
+	 *
+	 * @return {@code false} if nothing changed and the model should not be
+	 *         published
+	 */
+	public boolean filter(JmsRealDataModel dataModel, byte funcCode) {
+		int code = (funcCode & 0xFF) - FIRST_FUNC_CODE;
+		float[] values = dataModel.getDataList();
+		if (code < 0 || code >= FUNC_CODES || !enabledFuncCodes[code] || values == null) {
+			return true;
+		}
+		int key = (dataModel.getGatewayNo() & 0xFFFF) * FUNC_CODES + code;
+		Channels state = channels.get(key);
+		if (state == null) {
+			channels.compareAndSet(key, null, new Channels());
+			state = channels.get(key);
+		}
+		samplesReceived.add(values.length);
+		long now = System.currentTimeMillis();
+		synchronized (state) {
+			float[] published = state.published;
+			if (published == null || published.length != values.length
+					|| now - state.snapshotMillis >= snapshotIntervalMillis) {
+				state.published = values.clone();
+				state.changed = new int[values.length];
+				state.snapshotMillis = now;
+				snapshots.increment();
+				samplesPublished.add(values.length);
+				return true;
+			}
+			int[] changed = state.changed;
+			int count = 0;
+			for (int i = 0; i < values.length; i++) {
+				if (changed(values[i], published[i])) {
+					published[i] = values[i];
+					changed[count++] = i;
+				}
+			}
+			if (count == 0) {
+				suppressed.increment();
+				return false;
+			}
+			deltas.increment();
+			samplesPublished.add(count);
+			if (count == values.length) {
+				return true;
+			}
+			float[] changedValues = new float[count];
+			int[] index = new int[count];
+			for (int i = 0; i < count; i++) {
+				index[i] = changed[i];
+				changedValues[i] = values[changed[i]];
+			}
+			dataModel.setDataList(changedValues);
+			dataModel.setDataIndex(index);
+			return true;
+		}
+	}
+
+	private boolean changed(float value, float published) {
+		if (Float.floatToIntBits(value) == Float.floatToIntBits(published)) {
+			return false;
+		}
+		if (Float.isNaN(value) || Float.isNaN(published)) {
+			return true;
+		}
+		float delta = Math.abs(value - published);
+		return delta > absolute && delta > Math.abs(published) * fraction;
+	}
+
+	public long getSamplesReceived() {
+		return samplesReceived.value();
+	}
+
+	public long getSamplesPublished() {
+		return samplesPublished.value();
+	}
+
+	public long getSnapshotCount() {
+		return snapshots.value();
+	}
+
+	public long getDeltaCount() {
+		return deltas.value();
+	}
+
+	public long getSuppressedCount() {
+		return suppressed.value();
+	}
+
+	public void setFuncCodes(String... funcCodes) {
+		this.funcCodes = funcCodes;
+	}
+
+	public void setAbsolute(float absolute) {
+		this.absolute = absolute;
+	}
+
+	public void setPercent(float percent) {
+		this.percent = percent;
+	}
+
+	public void setSnapshotIntervalS(long snapshotIntervalS) {
+		this.snapshotIntervalS = snapshotIntervalS;
+	}
+}
@@ -0,0 +1,186 @@
+package com.bdreport.socket.server.dedup;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.TcpPackageFlyweight;
+
+/**
+ * Recognizes frames a gateway sent again because it did not get the ack of
+ * the first copy in time. Off by default.
+ * <p>
+ * A frame is identified by its gateway number, function code, time fields
+ * and data checksum, and is a duplicate if the same key was seen within the
+ * last {@code windowMs}. Keys are kept in open-addressed tables of primitive
+ * arrays, striped by gateway and sized once at startup, so memory is bounded
+ * no matter how many gateways connect. A key is looked for in a short probe
+ * window of its home slot; a new key takes a free or expired slot there, or
+ * else replaces the oldest entry of the window.
+ */
+@Component
+public class FrameDeduplicator {
+
+	private static Logger logger = Logger.getLogger(FrameDeduplicator.class.getName());
+
+	private static final int STRIPES = 64;
+
+	private static final int PROBES = 8;
+
+	@Value("${bdreport.dedup.enabled:false}")
+	private boolean enabled;
+
+	@Value("${bdreport.dedup.capacity:65536}")
+	private int capacity = 65536;
+
+	@Value("${bdreport.dedup.window-ms:60000}")
+	private long windowMs = 60000;
+
+	private Stripe[] stripes;
+
+	private final LongCounter lookups = PlatformDependent.newLongCounter();
+
+	private final LongCounter hits = PlatformDependent.newLongCounter();
+
+	private static final class Stripe {
+
+		private final int mask;
+
+		private final int[] gatewayKeys;
+
+		private final long[] frameKeys;
+
+		/*
+		 * When each slot was last seen, 0 if it was never used.
+		 */
+		private final long[] seenMillis;
+
+		Stripe(int size) {
+			mask = size - 1;
+			gatewayKeys = new int[size];
+			frameKeys = new long[size];
+			seenMillis = new long[size];
+		}
+
+		synchronized boolean seen(int gatewayKey, long frameKey, long nowMillis, long windowMs) {
+			int home = hash(gatewayKey, frameKey) & mask;
+			int victim = home;
+			long oldest = Long.MAX_VALUE;
+			for (int probe = 0; probe < PROBES; probe++) {
+				int slot = (home + probe) & mask;
+				long seen = seenMillis[slot];
+				boolean live = seen != 0 && nowMillis - seen < windowMs;
+				if (live && gatewayKeys[slot] == gatewayKey && frameKeys[slot] == frameKey) {
+					return true;
+				}
+				long age = live ? seen : 0;
+				if (age < oldest) {
+					oldest = age;
+					victim = slot;
+				}
+			}
+			gatewayKeys[victim] = gatewayKey;
+			frameKeys[victim] = frameKey;
+			seenMillis[victim] = nowMillis;
+			return false;
+		}
+
+		synchronized void forget(int gatewayKey, long frameKey) {
+			int home = hash(gatewayKey, frameKey) & mask;
+			for (int probe = 0; probe < PROBES; probe++) {
+				int slot = (home + probe) & mask;
+				if (gatewayKeys[slot] == gatewayKey && frameKeys[slot] == frameKey) {
+					seenMillis[slot] = 0;
+				}
+			}
+		}
+
+		private static int hash(int gatewayKey, long frameKey) {
+			long h = (frameKey ^ ((long) gatewayKey << 32)) * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		int perStripe = Math.max(PROBES, Integer.highestOneBit(Math.max(1, capacity / STRIPES - 1)) << 1);
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe(perStripe);
+		}
+		logger.info("Suppressing duplicate frames within " + windowMs + " ms, " + perStripe * STRIPES + " entries");
+	}
+
+	public boolean isEnabled() {
+		return stripes != null;
+	}
+
+	/**
+	 * Remembers the frame in {@code view} and tells whether it was already
+	 * seen within the window.
+	 *
+	 * @param view a valid frame
+	 */
+	public boolean isDuplicate(TcpPackageFlyweight view) {
+		lookups.increment();
+		if (stripes[view.getGatewayNo() % STRIPES].seen(gatewayKey(view), frameKey(view), System.currentTimeMillis(),
+				windowMs)) {
+			hits.increment();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Forgets the frame in {@code view}, so that it is processed again when
+	 * the gateway resends it. Called when processing of a frame that was not
+	 * a duplicate failed before it was handed off.
+	 */
+	public void forget(TcpPackageFlyweight view) {
+		stripes[view.getGatewayNo() % STRIPES].forget(gatewayKey(view), frameKey(view));
+	}
+
+	private static int gatewayKey(TcpPackageFlyweight view) {
+		return view.getGatewayNo() << 8 | (view.getFuncCode() & 0xFF);
+	}
+
+	private static long frameKey(TcpPackageFlyweight view) {
+		return (view.getPackedDataTime() & 0xFFFFFFFFFFFFL) << 8 | (view.getCheckSum() & 0xFF);
+	}
+
+	public long getLookupCount() {
+		return lookups.value();
+	}
+
+	public long getHitCount() {
+		return hits.value();
+	}
+
+	/**
+	 * Returns the share of frames found to be duplicates, from 0 to 1.
+	 */
+	public double getHitRate() {
+		long total = lookups.value();
+		return total == 0 ? 0 : (double) hits.value() / total;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public void setWindowMs(long windowMs) {
+		this.windowMs = windowMs;
+	}
+}
@@ -0,0 +1,300 @@
+package com.bdreport.socket.server.diagnostics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.metrics.MetricsHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Captures raw frames into a bounded in-memory ring for diagnosing gateways,
+ * in place of per-frame debug logging.
+ * <p>
+ * Capture is off until it is turned on at runtime, over JMX or
+ * {@code /capture} on the metrics port, for one gateway, one remote IP or a
+ * sample of one frame in {@code sampleEvery}. While it is off the hot path
+ * only reads {@link #isActive()}. Captured frames are copied, so the ring
+ * holds the last {@code capacity} frames no matter what happens to the
+ * buffers, and {@link #dump()} returns them oldest first.
+ */
+@Component
+@ManagedResource(objectName = "com.bdreport:type=WireCapture", description = "Sampled capture of raw frames")
+public class WireCapture {
+
+	private static Logger logger = Logger.getLogger(WireCapture.class.getName());
+
+	/**
+	 * Filter value that matches every gateway.
+	 */
+	public static final int ANY_GATEWAY = -1;
+
+	@Value("${bdreport.capture.capacity:1024}")
+	private int capacity = 1024;
+
+	@Autowired(required = false)
+	private MetricsHttpServer metricsHttpServer;
+
+	private static final class Frame {
+
+		final long sequence;
+
+		final long capturedMillis;
+
+		final String remoteAddress;
+
+		final int gatewayNo;
+
+		final int status;
+
+		final byte[] bytes;
+
+		Frame(long sequence, long capturedMillis, String remoteAddress, int gatewayNo, int status, byte[] bytes) {
+			this.sequence = sequence;
+			this.capturedMillis = capturedMillis;
+			this.remoteAddress = remoteAddress;
+			this.gatewayNo = gatewayNo;
+			this.status = status;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final Comparator<Frame> SEQUENCE_ORDER = new Comparator<Frame>() {
+		@Override
+		public int compare(Frame a, Frame b) {
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	private volatile boolean active;
+
+	private volatile int gatewayFilter = ANY_GATEWAY;
+
+	private volatile String addressFilter;
+
+	private volatile int sampleEvery;
+
+	private volatile AtomicReferenceArray<Frame> ring;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Serves {@code /capture} on the metrics port. Without a query it dumps
+	 * the ring; {@code ?gateway=N}, {@code ?address=IP}, {@code ?sample=N},
+	 * {@code ?stop} and {@code ?clear} control capture and must be sent as
+	 * {@code POST}.
+	 */
+	@PostConstruct
+	public void registerEndpoint() {
+		if (metricsHttpServer == null) {
+			return;
+		}
+		metricsHttpServer.addHandler("/capture", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String query = exchange.getRequestURI().getQuery();
+				try {
+					if (query == null || query.isEmpty()) {
+						MetricsHttpServer.respond(exchange, 200, "text/plain; charset=utf-8", dump());
+						return;
+					}
+					if (!"POST".equals(exchange.getRequestMethod())) {
+						exchange.getResponseHeaders().set("Allow", "POST");
+						MetricsHttpServer.respond(exchange, 405, "text/plain; charset=utf-8",
+								"Capture commands must be sent as POST\n");
+						return;
+					}
+					control(query);
+					MetricsHttpServer.respond(exchange, 200, "text/plain; charset=utf-8", getFilter() + "\n");
+				} catch (IllegalArgumentException e) {
+					MetricsHttpServer.respond(exchange, 400, "text/plain; charset=utf-8", e.getMessage() + "\n");
+				}
+			}
+		});
+	}
+
+	private void control(String query) {
+		int separator = query.indexOf('=');
+		String name = separator < 0 ? query : query.substring(0, separator);
+		String value = separator < 0 ? "" : query.substring(separator + 1);
+		if ("gateway".equals(name)) {
+			captureGateway(Integer.parseInt(value));
+		} else if ("address".equals(name)) {
+			captureAddress(value);
+		} else if ("sample".equals(name)) {
+			captureSample(Integer.parseInt(value));
+		} else if ("stop".equals(name)) {
+			stop();
+		} else if ("clear".equals(name)) {
+			clear();
+		} else {
+			throw new IllegalArgumentException("Unknown capture command " + query);
+		}
+	}
+
+	/**
+	 * Returns {@code true} while any capture is turned on. Callers check this
+	 * before {@link #capture} so that nothing else runs when it is off.
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Captures a frame if it matches the current filters.
+	 *
+	 * @param gatewayNo the gateway number, or {@link #ANY_GATEWAY} when the
+	 *            frame is too short to carry one
+	 * @param status the parse status of the frame
+	 */
+	public void capture(ByteBuf frame, SocketAddress remoteAddress, int gatewayNo, int status) {
+		int gateway = gatewayFilter;
+		if (gateway != ANY_GATEWAY && gateway != gatewayNo) {
+			return;
+		}
+		String address = addressFilter;
+		if (address != null && !(remoteAddress instanceof InetSocketAddress
+				&& address.equals(((InetSocketAddress) remoteAddress).getAddress().getHostAddress()))) {
+			return;
+		}
+		int every = sampleEvery;
+		if (every > 1 && PlatformDependent.threadLocalRandom().nextInt(every) != 0) {
+			return;
+		}
+		AtomicReferenceArray<Frame> frames = ring;
+		if (frames == null) {
+			return;
+		}
+		long next = sequence.getAndIncrement();
+		frames.lazySet((int) (next % frames.length()), new Frame(next, System.currentTimeMillis(),
+				String.valueOf(remoteAddress), gatewayNo, status, ByteBufUtil.getBytes(frame)));
+	}
+
+	/**
+	 * Captures the frames of one gateway.
+	 */
+	@ManagedOperation(description = "Capture the frames of one gateway")
+	@ManagedOperationParameters(@ManagedOperationParameter(name = "gatewayNo", description = "Gateway number"))
+	public void captureGateway(int gatewayNo) {
+		enable(gatewayNo & 0xFFFF, null, 1);
+	}
+
+	/**
+	 * Captures the frames of the connections from one IP address.
+	 */
+	@ManagedOperation(description = "Capture the frames from one remote IP address")
+	@ManagedOperationParameters(@ManagedOperationParameter(name = "address", description = "Remote IP address"))
+	public void captureAddress(String address) {
+		enable(ANY_GATEWAY, address, 1);
+	}
+
+	/**
+	 * Captures one frame in {@code sampleEvery} from all gateways.
+	 */
+	@ManagedOperation(description = "Capture one frame in sampleEvery from all gateways")
+	@ManagedOperationParameters(@ManagedOperationParameter(name = "sampleEvery", description = "Sampling interval"))
+	public void captureSample(int sampleEvery) {
+		enable(ANY_GATEWAY, null, Math.max(1, sampleEvery));
+	}
+
+	/**
+	 * Turns capture off. Captured frames stay available to {@link #dump()}.
+	 */
+	@ManagedOperation(description = "Stop capturing; captured frames are kept")
+	public void stop() {
+		active = false;
+		logger.info("Wire capture stopped");
+	}
+
+	@ManagedOperation(description = "Discard captured frames")
+	public synchronized void clear() {
+		ring = active ? new AtomicReferenceArray<Frame>(Math.max(1, capacity)) : null;
+	}
+
+	/**
+	 * Returns the captured frames, oldest first, one per line: capture time,
+	 * remote address, gateway, parse status and the frame in hex.
+	 */
+	@ManagedOperation(description = "Captured frames, oldest first")
+	public String dump() {
+		AtomicReferenceArray<Frame> frames = ring;
+		if (frames == null) {
+			return "";
+		}
+		List<Frame> captured = new ArrayList<Frame>(frames.length());
+		for (int i = 0; i < frames.length(); i++) {
+			Frame frame = frames.get(i);
+			if (frame != null) {
+				captured.add(frame);
+			}
+		}
+		Collections.sort(captured, SEQUENCE_ORDER);
+		SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		StringBuilder out = new StringBuilder(captured.size() * 64);
+		for (Frame frame : captured) {
+			out.append(timeFormat.format(new Date(frame.capturedMillis))).append(' ').append(frame.remoteAddress)
+					.append(" gw=").append(frame.gatewayNo).append(" status=0x")
+					.append(Integer.toHexString(frame.status)).append(' ')
+					.append(ByteBufUtil.hexDump(frame.bytes).toUpperCase()).append('\n');
+		}
+		return out.toString();
+	}
+
+	@ManagedAttribute(description = "Current capture filter")
+	public String getFilter() {
+		if (!active) {
+			return "off";
+		}
+		return "gateway=" + (gatewayFilter == ANY_GATEWAY ? "any" : String.valueOf(gatewayFilter)) + " address="
+				+ (addressFilter == null ? "any" : addressFilter) + " sampleEvery=" + sampleEvery;
+	}
+
+	@ManagedAttribute(description = "Frames captured since startup")
+	public long getCapturedCount() {
+		return sequence.get();
+	}
+
+	private synchronized void enable(int gatewayNo, String address, int every) {
+		if (ring == null) {
+			ring = new AtomicReferenceArray<Frame>(Math.max(1, capacity));
+		}
+		gatewayFilter = gatewayNo;
+		addressFilter = address;
+		sampleEvery = every;
+		active = true;
+		logger.info("Wire capture started: " + getFilter());
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public void setMetricsHttpServer(MetricsHttpServer metricsHttpServer) {
+		this.metricsHttpServer = metricsHttpServer;
+	}
+}
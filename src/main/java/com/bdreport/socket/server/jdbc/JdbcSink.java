@@ -0,0 +1,407 @@
+package com.bdreport.socket.server.jdbc;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+
+/**
+ * Writes parsed frames to the {@code spring.datasource} database, one row per
+ * sample, off the Netty event loop. Off by default.
+ *
+ * <pre>
+ * CREATE TABLE real_data_sample (
+ *   gateway_no INT NOT NULL,
+ *   data_type  CHAR(2) NOT NULL,
+ *   data_time  DATETIME NOT NULL,
+ *   channel    INT NOT NULL,
+ *   value      FLOAT
+ * )
+ * </pre>
+ * <p>
+ * Like {@link com.bdreport.socket.server.jms.JmsPublisher}, each writer
+ * thread owns a bounded lock-free ring routed to by gateway number. A thread
+ * writes once {@code batchRows} samples are pending or the oldest pending
+ * frame is {@code flushIntervalMs} old, as multi-row {@code INSERT}
+ * statements of up to {@code batchRows} rows in one transaction, which needs
+ * no driver-side batch rewriting. A transaction that fails with a transient
+ * error, such as a lost connection or a deadlock, is retried up to
+ * {@code maxRetries} times {@code retryDelayMs} apart; other failures and
+ * exhausted retries drop the rows and count them. NaN samples are written as
+ * {@code NULL}. Frames arrive before change-only filtering, with every
+ * channel; a model that carries a {@code data_index} is written with those
+ * channels.
+ */
+@Component
+public class JdbcSink {
+
+	private static Logger logger = Logger.getLogger(JdbcSink.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final int COLUMNS = 5;
+
+	/** Bind parameters allowed in one MySQL statement. */
+	private static final int MAX_PARAMETERS = 65535;
+
+	@Value("${bdreport.jdbc.sink.enabled:false}")
+	private boolean enabled;
+
+	@Value("${bdreport.jdbc.sink.table:real_data_sample}")
+	private String table = "real_data_sample";
+
+	@Value("${bdreport.jdbc.sink.threads:2}")
+	private int threadCount = 2;
+
+	@Value("${bdreport.jdbc.sink.queue-capacity:8192}")
+	private int queueCapacity = 8192;
+
+	@Value("${bdreport.jdbc.sink.batch-rows:1000}")
+	private int batchRows = 1000;
+
+	@Value("${bdreport.jdbc.sink.flush-interval-ms:200}")
+	private long flushIntervalMs = 200;
+
+	@Value("${bdreport.jdbc.sink.max-retries:5}")
+	private int maxRetries = 5;
+
+	@Value("${bdreport.jdbc.sink.retry-delay-ms:1000}")
+	private long retryDelayMs = 1000;
+
+	@Autowired(required = false)
+	private DataSource dataSource;
+
+	private Worker[] workers;
+
+	private volatile boolean running;
+
+	private final LongCounter rowsWritten = PlatformDependent.newLongCounter();
+
+	private final LongCounter rowsFailed = PlatformDependent.newLongCounter();
+
+	private final LongCounter retries = PlatformDependent.newLongCounter();
+
+	private final LongCounter framesDropped = PlatformDependent.newLongCounter();
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		if (dataSource == null) {
+			throw new IllegalStateException("JDBC sink enabled without a data source");
+		}
+		if (batchRows < 1 || batchRows * COLUMNS > MAX_PARAMETERS) {
+			throw new IllegalArgumentException("JDBC sink batch rows must be 1 - " + MAX_PARAMETERS / COLUMNS
+					+ ": " + batchRows);
+		}
+		DefaultThreadFactory threadFactory = new DefaultThreadFactory("jdbc-sink");
+		workers = new Worker[threadCount];
+		running = true;
+		for (int i = 0; i < threadCount; i++) {
+			workers[i] = new Worker();
+			workers[i].thread = threadFactory.newThread(workers[i]);
+			workers[i].thread.start();
+		}
+		logger.info("Started " + threadCount + " JDBC sink threads writing to " + table);
+	}
+
+	/**
+	 * Writes the frames still queued and stops the writer threads.
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (workers == null) {
+			return;
+		}
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker.thread);
+			worker.thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	public boolean isEnabled() {
+		return workers != null;
+	}
+
+	/**
+	 * Queues the samples of {@code dataModel} for writing. The model must not
+	 * be modified afterwards.
+	 *
+	 * @return {@code false} if the queue of the gateway is full or the sink is
+	 *         stopped
+	 */
+	public boolean write(JmsRealDataModel dataModel) {
+		if (!running || dataModel.getDataList() == null
+				|| !workers[(dataModel.getGatewayNo() & Integer.MAX_VALUE) % workers.length].ring.offer(dataModel)) {
+			framesDropped.increment();
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean isTransient(SQLException e) {
+		if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+			return true;
+		}
+		String state = e.getSQLState();
+		// connection exceptions and transaction rollbacks such as deadlocks
+		return state != null && (state.startsWith("08") || state.startsWith("40"));
+	}
+
+	private String insertSql(int rows) {
+		StringBuilder sql = new StringBuilder(64 + rows * 12);
+		sql.append("INSERT INTO ").append(table).append(" (gateway_no, data_type, data_time, channel, value) VALUES ");
+		for (int i = 0; i < rows; i++) {
+			sql.append(i == 0 ? "(?,?,?,?,?)" : ",(?,?,?,?,?)");
+		}
+		return sql.toString();
+	}
+
+	/**
+	 * Returns the number of queued frames.
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		if (workers != null) {
+			for (Worker worker : workers) {
+				depth += worker.ring.size();
+			}
+		}
+		return depth;
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten.value();
+	}
+
+	public long getRowsFailed() {
+		return rowsFailed.value();
+	}
+
+	public long getRetryCount() {
+		return retries.value();
+	}
+
+	public long getFramesDropped() {
+		return framesDropped.value();
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setTable(String table) {
+		this.table = table;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setBatchRows(int batchRows) {
+		this.batchRows = batchRows;
+	}
+
+	public void setFlushIntervalMs(long flushIntervalMs) {
+		this.flushIntervalMs = flushIntervalMs;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public void setRetryDelayMs(long retryDelayMs) {
+		this.retryDelayMs = retryDelayMs;
+	}
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	private final class Worker implements Runnable {
+
+		private final Queue<JmsRealDataModel> ring = PlatformDependent.newFixedMpscQueue(queueCapacity);
+
+		private final String batchSql = insertSql(batchRows);
+
+		private Thread thread;
+
+		/*
+		 * Pending rows by column, grown to the largest flush seen.
+		 */
+		private int[] gatewayNo = new int[batchRows];
+
+		private String[] funcCode = new String[batchRows];
+
+		private long[] dataTime = new long[batchRows];
+
+		private int[] channel = new int[batchRows];
+
+		private float[] value = new float[batchRows];
+
+		private int rows;
+
+		@Override
+		public void run() {
+			long intervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+			long batchStart = 0;
+			while (running || rows > 0 || !ring.isEmpty()) {
+				JmsRealDataModel dataModel = ring.poll();
+				if (dataModel != null) {
+					if (rows == 0) {
+						batchStart = System.nanoTime();
+					}
+					add(dataModel);
+					if (rows >= batchRows) {
+						flush();
+					}
+					continue;
+				}
+				if (rows > 0) {
+					long waited = System.nanoTime() - batchStart;
+					if (waited >= intervalNanos || !running) {
+						flush();
+						continue;
+					}
+					LockSupport.parkNanos(Math.min(intervalNanos - waited, IDLE_PARK_NANOS));
+				} else {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+			}
+		}
+
+		private void add(JmsRealDataModel dataModel) {
+			float[] values = dataModel.getDataList();
+			int[] index = dataModel.getDataIndex();
+			if (rows + values.length > value.length) {
+				grow(rows + values.length);
+			}
+			for (int i = 0; i < values.length; i++) {
+				gatewayNo[rows] = dataModel.getGatewayNo();
+				funcCode[rows] = dataModel.getFuncCode();
+				dataTime[rows] = dataModel.getDataTimeMillis();
+				channel[rows] = index == null ? i : index[i];
+				value[rows] = values[i];
+				rows++;
+			}
+		}
+
+		private void grow(int capacity) {
+			int length = Math.max(capacity, value.length * 2);
+			int[] gatewayNo = new int[length];
+			String[] funcCode = new String[length];
+			long[] dataTime = new long[length];
+			int[] channel = new int[length];
+			float[] value = new float[length];
+			System.arraycopy(this.gatewayNo, 0, gatewayNo, 0, rows);
+			System.arraycopy(this.funcCode, 0, funcCode, 0, rows);
+			System.arraycopy(this.dataTime, 0, dataTime, 0, rows);
+			System.arraycopy(this.channel, 0, channel, 0, rows);
+			System.arraycopy(this.value, 0, value, 0, rows);
+			this.gatewayNo = gatewayNo;
+			this.funcCode = funcCode;
+			this.dataTime = dataTime;
+			this.channel = channel;
+			this.value = value;
+		}
+
+		private void flush() {
+			for (int attempt = 0;; attempt++) {
+				try {
+					insert();
+					rowsWritten.add(rows);
+					break;
+				} catch (SQLException e) {
+					if (!isTransient(e) || attempt >= maxRetries) {
+						logger.error("Writing " + rows + " rows to " + table + " failed: " + e.getMessage());
+						rowsFailed.add(rows);
+						break;
+					}
+					logger.warn("Writing " + rows + " rows to " + table + " failed, retrying: " + e.getMessage());
+					retries.increment();
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryDelayMs));
+				}
+			}
+			for (int i = 0; i < rows; i++) {
+				funcCode[i] = null;
+			}
+			rows = 0;
+		}
+
+		private void insert() throws SQLException {
+			try (Connection connection = dataSource.getConnection()) {
+				connection.setAutoCommit(false);
+				try {
+					int from = 0;
+					if (rows >= batchRows) {
+						try (PreparedStatement batch = connection.prepareStatement(batchSql)) {
+							for (; rows - from >= batchRows; from += batchRows) {
+								bind(batch, from, batchRows);
+								batch.executeUpdate();
+							}
+						}
+					}
+					if (from < rows) {
+						try (PreparedStatement tail = connection.prepareStatement(insertSql(rows - from))) {
+							bind(tail, from, rows - from);
+							tail.executeUpdate();
+						}
+					}
+					connection.commit();
+				} catch (SQLException e) {
+					try {
+						connection.rollback();
+					} catch (SQLException rollback) {
+						logger.debug("Rollback failed: " + rollback.getMessage());
+					}
+					throw e;
+				} finally {
+					// pooled connections are handed out as they were returned
+					connection.setAutoCommit(true);
+				}
+			}
+		}
+
+		private void bind(PreparedStatement statement, int from, int count) throws SQLException {
+			int parameter = 1;
+			for (int row = from; row < from + count; row++) {
+				statement.setInt(parameter++, gatewayNo[row]);
+				statement.setString(parameter++, funcCode[row]);
+				statement.setTimestamp(parameter++, new Timestamp(dataTime[row]));
+				statement.setInt(parameter++, channel[row]);
+				if (Float.isNaN(value[row])) {
+					statement.setNull(parameter++, Types.REAL);
+				} else {
+					statement.setFloat(parameter++, value[row]);
+				}
+			}
+		}
+	}
+}
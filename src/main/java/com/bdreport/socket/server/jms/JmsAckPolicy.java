@@ -0,0 +1,13 @@
+package com.bdreport.socket.server.jms;
+
+/**
+ * When a gateway frame is acknowledged with {@code msgSucceed}.
+ */
+public enum JmsAckPolicy {
+
+	/** As soon as the frame has been accepted by the publisher queue. */
+	ENQUEUE,
+
+	/** After the JMS transaction containing the frame has been committed. */
+	COMMIT
+}
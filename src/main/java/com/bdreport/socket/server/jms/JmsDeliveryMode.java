@@ -0,0 +1,25 @@
+package com.bdreport.socket.server.jms;
+
+import javax.jms.DeliveryMode;
+
+/**
+ * JMS delivery mode of the published messages.
+ */
+public enum JmsDeliveryMode {
+
+	/** Stored by the broker before the send or commit completes. */
+	PERSISTENT(DeliveryMode.PERSISTENT),
+
+	/** Kept in broker memory only; lost if the broker stops. */
+	NON_PERSISTENT(DeliveryMode.NON_PERSISTENT);
+
+	private final int value;
+
+	private JmsDeliveryMode(int value) {
+		this.value = value;
+	}
+
+	public int getValue() {
+		return value;
+	}
+}
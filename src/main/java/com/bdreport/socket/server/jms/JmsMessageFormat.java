@@ -0,0 +1,16 @@
+package com.bdreport.socket.server.jms;
+
+/**
+ * Wire format of the messages sent to a queue.
+ */
+public enum JmsMessageFormat {
+
+	/** fastjson text of the data model in a {@code TextMessage}. */
+	JSON,
+
+	/**
+	 * {@link com.bdreport.socket.server.jms.codec.RealDataBinaryFormat} in a
+	 * {@code BytesMessage}.
+	 */
+	BINARY
+}
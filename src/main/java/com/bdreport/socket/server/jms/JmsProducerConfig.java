@@ -0,0 +1,95 @@
+package com.bdreport.socket.server.jms;
+
+import javax.annotation.PreDestroy;
+import javax.jms.ConnectionFactory;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.pool.PooledConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.annotation.PropertySource;
+
+/**
+ * Replaces the Spring Boot ActiveMQ auto-configuration with a connection
+ * factory tuned for the publisher threads: connections are pooled, and async
+ * send and the producer window are configurable next to the
+ * {@code spring.activemq.*} properties.
+ */
+@Configuration
+@PropertySource(value = "classpath:/properties/local/application.properties")
+public class JmsProducerConfig {
+
+	@Configuration
+	@Profile("production")
+	@PropertySource("classpath:/properties/production/application.properties")
+	static class Production {
+	}
+
+	@Configuration
+	@Profile("local")
+	@PropertySource({ "classpath:/properties/local/application.properties" })
+	static class Local {
+	}
+
+	@Value("${spring.activemq.broker-url:vm://localhost?broker.persistent=false}")
+	private String brokerUrl;
+
+	@Value("${spring.activemq.user:}")
+	private String user;
+
+	@Value("${spring.activemq.password:}")
+	private String password;
+
+	@Value("${spring.activemq.pool.enabled:true}")
+	private boolean poolEnabled;
+
+	@Value("${spring.activemq.pool.max-connections:2}")
+	private int maxConnections;
+
+	@Value("${bdreport.jms.async-send:false}")
+	private boolean asyncSend;
+
+	@Value("${bdreport.jms.producer-window-size:0}")
+	private int producerWindowSize;
+
+	private PooledConnectionFactory pooledConnectionFactory;
+
+	@Bean(name = "connectionFactory")
+	public ConnectionFactory connectionFactory() {
+		ActiveMQConnectionFactory connectionFactory = createConnectionFactory(brokerUrl, user, password, asyncSend,
+				producerWindowSize);
+		if (!poolEnabled) {
+			return connectionFactory;
+		}
+		pooledConnectionFactory = new PooledConnectionFactory(connectionFactory);
+		pooledConnectionFactory.setMaxConnections(maxConnections);
+		return pooledConnectionFactory;
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (pooledConnectionFactory != null) {
+			pooledConnectionFactory.stop();
+		}
+	}
+
+	/**
+	 * Creates an unpooled ActiveMQ connection factory.
+	 *
+	 * @param producerWindowSize bytes an async-sending producer may have
+	 *            unacknowledged by the broker, {@code 0} for no limit
+	 */
+	public static ActiveMQConnectionFactory createConnectionFactory(String brokerUrl, String user, String password,
+			boolean asyncSend, int producerWindowSize) {
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(brokerUrl);
+		if (user != null && !user.isEmpty()) {
+			connectionFactory.setUserName(user);
+			connectionFactory.setPassword(password);
+		}
+		connectionFactory.setUseAsyncSend(asyncSend);
+		connectionFactory.setProducerWindowSize(producerWindowSize);
+		return connectionFactory;
+	}
+}
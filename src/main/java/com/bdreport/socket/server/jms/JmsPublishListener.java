@@ -0,0 +1,12 @@
+package com.bdreport.socket.server.jms;
+
+/**
+ * Receives the outcome of a {@link JmsPublishRequest}. Called on a publisher
+ * thread, never on the Netty event loop.
+ */
+public interface JmsPublishListener {
+
+	void published(JmsPublishRequest request);
+
+	void failed(JmsPublishRequest request, Exception cause);
+}
@@ -0,0 +1,37 @@
+package com.bdreport.socket.server.jms;
+
+import io.netty.channel.ChannelHandlerContext;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+
+/**
+ * A parsed frame waiting to be published, together with the channel it came
+ * from and the listener to notify once it is committed or has failed.
+ */
+public class JmsPublishRequest {
+
+	private final TcpPackageModel tcpPackageModel;
+
+	private final ChannelHandlerContext ctx;
+
+	private final JmsPublishListener listener;
+
+	public JmsPublishRequest(TcpPackageModel tcpPackageModel, ChannelHandlerContext ctx,
+			JmsPublishListener listener) {
+		this.tcpPackageModel = tcpPackageModel;
+		this.ctx = ctx;
+		this.listener = listener;
+	}
+
+	public TcpPackageModel getTcpPackageModel() {
+		return tcpPackageModel;
+	}
+
+	public ChannelHandlerContext getCtx() {
+		return ctx;
+	}
+
+	public JmsPublishListener getListener() {
+		return listener;
+	}
+}
@@ -0,0 +1,330 @@
+package com.bdreport.socket.server.jms;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryEncoder;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryFormat;
+import com.bdreport.socket.server.metrics.LatencyHistogram;
+
+/**
+ * Publishes parsed frames to JMS off the Netty event loop.
+ * <p>
+ * Each publisher thread owns a bounded lock-free ring that the event loops
+ * offer into, and a long-lived connection, session and producer. A thread
+ * sends whatever it has drained and commits once {@code batchSize} messages
+ * are pending or the oldest pending message is {@code batchWindowMs} old. With
+ * {@code transacted} off, messages are sent one by one in an auto-acknowledge
+ * session, which only pays off together with async send. Frames are routed to
+ * a thread by gateway number, so frames of one gateway are published in
+ * order. Messages are sent as JSON text or in the compact binary format, see
+ * {@link JmsMessageFormat}.
+ */
+@Component
+public class JmsPublisher {
+
+	private static Logger logger = Logger.getLogger(JmsPublisher.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Value("${bdreport.jms.publisher.threads:2}")
+	private int threadCount = 2;
+
+	@Value("${bdreport.jms.publisher.queue-capacity:8192}")
+	private int queueCapacity = 8192;
+
+	@Value("${bdreport.jms.publisher.batch-size:100}")
+	private int batchSize = 100;
+
+	@Value("${bdreport.jms.publisher.batch-window-ms:20}")
+	private long batchWindowMs = 20;
+
+	@Value("${bdreport.jms.publisher.reconnect-delay-ms:1000}")
+	private long reconnectDelayMs = 1000;
+
+	@Value("${bdreport.queue.format:JSON}")
+	private JmsMessageFormat messageFormat = JmsMessageFormat.JSON;
+
+	@Value("${bdreport.jms.delivery-mode:PERSISTENT}")
+	private JmsDeliveryMode deliveryMode = JmsDeliveryMode.PERSISTENT;
+
+	@Value("${bdreport.jms.publisher.transacted:true}")
+	private boolean transacted = true;
+
+	@Value("${bdreport.jms.ack-policy:ENQUEUE}")
+	private JmsAckPolicy ackPolicy = JmsAckPolicy.ENQUEUE;
+
+	@Autowired
+	private ConnectionFactory connectionFactory;
+
+	@Autowired
+	private javax.jms.Queue queue;
+
+	private Worker[] workers;
+
+	private volatile boolean running;
+
+	private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+	@PostConstruct
+	public void start() {
+		DefaultThreadFactory threadFactory = new DefaultThreadFactory("jms-publisher");
+		workers = new Worker[threadCount];
+		running = true;
+		for (int i = 0; i < threadCount; i++) {
+			workers[i] = new Worker();
+			workers[i].thread = threadFactory.newThread(workers[i]);
+			workers[i].thread.start();
+		}
+		logger.info("Started " + threadCount + " JMS publisher threads, ack policy " + ackPolicy);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (workers == null) {
+			return;
+		}
+		for (Worker worker : workers) {
+			LockSupport.unpark(worker.thread);
+			worker.thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	/**
+	 * Queues {@code request} for publishing.
+	 *
+	 * @return {@code false} if the publisher queue of the gateway is full or
+	 *         the publisher is stopped
+	 */
+	public boolean publish(JmsPublishRequest request) {
+		if (!running) {
+			return false;
+		}
+		int gatewayNo = request.getTcpPackageModel().getDataModel().getGatewayNo();
+		return workers[(gatewayNo & Integer.MAX_VALUE) % workers.length].ring.offer(request);
+	}
+
+	/**
+	 * Returns the number of requests waiting in all publisher queues.
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		if (workers != null) {
+			for (Worker worker : workers) {
+				depth += worker.ring.size();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Returns the times taken to send and commit each batch.
+	 */
+	public LatencyHistogram getSendLatency() {
+		return sendLatency;
+	}
+
+	public boolean isAckOnCommit() {
+		return ackPolicy == JmsAckPolicy.COMMIT;
+	}
+
+	public JmsAckPolicy getAckPolicy() {
+		return ackPolicy;
+	}
+
+	public void setAckPolicy(JmsAckPolicy ackPolicy) {
+		this.ackPolicy = ackPolicy;
+	}
+
+	public JmsMessageFormat getMessageFormat() {
+		return messageFormat;
+	}
+
+	public void setMessageFormat(JmsMessageFormat messageFormat) {
+		this.messageFormat = messageFormat;
+	}
+
+	public void setDeliveryMode(JmsDeliveryMode deliveryMode) {
+		this.deliveryMode = deliveryMode;
+	}
+
+	public void setTransacted(boolean transacted) {
+		this.transacted = transacted;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setBatchWindowMs(long batchWindowMs) {
+		this.batchWindowMs = batchWindowMs;
+	}
+
+	public void setReconnectDelayMs(long reconnectDelayMs) {
+		this.reconnectDelayMs = reconnectDelayMs;
+	}
+
+	public void setConnectionFactory(ConnectionFactory connectionFactory) {
+		this.connectionFactory = connectionFactory;
+	}
+
+	public void setQueue(javax.jms.Queue queue) {
+		this.queue = queue;
+	}
+
+	private final class Worker implements Runnable {
+
+		private final Queue<JmsPublishRequest> ring = PlatformDependent.newFixedMpscQueue(queueCapacity);
+
+		private final JmsPublishRequest[] batch = new JmsPublishRequest[batchSize];
+
+		private Thread thread;
+
+		private Connection connection;
+
+		private Session session;
+
+		private MessageProducer producer;
+
+		private long nextConnectNanos = System.nanoTime();
+
+		private final RealDataBinaryEncoder binaryEncoder = new RealDataBinaryEncoder();
+
+		@Override
+		public void run() {
+			long windowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMs);
+			int size = 0;
+			long batchStart = 0;
+			while (running || size > 0 || !ring.isEmpty()) {
+				JmsPublishRequest request = ring.poll();
+				if (request != null) {
+					if (size == 0) {
+						batchStart = System.nanoTime();
+					}
+					batch[size++] = request;
+					if (size == batch.length) {
+						flush(size);
+						size = 0;
+					}
+					continue;
+				}
+				if (size > 0) {
+					long waited = System.nanoTime() - batchStart;
+					if (waited >= windowNanos || !running) {
+						flush(size);
+						size = 0;
+						continue;
+					}
+					LockSupport.parkNanos(Math.min(windowNanos - waited, IDLE_PARK_NANOS));
+				} else {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+			}
+			close();
+		}
+
+		private void flush(int size) {
+			int sent = 0;
+			try {
+				connect();
+				long started = System.nanoTime();
+				for (; sent < size; sent++) {
+					producer.send(createMessage(batch[sent].getTcpPackageModel()));
+				}
+				if (transacted) {
+					session.commit();
+				}
+				sendLatency.record(System.nanoTime() - started);
+			} catch (Exception e) {
+				logger.error("JMS batch of " + size + " messages failed: " + e.getMessage());
+				close();
+				// Without a transaction every send is delivered on its own, so
+				// only the failing message and those after it are lost.
+				int delivered = transacted ? 0 : sent;
+				for (int i = 0; i < size; i++) {
+					JmsPublishRequest request = batch[i];
+					batch[i] = null;
+					if (i < delivered) {
+						request.getListener().published(request);
+					} else {
+						request.getListener().failed(request, e);
+					}
+				}
+				return;
+			}
+			for (int i = 0; i < size; i++) {
+				JmsPublishRequest request = batch[i];
+				batch[i] = null;
+				request.getListener().published(request);
+			}
+		}
+
+		private Message createMessage(TcpPackageModel tcpPackageModel) throws JMSException {
+			if (messageFormat == JmsMessageFormat.BINARY) {
+				BytesMessage message = session.createBytesMessage();
+				message.setJMSType(RealDataBinaryFormat.JMS_TYPE);
+				message.writeBytes(binaryEncoder.array(), 0, binaryEncoder.encode(tcpPackageModel.getDataModel()));
+				return message;
+			}
+			return session.createTextMessage(tcpPackageModel.toJsonString());
+		}
+
+		private void connect() throws JMSException {
+			if (producer != null) {
+				return;
+			}
+			if (System.nanoTime() - nextConnectNanos < 0) {
+				throw new JMSException("Broker unavailable, waiting to reconnect");
+			}
+			nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectDelayMs);
+			connection = connectionFactory.createConnection();
+			connection.start();
+			session = transacted ? connection.createSession(true, Session.SESSION_TRANSACTED)
+					: connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			producer = session.createProducer(queue);
+			producer.setDeliveryMode(deliveryMode.getValue());
+		}
+
+		private void close() {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (JMSException e) {
+					logger.debug("Closing JMS connection failed: " + e.getMessage());
+				}
+			}
+			connection = null;
+			session = null;
+			producer = null;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.bdreport.socket.server.jms.codec;
+
+/**
+ * Half-float samples of the {@link RealDataBinaryFormat}, converted exactly
+ * as the server decodes them from gateway frames, without depending on any
+ * server class.
+ * <p>
+ * The gateways' half floats have no subnormals, NaN or negative infinity:
+ * every bit pattern except {@code 0x0000} and {@code 0x7C00} is read as a
+ * normal number, so the mapping from half to float is one to one.
+ */
+public final class HalfFloat {
+
+	/**
+	 * Returned by {@link #toHalf(float)} for a value no half float decodes to.
+	 */
+	public static final int NOT_HALF = -1;
+
+	private HalfFloat() {
+	}
+
+	/**
+	 * Decodes one half-float sample.
+	 */
+	public static float toFloat(short half) {
+		if (half == 0x0000) {
+			return 0.0f;
+		}
+		if (half == 0x7C00) {
+			return Float.POSITIVE_INFINITY;
+		}
+		return Float.intBitsToFloat(
+				((half & 0x8000) << 16) | (((half & 0x7C00) + 0x1C000) << 13) | ((half & 0x03FF) << 13));
+	}
+
+	/**
+	 * Returns the half-float bits that {@link #toFloat(short)} decodes to
+	 * exactly {@code value}, or {@link #NOT_HALF} if there are none. Every
+	 * sample decoded from a frame has them.
+	 */
+	public static int toHalf(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int half;
+		if (value == 0.0f) {
+			half = (bits >>> 16) & 0x8000;
+		} else if (value == Float.POSITIVE_INFINITY) {
+			half = 0x7C00;
+		} else {
+			int exponent = ((bits >>> 23) & 0xFF) - 112;
+			if (exponent < 0 || exponent > 31 || (bits & 0x1FFF) != 0) {
+				return NOT_HALF;
+			}
+			half = ((bits >>> 16) & 0x8000) | (exponent << 10) | ((bits >>> 13) & 0x03FF);
+		}
+		return Float.floatToRawIntBits(toFloat((short) half)) == bits ? half : NOT_HALF;
+	}
+}
@@ -0,0 +1,68 @@
+package com.bdreport.socket.server.jms.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Decodes messages written in the {@link RealDataBinaryFormat}. Meant for
+ * queue consumers and depends only on the JDK, the JMS API and the other
+ * classes of this package.
+ */
+public final class RealDataBinaryDecoder {
+
+	private RealDataBinaryDecoder() {
+	}
+
+	public static RealDataRecord decode(BytesMessage message) throws JMSException {
+		byte[] bytes = new byte[(int) message.getBodyLength()];
+		message.readBytes(bytes);
+		return decode(bytes);
+	}
+
+	public static RealDataRecord decode(byte[] bytes) {
+		return decode(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * Decodes one message from the remaining bytes of {@code buffer}.
+	 *
+	 * @throws IllegalArgumentException if the version is not supported or the
+	 *             message is truncated
+	 */
+	public static RealDataRecord decode(ByteBuffer buffer) {
+		try {
+			int version = buffer.get();
+			if (version < RealDataBinaryFormat.VERSION_1 || version > RealDataBinaryFormat.VERSION_4) {
+				throw new IllegalArgumentException("Unsupported binary format version: " + version);
+			}
+			RealDataRecord record = new RealDataRecord();
+			record.setVersion(version);
+			record.setFuncCode(buffer.get() & 0xFF);
+			record.setGatewayNo(buffer.getShort() & 0xFFFF);
+			record.setDataTimeMillis(buffer.getLong());
+			byte[] address = new byte[buffer.get() & 0xFF];
+			buffer.get(address);
+			record.setAddress(address);
+			record.setInetPort(buffer.getShort() & 0xFFFF);
+			float[] dataList = new float[buffer.getShort() & 0xFFFF];
+			boolean half = version >= RealDataBinaryFormat.VERSION_3;
+			for (int i = 0; i < dataList.length; i++) {
+				dataList[i] = half ? HalfFloat.toFloat(buffer.getShort()) : buffer.getFloat();
+			}
+			record.setDataList(dataList);
+			if (version == RealDataBinaryFormat.VERSION_2 || version == RealDataBinaryFormat.VERSION_4) {
+				int[] dataIndex = new int[dataList.length];
+				for (int i = 0; i < dataIndex.length; i++) {
+					dataIndex[i] = buffer.getShort() & 0xFFFF;
+				}
+				record.setDataIndex(dataIndex);
+			}
+			return record;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated binary real-data message", e);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.bdreport.socket.server.jms.codec;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+
+/**
+ * Encodes a {@link JmsRealDataModel} in the {@link RealDataBinaryFormat}. An
+ * encoder reuses its buffer between messages and is not thread-safe; keep one
+ * per publishing thread.
+ */
+public class RealDataBinaryEncoder {
+
+	private static final byte[] NO_ADDRESS = new byte[0];
+
+	private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+	private final byte[] ipv4 = new byte[4];
+
+	private short[] halves = new short[64];
+
+	/**
+	 * Encodes {@code dataModel} into the internal buffer and returns the
+	 * number of bytes written; the bytes are available from {@link #array()}
+	 * until the next call.
+	 */
+	public int encode(JmsRealDataModel dataModel) {
+		byte[] address = toAddress(dataModel.getIpAddr());
+		float[] samples = dataModel.getDataList();
+		int[] index = dataModel.getDataIndex();
+		int count = samples == null ? 0 : Math.min(samples.length, dataModel.getDataLength());
+		if (index != null) {
+			count = Math.min(count, index.length);
+		}
+		boolean half = toHalves(samples, count);
+		int length = RealDataBinaryFormat.FIXED_LENGTH_V1 + address.length
+				+ count * (half ? RealDataBinaryFormat.SAMPLE_LENGTH_V3 : RealDataBinaryFormat.SAMPLE_LENGTH_V1)
+				+ (index == null ? 0 : count * RealDataBinaryFormat.INDEX_LENGTH_V2);
+		if (buffer.capacity() < length) {
+			buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+		}
+		buffer.clear();
+		if (half) {
+			buffer.put(index == null ? RealDataBinaryFormat.VERSION_3 : RealDataBinaryFormat.VERSION_4);
+		} else {
+			buffer.put(index == null ? RealDataBinaryFormat.VERSION_1 : RealDataBinaryFormat.VERSION_2);
+		}
+		buffer.put((byte) Integer.parseInt(dataModel.getFuncCode(), 16));
+		buffer.putShort((short) dataModel.getGatewayNo());
+		buffer.putLong(dataModel.getDataTimeMillis());
+		buffer.put((byte) address.length);
+		buffer.put(address);
+		buffer.putShort((short) dataModel.getInetPort());
+		buffer.putShort((short) count);
+		for (int i = 0; i < count; i++) {
+			if (half) {
+				buffer.putShort(halves[i]);
+			} else {
+				buffer.putFloat(samples[i]);
+			}
+		}
+		if (index != null) {
+			for (int i = 0; i < count; i++) {
+				buffer.putShort((short) index[i]);
+			}
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Converts the first {@code count} samples back to the half floats they
+	 * were decoded from, returning {@code false} if one is not a half float.
+	 */
+	private boolean toHalves(float[] samples, int count) {
+		if (halves.length < count) {
+			halves = new short[Math.max(count, halves.length * 2)];
+		}
+		for (int i = 0; i < count; i++) {
+			int half = HalfFloat.toHalf(samples[i]);
+			if (half == HalfFloat.NOT_HALF) {
+				return false;
+			}
+			halves[i] = (short) half;
+		}
+		return true;
+	}
+
+	public byte[] array() {
+		return buffer.array();
+	}
+
+	private byte[] toAddress(String ipAddr) {
+		if (ipAddr == null || ipAddr.isEmpty()) {
+			return NO_ADDRESS;
+		}
+		if (parseIpv4(ipAddr)) {
+			return ipv4;
+		}
+		try {
+			// Only literal addresses reach here, so no name lookup happens.
+			return InetAddress.getByName(ipAddr).getAddress();
+		} catch (UnknownHostException e) {
+			return NO_ADDRESS;
+		}
+	}
+
+	private boolean parseIpv4(String ipAddr) {
+		int part = 0;
+		int value = 0;
+		int digits = 0;
+		for (int i = 0, n = ipAddr.length(); i < n; i++) {
+			char c = ipAddr.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				if (++digits > 3 || value > 255) {
+					return false;
+				}
+			} else if (c == '.' && digits > 0 && part < 3) {
+				ipv4[part++] = (byte) value;
+				value = 0;
+				digits = 0;
+			} else {
+				return false;
+			}
+		}
+		if (part != 3 || digits == 0) {
+			return false;
+		}
+		ipv4[3] = (byte) value;
+		return true;
+	}
+}
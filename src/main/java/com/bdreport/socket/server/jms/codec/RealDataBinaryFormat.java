@@ -0,0 +1,64 @@
+package com.bdreport.socket.server.jms.codec;
+
+/**
+ * Layout of the compact binary real-data message, sent as a JMS
+ * {@code BytesMessage} when a queue is configured with format
+ * {@code BINARY}. All values are big-endian.
+ *
+ * <pre>
+ * offset    size  field
+ * 0         1     format version, see below
+ * 1         1     function code, 0xB1 - 0xB4
+ * 2         2     gateway number, unsigned
+ * 4         8     frame time, epoch milliseconds
+ * 12        1     remote address length n, 4 (IPv4), 16 (IPv6) or 0 (unknown)
+ * 13        n     remote address
+ * 13+n      2     remote port, unsigned
+ * 15+n      2     sample count c, unsigned
+ * 17+n      w*c   samples, w bytes each
+ * 17+n+w*c  2*c   channel indexes, unsigned, versions 2 and 4 only
+ * </pre>
+ *
+ * The version sets the sample width w and whether channel indexes follow:
+ *
+ * <pre>
+ * version  w  samples                                   indexes
+ * 1        4  IEEE 754 single precision                 no
+ * 2        4  IEEE 754 single precision                 yes
+ * 3        2  half precision, raw bits from the frame   no
+ * 4        2  half precision, raw bits from the frame   yes
+ * </pre>
+ *
+ * Frames are sent as {@link #VERSION_3}, or {@link #VERSION_4} when reduced
+ * to their changed channels; {@link HalfFloat#toFloat(short)} expands their
+ * samples. Models whose samples are not all half floats, which only happens
+ * when they did not come from a frame, are sent as {@link #VERSION_1} or
+ * {@link #VERSION_2}.
+ */
+public final class RealDataBinaryFormat {
+
+	public static final byte VERSION_1 = 1;
+
+	public static final byte VERSION_2 = 2;
+
+	public static final byte VERSION_3 = 3;
+
+	public static final byte VERSION_4 = 4;
+
+	public static final byte CURRENT_VERSION = VERSION_3;
+
+	/** Size of a version 1 message without address and samples. */
+	public static final int FIXED_LENGTH_V1 = 17;
+
+	public static final int SAMPLE_LENGTH_V1 = 4;
+
+	public static final int INDEX_LENGTH_V2 = 2;
+
+	public static final int SAMPLE_LENGTH_V3 = 2;
+
+	/** JMS type set on binary messages so consumers can tell them from JSON. */
+	public static final String JMS_TYPE = "bdreport.realdata.binary";
+
+	private RealDataBinaryFormat() {
+	}
+}
@@ -0,0 +1,126 @@
+package com.bdreport.socket.server.jms.codec;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * A real-data message decoded by {@link RealDataBinaryDecoder}. Carries the
+ * same information as the JSON {@code JmsRealDataModel} message.
+ */
+public class RealDataRecord {
+
+	private int version;
+
+	private int funcCode;
+
+	private int gatewayNo;
+
+	private long dataTimeMillis;
+
+	private byte[] address;
+
+	private int inetPort;
+
+	private float[] dataList;
+
+	private int[] dataIndex;
+
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
+	public int getFuncCode() {
+		return funcCode;
+	}
+
+	public void setFuncCode(int funcCode) {
+		this.funcCode = funcCode;
+	}
+
+	/**
+	 * Returns the function code as upper-case hex, e.g. "B1", as in the
+	 * {@code data_type} JSON field.
+	 */
+	public String getFuncCodeName() {
+		String hex = Integer.toHexString(funcCode).toUpperCase();
+		return hex.length() == 1 ? "0" + hex : hex;
+	}
+
+	public int getGatewayNo() {
+		return gatewayNo;
+	}
+
+	public void setGatewayNo(int gatewayNo) {
+		this.gatewayNo = gatewayNo;
+	}
+
+	public long getDataTimeMillis() {
+		return dataTimeMillis;
+	}
+
+	public void setDataTimeMillis(long dataTimeMillis) {
+		this.dataTimeMillis = dataTimeMillis;
+	}
+
+	/**
+	 * Returns the raw remote address, 4 bytes for IPv4, 16 for IPv6 or empty.
+	 */
+	public byte[] getAddress() {
+		return address;
+	}
+
+	public void setAddress(byte[] address) {
+		this.address = address;
+	}
+
+	/**
+	 * Returns the remote address in the textual form of the
+	 * {@code remote_ip} JSON field.
+	 */
+	public String getIpAddr() {
+		if (address == null || address.length == 0) {
+			return "";
+		}
+		try {
+			return InetAddress.getByAddress(address).getHostAddress();
+		} catch (UnknownHostException e) {
+			return "";
+		}
+	}
+
+	public int getInetPort() {
+		return inetPort;
+	}
+
+	public void setInetPort(int inetPort) {
+		this.inetPort = inetPort;
+	}
+
+	public int getDataLength() {
+		return dataList == null ? 0 : dataList.length;
+	}
+
+	public float[] getDataList() {
+		return dataList;
+	}
+
+	public void setDataList(float[] dataList) {
+		this.dataList = dataList;
+	}
+
+	/**
+	 * Returns the channel of each sample for a message that carries only
+	 * changed channels, or {@code null} if it carries all of them.
+	 */
+	public int[] getDataIndex() {
+		return dataIndex;
+	}
+
+	public void setDataIndex(int[] dataIndex) {
+		this.dataIndex = dataIndex;
+	}
+}
@@ -0,0 +1,197 @@
+package com.bdreport.socket.server.latest;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.alibaba.fastjson.JSON;
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.metrics.MetricsHttpServer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * The most recent frame of every gateway and function code, served as JSON
+ * at {@code /latest} on the metrics port. Off by default.
+ * <p>
+ * Each entry is an immutable copy of the parsed model, taken before
+ * change-only filtering so that it always has every channel, and replaced
+ * with a single ordered write. Readers see either the old or the new frame
+ * and never wait for the ingest path, which takes no lock.
+ */
+@Component
+@ManagedResource(objectName = "com.bdreport:type=LatestValueCache", description = "Latest frame of every gateway")
+public class LatestValueCache {
+
+	private static Logger logger = Logger.getLogger(LatestValueCache.class.getName());
+
+	private static final int FIRST_FUNC_CODE = 0xB1;
+
+	private static final int FUNC_CODES = 4;
+
+	@Value("${bdreport.latest.enabled:false}")
+	private boolean enabled;
+
+	@Autowired(required = false)
+	private MetricsHttpServer metricsHttpServer;
+
+	private AtomicReferenceArray<JmsRealDataModel> latest;
+
+	private final LongCounter entries = PlatformDependent.newLongCounter();
+
+	@PostConstruct
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		latest = new AtomicReferenceArray<JmsRealDataModel>(0x10000 * FUNC_CODES);
+		registerEndpoint();
+		logger.info("Keeping the latest frame of every gateway");
+	}
+
+	/**
+	 * Serves {@code /latest} on the metrics port: every entry without a
+	 * query, {@code ?gateway=N} or {@code ?gateway=N,M,...} for a set of
+	 * gateways, optionally narrowed with {@code &data_type=B1}.
+	 */
+	private void registerEndpoint() {
+		if (metricsHttpServer == null) {
+			return;
+		}
+		metricsHttpServer.addHandler("/latest", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					MetricsHttpServer.respond(exchange, 200, "application/json; charset=utf-8",
+							JSON.toJSONString(query(exchange.getRequestURI().getQuery())));
+				} catch (IllegalArgumentException e) {
+					MetricsHttpServer.respond(exchange, 400, "text/plain; charset=utf-8", e.getMessage() + "\n");
+				}
+			}
+		});
+	}
+
+	private List<JmsRealDataModel> query(String query) {
+		if (query == null || query.isEmpty()) {
+			return getAll();
+		}
+		String[] gateways = null;
+		int funcCode = -1;
+		for (String parameter : query.split("&")) {
+			int separator = parameter.indexOf('=');
+			String name = separator < 0 ? parameter : parameter.substring(0, separator);
+			String value = separator < 0 ? "" : parameter.substring(separator + 1);
+			if ("gateway".equals(name)) {
+				gateways = value.split(",");
+			} else if ("data_type".equals(name)) {
+				funcCode = Integer.parseInt(value, 16);
+			} else {
+				throw new IllegalArgumentException("Unknown parameter " + name);
+			}
+		}
+		if (gateways == null) {
+			throw new IllegalArgumentException("Missing parameter gateway");
+		}
+		List<JmsRealDataModel> models = new ArrayList<JmsRealDataModel>();
+		for (String gateway : gateways) {
+			int gatewayNo = Integer.parseInt(gateway.trim());
+			if (funcCode < 0) {
+				models.addAll(get(gatewayNo));
+				continue;
+			}
+			JmsRealDataModel dataModel = get(gatewayNo, (byte) funcCode);
+			if (dataModel != null) {
+				models.add(dataModel);
+			}
+		}
+		return models;
+	}
+
+	public boolean isEnabled() {
+		return latest != null;
+	}
+
+	/**
+	 * Replaces the entry of the gateway and function code of
+	 * {@code dataModel} with a copy of it.
+	 */
+	public void update(JmsRealDataModel dataModel, byte funcCode) {
+		int code = (funcCode & 0xFF) - FIRST_FUNC_CODE;
+		if (code < 0 || code >= FUNC_CODES) {
+			return;
+		}
+		int key = (dataModel.getGatewayNo() & 0xFFFF) * FUNC_CODES + code;
+		if (latest.get(key) == null) {
+			entries.increment();
+		}
+		latest.lazySet(key, dataModel.copy());
+	}
+
+	/**
+	 * Returns the latest frame of a gateway and function code, or
+	 * {@code null} if none was received.
+	 */
+	public JmsRealDataModel get(int gatewayNo, byte funcCode) {
+		int code = (funcCode & 0xFF) - FIRST_FUNC_CODE;
+		if (code < 0 || code >= FUNC_CODES) {
+			return null;
+		}
+		return latest.get((gatewayNo & 0xFFFF) * FUNC_CODES + code);
+	}
+
+	/**
+	 * Returns the latest frame of each function code of a gateway.
+	 */
+	public List<JmsRealDataModel> get(int gatewayNo) {
+		List<JmsRealDataModel> models = new ArrayList<JmsRealDataModel>(FUNC_CODES);
+		int base = (gatewayNo & 0xFFFF) * FUNC_CODES;
+		for (int i = 0; i < FUNC_CODES; i++) {
+			JmsRealDataModel dataModel = latest.get(base + i);
+			if (dataModel != null) {
+				models.add(dataModel);
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Returns every entry, ordered by gateway and function code.
+	 */
+	public List<JmsRealDataModel> getAll() {
+		List<JmsRealDataModel> models = new ArrayList<JmsRealDataModel>((int) Math.min(entries.value() + 16,
+				latest.length()));
+		for (int i = 0; i < latest.length(); i++) {
+			JmsRealDataModel dataModel = latest.get(i);
+			if (dataModel != null) {
+				models.add(dataModel);
+			}
+		}
+		return models;
+	}
+
+	@ManagedAttribute(description = "Gateways and function codes with a latest frame")
+	public long getEntryCount() {
+		return entries.value();
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setMetricsHttpServer(MetricsHttpServer metricsHttpServer) {
+		this.metricsHttpServer = metricsHttpServer;
+	}
+}
@@ -0,0 +1,354 @@
+package com.bdreport.socket.server.metrics;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.aggregate.WindowAggregator;
+import com.bdreport.socket.server.archive.FrameArchive;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.deadband.DeadbandFilter;
+import com.bdreport.socket.server.dedup.FrameDeduplicator;
+import com.bdreport.socket.server.jdbc.JdbcSink;
+import com.bdreport.socket.server.jms.JmsPublisher;
+import com.bdreport.socket.server.netty.ChannelRepository;
+import com.bdreport.socket.server.netty.GatewayExecutorGroup;
+import com.bdreport.socket.server.spool.FrameSpool;
+
+/**
+ * Counters of the ingest pipeline, exported through JMX and, in the
+ * Prometheus text format, by {@link MetricsHttpServer}.
+ * <p>
+ * Frames per function code, parse failures per status and bytes read are
+ * striped counters updated on the hot path. Connections, queue depths and
+ * the latency histograms of {@link JmsPublisher} and {@link FrameArchive}
+ * are read from their owners when the metrics are scraped.
+ */
+@Component
+@ManagedResource(objectName = "com.bdreport:type=IngestMetrics", description = "Ingest pipeline metrics")
+public class IngestMetrics {
+
+	private static final String[] PARSE_FAILURE_NAMES = new String[256];
+
+	static {
+		PARSE_FAILURE_NAMES[TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_NULL] = "package_null";
+		PARSE_FAILURE_NAMES[TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_EMPTY] = "package_empty";
+		PARSE_FAILURE_NAMES[TcpPackageModel.PACKAGE_PARSE_FAILED_FUNCCODE_UNKOWN] = "funccode_unknown";
+		PARSE_FAILURE_NAMES[TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_BROKEN] = "package_broken";
+		PARSE_FAILURE_NAMES[TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_BROKEN] = "data_broken";
+		PARSE_FAILURE_NAMES[TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_CHECKSUM_ERROR] = "data_checksum_error";
+	}
+
+	private final LongCounter[] frames = new LongCounter[256];
+
+	private final LongCounter[] parseFailures = new LongCounter[256];
+
+	private final LongCounter bytesIn = PlatformDependent.newLongCounter();
+
+	@Autowired(required = false)
+	private ChannelRepository channelRepository;
+
+	@Autowired(required = false)
+	private JmsPublisher jmsPublisher;
+
+	@Autowired(required = false)
+	private FrameArchive frameArchive;
+
+	@Autowired(required = false)
+	private FrameSpool frameSpool;
+
+	@Autowired(required = false)
+	private FrameDeduplicator frameDeduplicator;
+
+	@Autowired(required = false)
+	private DeadbandFilter deadbandFilter;
+
+	@Autowired(required = false)
+	private WindowAggregator windowAggregator;
+
+	@Autowired(required = false)
+	private JdbcSink jdbcSink;
+
+	@Autowired(required = false)
+	@Qualifier("processingGroup")
+	private GatewayExecutorGroup processingGroup;
+
+	public IngestMetrics() {
+		for (int i = 0; i < 256; i++) {
+			frames[i] = PlatformDependent.newLongCounter();
+			parseFailures[i] = PlatformDependent.newLongCounter();
+		}
+	}
+
+	public void frameReceived(byte funcCode) {
+		frames[funcCode & 0xFF].increment();
+	}
+
+	public void parseFailed(int status) {
+		parseFailures[status & 0xFF].increment();
+	}
+
+	public void bytesRead(int bytes) {
+		bytesIn.add(bytes);
+	}
+
+	public long getFrameCount(byte funcCode) {
+		return frames[funcCode & 0xFF].value();
+	}
+
+	public long getParseFailureCount(int status) {
+		return parseFailures[status & 0xFF].value();
+	}
+
+	@ManagedAttribute(description = "Frames parsed, all function codes")
+	public long getFramesReceived() {
+		return sum(frames);
+	}
+
+	@ManagedAttribute(description = "Frames dropped because they failed to parse")
+	public long getParseFailures() {
+		return sum(parseFailures);
+	}
+
+	@ManagedAttribute(description = "Bytes read from gateway connections")
+	public long getBytesIn() {
+		return bytesIn.value();
+	}
+
+	@ManagedAttribute(description = "Connected gateway channels")
+	public int getActiveConnections() {
+		return channelRepository == null ? 0 : channelRepository.size();
+	}
+
+	@ManagedAttribute(description = "Requests waiting in the JMS publisher queues")
+	public int getJmsQueueDepth() {
+		return jmsPublisher == null ? 0 : jmsPublisher.getQueueDepth();
+	}
+
+	@ManagedAttribute(description = "Mean JMS batch send time in microseconds")
+	public double getJmsSendMeanMicros() {
+		return jmsPublisher == null ? 0 : jmsPublisher.getSendLatency().getMeanMicros();
+	}
+
+	@ManagedAttribute(description = "Frames waiting in the archive queue")
+	public int getArchiveQueueDepth() {
+		return frameArchive == null ? 0 : frameArchive.getQueueDepth();
+	}
+
+	@ManagedAttribute(description = "Frames lost to failed archive writes")
+	public long getArchiveDroppedFrames() {
+		return frameArchive == null ? 0 : frameArchive.getDroppedCount();
+	}
+
+	@ManagedAttribute(description = "Mean archive group write time in microseconds")
+	public double getArchiveWriteMeanMicros() {
+		return frameArchive == null ? 0 : frameArchive.getWriteLatency().getMeanMicros();
+	}
+
+	@ManagedAttribute(description = "Packages waiting in the spool")
+	public long getSpoolDepth() {
+		return frameSpool == null ? 0 : frameSpool.getDepth();
+	}
+
+	@ManagedAttribute(description = "Bytes used by spool segments")
+	public long getSpoolDiskUsage() {
+		return frameSpool == null ? 0 : frameSpool.getDiskUsage();
+	}
+
+	@ManagedAttribute(description = "Frames waiting for a processing thread")
+	public long getProcessingQueueDepth() {
+		return processingGroup == null ? 0 : processingGroup.pendingTasks();
+	}
+
+	@ManagedAttribute(description = "Retransmitted frames acked but not processed again")
+	public long getDuplicateFrames() {
+		return frameDeduplicator == null ? 0 : frameDeduplicator.getHitCount();
+	}
+
+	@ManagedAttribute(description = "Share of checked frames that were duplicates")
+	public double getDuplicateRate() {
+		return frameDeduplicator == null ? 0 : frameDeduplicator.getHitRate();
+	}
+
+	@ManagedAttribute(description = "Share of samples left out by change-only publishing")
+	public double getDeadbandReduction() {
+		if (deadbandFilter == null || deadbandFilter.getSamplesReceived() == 0) {
+			return 0;
+		}
+		return 1 - (double) deadbandFilter.getSamplesPublished() / deadbandFilter.getSamplesReceived();
+	}
+
+	/**
+	 * Returns all metrics in the Prometheus text exposition format.
+	 */
+	@ManagedOperation(description = "All metrics in the Prometheus text format")
+	public String scrape() {
+		StringBuilder out = new StringBuilder(4096);
+		header(out, "bdreport_frames_total", "counter", "Frames parsed by function code.");
+		for (int i = 0; i < 256; i++) {
+			long value = frames[i].value();
+			if (value > 0) {
+				sample(out, "bdreport_frames_total", "func_code", String.format("%02X", i), value);
+			}
+		}
+		header(out, "bdreport_parse_failures_total", "counter", "Frames dropped by parse status.");
+		for (int i = 0; i < 256; i++) {
+			if (PARSE_FAILURE_NAMES[i] != null) {
+				sample(out, "bdreport_parse_failures_total", "reason", PARSE_FAILURE_NAMES[i],
+						parseFailures[i].value());
+			}
+		}
+		if (frameDeduplicator != null && frameDeduplicator.isEnabled()) {
+			header(out, "bdreport_dedup_checks_total", "counter", "Frames checked for retransmission.");
+			sample(out, "bdreport_dedup_checks_total", null, null, frameDeduplicator.getLookupCount());
+			header(out, "bdreport_dedup_hits_total", "counter", "Retransmitted frames acked but not processed again.");
+			sample(out, "bdreport_dedup_hits_total", null, null, frameDeduplicator.getHitCount());
+		}
+		if (deadbandFilter != null && deadbandFilter.isEnabled()) {
+			header(out, "bdreport_deadband_samples_total", "counter",
+					"Samples of change-only function codes, received and published.");
+			sample(out, "bdreport_deadband_samples_total", "result", "received", deadbandFilter.getSamplesReceived());
+			sample(out, "bdreport_deadband_samples_total", "result", "published",
+					deadbandFilter.getSamplesPublished());
+			header(out, "bdreport_deadband_messages_total", "counter",
+					"Frames of change-only function codes by how they were published.");
+			sample(out, "bdreport_deadband_messages_total", "kind", "snapshot", deadbandFilter.getSnapshotCount());
+			sample(out, "bdreport_deadband_messages_total", "kind", "delta", deadbandFilter.getDeltaCount());
+			sample(out, "bdreport_deadband_messages_total", "kind", "suppressed", deadbandFilter.getSuppressedCount());
+		}
+		if (windowAggregator != null && windowAggregator.isEnabled()) {
+			header(out, "bdreport_aggregate_frames_total", "counter",
+					"Frames added to aggregation windows, late or ahead of the server clock.");
+			sample(out, "bdreport_aggregate_frames_total", "result", "aggregated", windowAggregator.getFrameCount()
+					- windowAggregator.getLateFrameCount() - windowAggregator.getFutureFrameCount());
+			sample(out, "bdreport_aggregate_frames_total", "result", "late", windowAggregator.getLateFrameCount());
+			sample(out, "bdreport_aggregate_frames_total", "result", "future", windowAggregator.getFutureFrameCount());
+			header(out, "bdreport_aggregate_windows_total", "counter", "Aggregation windows closed.");
+			sample(out, "bdreport_aggregate_windows_total", null, null, windowAggregator.getWindowCount());
+			header(out, "bdreport_aggregate_records_total", "counter", "Aggregate records sent or dropped.");
+			sample(out, "bdreport_aggregate_records_total", "result", "sent",
+					windowAggregator.getAggregatePublisher().getSentCount());
+			sample(out, "bdreport_aggregate_records_total", "result", "dropped",
+					windowAggregator.getAggregatePublisher().getDroppedCount());
+		}
+		if (jdbcSink != null && jdbcSink.isEnabled()) {
+			header(out, "bdreport_jdbc_rows_total", "counter", "Sample rows written to the database or given up.");
+			sample(out, "bdreport_jdbc_rows_total", "result", "written", jdbcSink.getRowsWritten());
+			sample(out, "bdreport_jdbc_rows_total", "result", "failed", jdbcSink.getRowsFailed());
+			header(out, "bdreport_jdbc_retries_total", "counter", "Database transactions retried after transient errors.");
+			sample(out, "bdreport_jdbc_retries_total", null, null, jdbcSink.getRetryCount());
+			header(out, "bdreport_jdbc_dropped_frames_total", "counter", "Frames not stored as the sink queue was full.");
+			sample(out, "bdreport_jdbc_dropped_frames_total", null, null, jdbcSink.getFramesDropped());
+		}
+		if (frameArchive != null && frameArchive.isEnabled()) {
+			header(out, "bdreport_archive_dropped_frames_total", "counter", "Frames lost to failed archive writes.");
+			sample(out, "bdreport_archive_dropped_frames_total", null, null, getArchiveDroppedFrames());
+		}
+		header(out, "bdreport_bytes_in_total", "counter", "Bytes read from gateway connections.");
+		sample(out, "bdreport_bytes_in_total", null, null, getBytesIn());
+		header(out, "bdreport_active_connections", "gauge", "Connected gateway channels.");
+		sample(out, "bdreport_active_connections", null, null, getActiveConnections());
+		header(out, "bdreport_queue_depth", "gauge", "Items waiting in each internal queue.");
+		sample(out, "bdreport_queue_depth", "queue", "processing", getProcessingQueueDepth());
+		sample(out, "bdreport_queue_depth", "queue", "jms", getJmsQueueDepth());
+		sample(out, "bdreport_queue_depth", "queue", "archive", getArchiveQueueDepth());
+		sample(out, "bdreport_queue_depth", "queue", "spool", getSpoolDepth());
+		if (jdbcSink != null && jdbcSink.isEnabled()) {
+			sample(out, "bdreport_queue_depth", "queue", "jdbc", jdbcSink.getQueueDepth());
+		}
+		if (windowAggregator != null && windowAggregator.isEnabled()) {
+			sample(out, "bdreport_queue_depth", "queue", "aggregate",
+					windowAggregator.getAggregatePublisher().getQueueDepth());
+		}
+		header(out, "bdreport_spool_disk_bytes", "gauge", "Bytes used by spool segments.");
+		sample(out, "bdreport_spool_disk_bytes", null, null, getSpoolDiskUsage());
+		if (jmsPublisher != null) {
+			histogram(out, "bdreport_jms_send_seconds", "Time to send and commit a JMS batch.",
+					jmsPublisher.getSendLatency());
+		}
+		if (frameArchive != null) {
+			histogram(out, "bdreport_archive_write_seconds", "Time to write a group of archived frames.",
+					frameArchive.getWriteLatency());
+		}
+		return out.toString();
+	}
+
+	private static void histogram(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+		header(out, name, "histogram", help);
+		long cumulative = 0;
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			cumulative += histogram.getBucketCount(i);
+			long bound = LatencyHistogram.getUpperBoundMicros(i);
+			sample(out, name + "_bucket", "le",
+					bound == Long.MAX_VALUE ? "+Inf" : String.format(Locale.ROOT, "%.6f", bound / 1e6), cumulative);
+		}
+		out.append(name).append("_sum ").append(String.format(Locale.ROOT, "%.9f", histogram.getSumNanos() / 1e9))
+				.append('\n');
+		sample(out, name + "_count", null, null, cumulative);
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder out, String name, String label, String labelValue, long value) {
+		out.append(name);
+		if (label != null) {
+			out.append('{').append(label).append("=\"").append(labelValue).append("\"}");
+		}
+		out.append(' ').append(value).append('\n');
+	}
+
+	private static long sum(LongCounter[] counters) {
+		long sum = 0;
+		for (LongCounter counter : counters) {
+			sum += counter.value();
+		}
+		return sum;
+	}
+
+	public void setChannelRepository(ChannelRepository channelRepository) {
+		this.channelRepository = channelRepository;
+	}
+
+	public void setJmsPublisher(JmsPublisher jmsPublisher) {
+		this.jmsPublisher = jmsPublisher;
+	}
+
+	public void setFrameArchive(FrameArchive frameArchive) {
+		this.frameArchive = frameArchive;
+	}
+
+	public void setFrameSpool(FrameSpool frameSpool) {
+		this.frameSpool = frameSpool;
+	}
+
+	public void setProcessingGroup(GatewayExecutorGroup processingGroup) {
+		this.processingGroup = processingGroup;
+	}
+
+	public void setFrameDeduplicator(FrameDeduplicator frameDeduplicator) {
+		this.frameDeduplicator = frameDeduplicator;
+	}
+
+	public void setDeadbandFilter(DeadbandFilter deadbandFilter) {
+		this.deadbandFilter = deadbandFilter;
+	}
+
+	public void setWindowAggregator(WindowAggregator windowAggregator) {
+		this.windowAggregator = windowAggregator;
+	}
+
+	public void setJdbcSink(JdbcSink jdbcSink) {
+		this.jdbcSink = jdbcSink;
+	}
+}
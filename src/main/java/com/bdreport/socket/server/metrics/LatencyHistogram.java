@@ -0,0 +1,68 @@
+package com.bdreport.socket.server.metrics;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * A latency histogram cheap enough to record on every batch. Buckets double
+ * in width, from {@code 1} microsecond up to about {@code 33} seconds, and
+ * are striped counters, so recording from several threads neither locks nor
+ * contends on one cache line.
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Number of buckets; bucket {@code i} counts latencies up to
+	 * {@code 2^i} microseconds, the last one everything above.
+	 */
+	public static final int BUCKETS = 27;
+
+	private final LongCounter[] buckets = new LongCounter[BUCKETS];
+
+	private final LongCounter sumNanos = PlatformDependent.newLongCounter();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = PlatformDependent.newLongCounter();
+		}
+	}
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos) / 1000;
+		int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+		buckets[Math.min(bucket, BUCKETS - 1)].increment();
+		sumNanos.add(Math.max(0, nanos));
+	}
+
+	/**
+	 * Returns the number of latencies in bucket {@code i} alone.
+	 */
+	public long getBucketCount(int i) {
+		return buckets[i].value();
+	}
+
+	/**
+	 * Returns the upper bound of bucket {@code i} in microseconds, or
+	 * {@link Long#MAX_VALUE} for the last bucket.
+	 */
+	public static long getUpperBoundMicros(int i) {
+		return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongCounter bucket : buckets) {
+			count += bucket.value();
+		}
+		return count;
+	}
+
+	public long getSumNanos() {
+		return sumNanos.value();
+	}
+
+	public double getMeanMicros() {
+		long count = getCount();
+		return count == 0 ? 0 : getSumNanos() / 1000.0 / count;
+	}
+}
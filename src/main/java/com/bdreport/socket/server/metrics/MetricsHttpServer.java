@@ -0,0 +1,133 @@
+package com.bdreport.socket.server.metrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server, separate from the gateway port, that serves
+ * {@link IngestMetrics} at {@code /metrics} in the Prometheus text format.
+ * It runs on the JDK's built-in server with a single thread, as the
+ * application has no web container. Other endpoints can be added with
+ * {@link #addHandler}.
+ * <p>
+ * It listens on the loopback interface unless {@code host} says otherwise,
+ * since {@code /capture} and {@code /latest} expose live gateway data.
+ */
+@Component
+public class MetricsHttpServer {
+
+	private static Logger logger = Logger.getLogger(MetricsHttpServer.class.getName());
+
+	private static final Charset UTF_8 = Charset.forName("utf-8");
+
+	@Value("${bdreport.metrics.http.enabled:true}")
+	private boolean enabled = true;
+
+	@Value("${bdreport.metrics.http.host:127.0.0.1}")
+	private String host = "127.0.0.1";
+
+	@Value("${bdreport.metrics.http.port:9091}")
+	private int port = 9091;
+
+	@Autowired
+	private IngestMetrics ingestMetrics;
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		executor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("metrics-http"));
+		server.setExecutor(executor);
+		addHandler("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", ingestMetrics.scrape());
+			}
+		});
+		server.start();
+		logger.info("Serving metrics on http://" + host + ":" + server.getAddress().getPort() + "/metrics");
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Serves {@code handler} at {@code path}. Has no effect when the server
+	 * is disabled.
+	 */
+	public void addHandler(String path, HttpHandler handler) {
+		if (server != null) {
+			server.createContext(path, handler);
+		}
+	}
+
+	/**
+	 * Sends a complete response and closes the exchange.
+	 */
+	public static void respond(HttpExchange exchange, int status, String contentType, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	public boolean isEnabled() {
+		return server != null;
+	}
+
+	/**
+	 * Returns the bound port, which differs from the configured one when that
+	 * is {@code 0}.
+	 */
+	public int getPort() {
+		return server == null ? port : server.getAddress().getPort();
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public void setIngestMetrics(IngestMetrics ingestMetrics) {
+		this.ingestMetrics = ingestMetrics;
+	}
+}
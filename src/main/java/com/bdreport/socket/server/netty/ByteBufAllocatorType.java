@@ -0,0 +1,25 @@
+package com.bdreport.socket.server.netty;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Buffer allocator for the server and child channels.
+ */
+public enum ByteBufAllocatorType {
+
+	POOLED(PooledByteBufAllocator.DEFAULT),
+
+	UNPOOLED(UnpooledByteBufAllocator.DEFAULT);
+
+	private final ByteBufAllocator allocator;
+
+	private ByteBufAllocatorType(ByteBufAllocator allocator) {
+		this.allocator = allocator;
+	}
+
+	public ByteBufAllocator getAllocator() {
+		return allocator;
+	}
+}
@@ -1,11 +1,32 @@
 package com.bdreport.socket.server.netty;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Registry of connected gateways, safe to use from every event loop.
+ * <p>
+ * Channels are registered by remote address when they connect and are bound
+ * to the gateway number of the frames they carry, so a gateway can be looked
+ * up in constant time by either key. Gateway numbers are 16 bit, so the
+ * gateway index is a plain array. Lookups, {@link #size()} and
+ * {@link #channels()} never lock.
+ */
 public class ChannelRepository {
-    private HashMap<String, Channel> channelCache = new HashMap<String, Channel>();
+
+    private static final AttributeKey<Set<Integer>> GATEWAYS = AttributeKey.valueOf("bdreport.gateways");
+
+    private final ConcurrentHashMap<String, Channel> channelCache = new ConcurrentHashMap<String, Channel>();
+
+    private final AtomicReferenceArray<Channel> gateways = new AtomicReferenceArray<Channel>(0x10000);
 
     public ChannelRepository put(String key, Channel value) {
         channelCache.put(key, value);
@@ -16,9 +37,100 @@ public class ChannelRepository {
         return channelCache.get(key);
     }
 
-    public void remove(String key) { this.channelCache.remove(key); }
+    public void remove(String key) {
+        Channel channel = channelCache.remove(key);
+        if (channel != null) {
+            Set<Integer> bound = channel.attr(GATEWAYS).get();
+            if (bound != null) {
+                synchronized (bound) {
+                    for (Integer gatewayNo : bound) {
+                        gateways.compareAndSet(gatewayNo, channel, null);
+                    }
+                }
+            }
+        }
+    }
 
     public int size() {
         return this.channelCache.size();
     }
+
+    /**
+     * Returns a live, unmodifiable view of the registered channels. Iterating
+     * it does not lock and never throws {@code ConcurrentModificationException}.
+     */
+    public Collection<Channel> channels() {
+        return Collections.unmodifiableCollection(channelCache.values());
+    }
+
+    /**
+     * Binds a gateway number to the channel its frames arrive on. Called for
+     * every frame, so it only writes when the binding changes; a gateway that
+     * reconnects is rebound to its newest channel. A channel may carry several
+     * gateways.
+     */
+    public void bindGateway(int gatewayNo, Channel channel) {
+        gatewayNo &= 0xFFFF;
+        if (gateways.get(gatewayNo) != channel) {
+            Set<Integer> bound = channel.attr(GATEWAYS).get();
+            if (bound == null) {
+                Set<Integer> created = new HashSet<Integer>(4);
+                bound = channel.attr(GATEWAYS).setIfAbsent(created);
+                if (bound == null) {
+                    bound = created;
+                }
+            }
+            synchronized (bound) {
+                bound.add(gatewayNo);
+            }
+            gateways.set(gatewayNo, channel);
+        }
+    }
+
+    /**
+     * Returns the active channel of a gateway, or {@code null}.
+     */
+    public Channel getByGateway(int gatewayNo) {
+        Channel channel = gateways.get(gatewayNo & 0xFFFF);
+        return channel != null && channel.isActive() ? channel : null;
+    }
+
+    /**
+     * Writes a message to one gateway. Ownership of {@code msg} passes to
+     * this method; it is released if the gateway is not connected.
+     *
+     * @return {@code false} if the gateway is not connected
+     */
+    public boolean send(int gatewayNo, ByteBuf msg) {
+        Channel channel = getByGateway(gatewayNo);
+        if (channel == null) {
+            msg.release();
+            return false;
+        }
+        channel.writeAndFlush(msg, channel.voidPromise());
+        return true;
+    }
+
+    /**
+     * Writes a message to every active channel. Each channel gets a retained
+     * duplicate sharing the content of {@code msg}, so it is encoded and
+     * stored once however many gateways are connected. Ownership of
+     * {@code msg} passes to this method.
+     *
+     * @return the number of channels written to
+     */
+    public int broadcast(ByteBuf msg) {
+        int count = 0;
+        try {
+            for (Channel channel : channelCache.values()) {
+                if (channel.isActive()) {
+                    channel.writeAndFlush(msg.retainedDuplicate(), channel.voidPromise());
+                    count++;
+                }
+            }
+        } finally {
+            msg.release();
+        }
+        return count;
+    }
 }
@@ -0,0 +1,128 @@
+package com.bdreport.socket.server.netty;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.RejectedExecutionHandlers;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Executors of the processing stage, separate from the I/O event loops.
+ * <p>
+ * Every connection is pinned to one single threaded executor, picked from
+ * the gateway number of its first frame, so the frames of a connection are
+ * processed and answered strictly in arrival order while different gateways
+ * spread over all threads. A group of
+ * {@code 0} threads has no executors and leaves processing on the I/O event
+ * loops.
+ * <p>
+ * Each executor queues at most {@code queueCapacity} frames and rejects
+ * further ones. It counts as saturated from three quarters of that on, when
+ * the channels feeding it should stop reading until it has caught up.
+ */
+public class GatewayExecutorGroup {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+	private static final int MIN_QUEUE_CAPACITY = 16;
+
+	private static final AttributeKey<EventExecutor> EXECUTOR = AttributeKey.valueOf("processingExecutor");
+
+	private final EventExecutorGroup group;
+
+	private final EventExecutor[] executors;
+
+	private final int saturatedTasks;
+
+	public GatewayExecutorGroup(int threads, String name) {
+		this(threads, name, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public GatewayExecutorGroup(int threads, String name, int queueCapacity) {
+		// Netty queues at least 16 tasks per executor
+		queueCapacity = Math.max(MIN_QUEUE_CAPACITY, queueCapacity);
+		saturatedTasks = Math.max(1, queueCapacity - queueCapacity / 4);
+		if (threads <= 0) {
+			group = null;
+			executors = new EventExecutor[0];
+			return;
+		}
+		group = new DefaultEventExecutorGroup(threads, new DefaultThreadFactory(name), queueCapacity,
+				RejectedExecutionHandlers.reject());
+		List<EventExecutor> list = new ArrayList<EventExecutor>(threads);
+		for (EventExecutor executor : group) {
+			list.add(executor);
+		}
+		executors = list.toArray(new EventExecutor[list.size()]);
+	}
+
+	/**
+	 * Returns {@code false} if processing stays on the I/O event loops.
+	 */
+	public boolean isEnabled() {
+		return executors.length > 0;
+	}
+
+	public int getThreadCount() {
+		return executors.length;
+	}
+
+	/**
+	 * Returns the number of frames waiting for a processing thread.
+	 */
+	public long pendingTasks() {
+		long pending = 0;
+		for (EventExecutor executor : executors) {
+			if (executor instanceof SingleThreadEventExecutor) {
+				pending += ((SingleThreadEventExecutor) executor).pendingTasks();
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Returns {@code true} if {@code executor} has so many frames queued that
+	 * the channels feeding it should stop reading.
+	 */
+	public boolean isSaturated(EventExecutor executor) {
+		return executor instanceof SingleThreadEventExecutor
+				&& ((SingleThreadEventExecutor) executor).pendingTasks() >= saturatedTasks;
+	}
+
+	/**
+	 * Returns the executor a gateway is pinned to.
+	 */
+	public EventExecutor executor(int gatewayNo) {
+		return executors[(gatewayNo & 0xFFFF) % executors.length];
+	}
+
+	/**
+	 * Returns the executor {@code channel} is pinned to, pinning it to the
+	 * executor of {@code gatewayNo} on its first frame. Later frames keep that
+	 * executor whatever gateway number they carry, so a corrupt one cannot be
+	 * answered ahead of the frames before it.
+	 */
+	public EventExecutor executor(Channel channel, int gatewayNo) {
+		EventExecutor executor = channel.attr(EXECUTOR).get();
+		if (executor == null) {
+			EventExecutor pinned = channel.attr(EXECUTOR).setIfAbsent(executor(gatewayNo));
+			executor = pinned == null ? executor(gatewayNo) : pinned;
+		}
+		return executor;
+	}
+
+	public Future<?> shutdownGracefully() {
+		if (group == null) {
+			return ImmediateEventExecutor.INSTANCE.newSucceededFuture(null);
+		}
+		return group.shutdownGracefully();
+	}
+}
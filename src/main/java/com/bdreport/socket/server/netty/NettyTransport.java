@@ -0,0 +1,75 @@
+package com.bdreport.socket.server.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Event loop groups and channel classes of the selected transport. Native
+ * epoll avoids the selector wake-ups and garbage of NIO and supports
+ * {@code SO_REUSEPORT}, which lets several acceptor threads bind the same
+ * port.
+ */
+public class NettyTransport {
+
+	private static Logger logger = Logger.getLogger(NettyTransport.class.getName());
+
+	private final TransportType type;
+
+	private NettyTransport(TransportType type) {
+		this.type = type;
+	}
+
+	/**
+	 * Resolves the requested transport. {@link TransportType#AUTO} and an
+	 * unavailable {@link TransportType#EPOLL} fall back to NIO.
+	 */
+	public static NettyTransport select(TransportType requested) {
+		if (requested == TransportType.NIO) {
+			return new NettyTransport(TransportType.NIO);
+		}
+		if (Epoll.isAvailable()) {
+			return new NettyTransport(TransportType.EPOLL);
+		}
+		if (requested == TransportType.EPOLL) {
+			logger.warn("Native epoll transport unavailable, falling back to NIO: "
+					+ Epoll.unavailabilityCause().getMessage());
+		}
+		return new NettyTransport(TransportType.NIO);
+	}
+
+	/**
+	 * Returns {@link TransportType#EPOLL} or {@link TransportType#NIO}.
+	 */
+	public TransportType getType() {
+		return type;
+	}
+
+	public boolean isEpoll() {
+		return type == TransportType.EPOLL;
+	}
+
+	public EventLoopGroup newEventLoopGroup(int threads, String name) {
+		DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+		return isEpoll() ? new EpollEventLoopGroup(threads, threadFactory)
+				: new NioEventLoopGroup(threads, threadFactory);
+	}
+
+	public Class<? extends ServerChannel> getServerChannelClass() {
+		return isEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+	}
+
+	public Class<? extends SocketChannel> getSocketChannelClass() {
+		return isEpoll() ? EpollSocketChannel.class : NioSocketChannel.class;
+	}
+}
@@ -2,16 +2,23 @@ package com.bdreport.socket.server.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
+
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PreDestroy;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 @Component
 public class TCPServer {
 
+	private static Logger logger = Logger.getLogger(TCPServer.class.getName());
+
 	@Autowired
 	@Qualifier("serverBootstrap")
 	private ServerBootstrap serverBootstrap;
@@ -20,17 +27,38 @@ public class TCPServer {
 	@Qualifier("tcpSocketAddress")
 	private InetSocketAddress tcpPort;
 
-	private Channel serverChannel;
+	@Autowired
+	private NettyTransport nettyTransport;
+
+	@Value("${so.reuseport:false}")
+	private boolean reusePort;
 
+	@Value("${boss.thread.count:2}")
+	private int bossCount;
+
+	private final List<Channel> serverChannels = new ArrayList<Channel>();
+
+	/**
+	 * Binds the server and blocks until it is closed. With epoll and
+	 * {@code so.reuseport} one listening socket is bound per boss thread, and
+	 * the kernel spreads incoming connections across them.
+	 */
 	public void start() throws Exception {
-		serverChannel = serverBootstrap.bind(tcpPort).sync().channel().closeFuture().sync().channel();
+		int binds = reusePort && nettyTransport.isEpoll() ? Math.max(1, bossCount) : 1;
+		for (int i = 0; i < binds; i++) {
+			serverChannels.add(serverBootstrap.bind(tcpPort).sync().channel());
+		}
+		logger.info("Listening on " + tcpPort + " with " + nettyTransport.getType() + " transport, " + binds
+				+ " acceptor(s)");
+		for (Channel serverChannel : serverChannels) {
+			serverChannel.closeFuture().sync();
+		}
 	}
 
 	@PreDestroy
 	public void stop() throws Exception {
-		if (serverChannel != null) {
+		for (Channel serverChannel : serverChannels) {
 			serverChannel.close();
-			serverChannel.parent().close();
 		}
 	}
 
@@ -0,0 +1,22 @@
+package com.bdreport.socket.server.netty;
+
+/**
+ * Socket transport used for the TCP server, see {@link NettyTransport}.
+ */
+public enum TransportType {
+
+	/**
+	 * Native epoll when it is available, NIO otherwise.
+	 */
+	AUTO,
+
+	/**
+	 * Native epoll, Linux only.
+	 */
+	EPOLL,
+
+	/**
+	 * Java NIO selectors.
+	 */
+	NIO
+}
@@ -0,0 +1,35 @@
+package com.bdreport.socket.server.netty.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.metrics.IngestMetrics;
+
+/**
+ * Counts the bytes read from gateway connections, before framing, so bytes
+ * the frame decoder skips are included.
+ */
+@Component
+@ChannelHandler.Sharable
+public class InboundByteCounter extends ChannelInboundHandlerAdapter {
+
+	@Autowired
+	private IngestMetrics ingestMetrics;
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof ByteBuf) {
+			ingestMetrics.bytesRead(((ByteBuf) msg).readableBytes());
+		}
+		ctx.fireChannelRead(msg);
+	}
+
+	public void setIngestMetrics(IngestMetrics ingestMetrics) {
+		this.ingestMetrics = ingestMetrics;
+	}
+}
@@ -4,13 +4,11 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.DelimiterBasedFrameDecoder;
-import io.netty.handler.codec.Delimiters;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -21,10 +19,28 @@ public class TcpChannelInitializer extends ChannelInitializer<SocketChannel> {
 	@Qualifier("tcpServerHandler")
 	private ChannelInboundHandlerAdapter tcpServerHandler;
 
+	@Autowired
+	private InboundByteCounter inboundByteCounter;
+
+	@Value("${bdreport.frame.max-length:65553}")
+	private int maxFrameLength;
+
+	/*
+	 * Acks sent from publisher threads are flushed at most once per this many
+	 * flushes or per event loop turn; 0 flushes every ack on its own.
+	 */
+	@Value("${bdreport.ack.flush-after-flushes:256}")
+	private int flushAfterFlushes;
+
 	@Override
 	protected void initChannel(SocketChannel socketChannel) throws Exception {
 		ChannelPipeline pipeline = socketChannel.pipeline();
 
+		pipeline.addLast("bytesIn", inboundByteCounter);
+		if (flushAfterFlushes > 0) {
+			pipeline.addLast("flushConsolidation", new FlushConsolidationHandler(flushAfterFlushes, true));
+		}
+		pipeline.addLast("frameDecoder", new TcpFrameDecoder(maxFrameLength));
 		pipeline.addLast(tcpServerHandler);
 	}
 }
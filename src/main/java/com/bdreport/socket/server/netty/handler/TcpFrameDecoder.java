@@ -0,0 +1,118 @@
+package com.bdreport.socket.server.netty.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+
+/**
+ * Splits the inbound byte stream into gateway frames, each starting with the
+ * 0xEE head byte and ending with the FF FC FF FF tail.
+ * <p>
+ * Head and tail are located with bulk {@link ByteBuf#indexOf} scans instead of
+ * a per-byte state machine, and every complete frame is passed on as a
+ * retained slice of the cumulation buffer, so no bytes are copied. Bytes
+ * outside of a frame are discarded. An instance keeps the framing state of one
+ * channel and therefore must not be shared.
+ */
+public class TcpFrameDecoder extends ByteToMessageDecoder {
+
+	private static Logger logger = Logger.getLogger(TcpFrameDecoder.class.getName());
+
+	private final int maxFrameLength;
+
+	/** Whether the reader index currently points at a frame head. */
+	private boolean inFrame;
+
+	/** Offset from the frame head at which the next tail scan starts. */
+	private int scanOffset;
+
+	public TcpFrameDecoder() {
+		this(TcpPackageModel.PACKAGE_FRAME_MAX_LENGTH);
+	}
+
+	public TcpFrameDecoder(int maxFrameLength) {
+		if (maxFrameLength < TcpPackageModel.PACKAGE_FRAME_MIN_LENGTH) {
+			throw new IllegalArgumentException("maxFrameLength must be at least "
+					+ TcpPackageModel.PACKAGE_FRAME_MIN_LENGTH + ": " + maxFrameLength);
+		}
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+		ByteBuf frame;
+		while ((frame = decodeFrame(in)) != null) {
+			out.add(frame);
+		}
+	}
+
+	/**
+	 * Returns the next complete frame as a retained slice of {@code in}, or
+	 * {@code null} if more bytes are needed.
+	 */
+	public ByteBuf decodeFrame(ByteBuf in) {
+		if (!inFrame) {
+			int head = in.indexOf(in.readerIndex(), in.writerIndex(), TcpPackageModel.PACKAGE_FRAME_HEAD_BYTE_EE);
+			if (head < 0) {
+				in.skipBytes(in.readableBytes());
+				return null;
+			}
+			in.readerIndex(head);
+			inFrame = true;
+			// The FC byte of the tail is preceded by at least the head and one 0xFF.
+			scanOffset = 2;
+		}
+
+		int start = in.readerIndex();
+		int end = in.writerIndex();
+		int from = start + scanOffset;
+		while (from < end) {
+			int fc = in.indexOf(from, end, TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FC);
+			if (fc < 0) {
+				from = end;
+				break;
+			}
+			if (fc + 2 >= end) {
+				// Tail may be split across reads, look at this FC again next time.
+				from = fc;
+				break;
+			}
+			if (in.getByte(fc - 1) == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF
+					&& in.getByte(fc + 1) == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF
+					&& in.getByte(fc + 2) == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF) {
+				int length = fc + 3 - start;
+				inFrame = false;
+				if (length > maxFrameLength) {
+					discard(in, length);
+					return null;
+				}
+				ByteBuf frame = in.retainedSlice(start, length);
+				in.skipBytes(length);
+				return frame;
+			}
+			from = fc + 1;
+		}
+
+		scanOffset = from - start;
+		if (end - start > maxFrameLength) {
+			inFrame = false;
+			discard(in, end - start);
+		}
+		return null;
+	}
+
+	private void discard(ByteBuf in, int length) {
+		logger.warn("Discarded " + length + " bytes exceeding max frame length " + maxFrameLength);
+		in.skipBytes(length);
+	}
+
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+}
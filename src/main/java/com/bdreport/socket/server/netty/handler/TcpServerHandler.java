@@ -5,20 +5,19 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.EventExecutor;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-import javax.jms.Queue;
-
-import org.apache.commons.codec.binary.Hex;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -27,18 +26,33 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.annotation.PropertySource;
-import org.springframework.jms.core.JmsMessagingTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
+import com.bdreport.socket.server.aggregate.WindowAggregator;
+import com.bdreport.socket.server.archive.FrameArchive;
+import com.bdreport.socket.server.archive.FrameQuarantine;
+import com.bdreport.socket.server.data.DataTimeFormat;
+import com.bdreport.socket.server.data.TcpPackageFlyweight;
 import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.deadband.DeadbandFilter;
+import com.bdreport.socket.server.dedup.FrameDeduplicator;
+import com.bdreport.socket.server.diagnostics.WireCapture;
+import com.bdreport.socket.server.jdbc.JdbcSink;
+import com.bdreport.socket.server.jms.JmsPublishListener;
+import com.bdreport.socket.server.jms.JmsPublishRequest;
+import com.bdreport.socket.server.jms.JmsPublisher;
+import com.bdreport.socket.server.latest.LatestValueCache;
+import com.bdreport.socket.server.metrics.IngestMetrics;
 import com.bdreport.socket.server.netty.ChannelRepository;
+import com.bdreport.socket.server.netty.GatewayExecutorGroup;
+import com.bdreport.socket.server.spool.FrameSpool;
 
 @Component
 @Qualifier("tcpServerHandler")
 @PropertySource(value = "classpath:/properties/local/application.properties")
 @ChannelHandler.Sharable
-public class TcpServerHandler extends ChannelInboundHandlerAdapter {
+public class TcpServerHandler extends ChannelInboundHandlerAdapter implements JmsPublishListener {
 
 	@Configuration
 	@Profile("production")
@@ -52,11 +66,6 @@ public class TcpServerHandler extends ChannelInboundHandlerAdapter {
 	static class Local {
 	}
 
-	private int isHead = TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_NULL;
-	private int isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
-
-	private ByteBuf byteBuf;
-
 	@Value("${bdreport.logpath:'/var/log/'}")
 	private String logPath;
 
@@ -77,17 +86,59 @@ public class TcpServerHandler extends ChannelInboundHandlerAdapter {
 	private byte[] msgSucceed = { (byte) 0xEE, (byte) 0x60, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
 	private byte[] msgFailed = { (byte) 0xEE, (byte) 0x61, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
 
+	/*
+	 * Encoded once and shared by all channels; every write sends a duplicate,
+	 * which has its own indices but neither copies nor counts references.
+	 */
+	private final ByteBuf ackSucceed = Unpooled
+			.unreleasableBuffer(Unpooled.directBuffer(msgSucceed.length).writeBytes(msgSucceed)).asReadOnly();
+	private final ByteBuf ackFailed = Unpooled
+			.unreleasableBuffer(Unpooled.directBuffer(msgFailed.length).writeBytes(msgFailed)).asReadOnly();
+
+	@Autowired
+	private JmsPublisher jmsPublisher;
+
+	@Autowired
+	private FrameArchive frameArchive;
+
 	@Autowired
-	private JmsMessagingTemplate jmsMessagingTemplate;
+	private FrameSpool frameSpool;
 
 	@Autowired
-	private Queue queue;
+	private FrameQuarantine frameQuarantine;
 
 	@Autowired
 	private ChannelRepository channelRepository;
 
+	@Autowired
+	@Qualifier("processingGroup")
+	private GatewayExecutorGroup processingGroup;
+
+	@Autowired
+	private IngestMetrics ingestMetrics;
+
+	@Autowired
+	private WireCapture wireCapture;
+
+	@Autowired
+	private FrameDeduplicator frameDeduplicator;
+
+	@Autowired
+	private DeadbandFilter deadbandFilter;
+
+	@Autowired
+	private WindowAggregator windowAggregator;
+
+	@Autowired
+	private LatestValueCache latestValueCache;
+
+	@Autowired
+	private JdbcSink jdbcSink;
+
 	private static Logger logger = Logger.getLogger(TcpServerHandler.class.getName());
 
+	private static final long RESUME_RETRY_MS = 10;
+
 	@Override
 	public void channelActive(ChannelHandlerContext ctx) throws Exception {
 		Assert.notNull(this.channelRepository,
@@ -98,99 +149,202 @@ public class TcpServerHandler extends ChannelInboundHandlerAdapter {
 		String channelKey = ctx.channel().remoteAddress().toString();
 		channelRepository.put(channelKey, ctx.channel());
 
-		byteBuf = Unpooled.buffer(10240);
-
 		logger.debug("Binded Channel Count is " + this.channelRepository.size());
 	}
 
-	public ByteBuf getByteBuf() {
-		return byteBuf;
-	}
-
-	public void setByteBuf(ByteBuf byteBuf) {
-		this.byteBuf = byteBuf;
-	}
-
 	@Override
 	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-		ByteBuf in = (ByteBuf) msg;
+		ByteBuf frame = (ByteBuf) msg;
+		if (processingGroup != null && processingGroup.isEnabled()) {
+			dispatch(ctx, frame);
+			return;
+		}
 		try {
-			while (in.isReadable()) {
-				byte byHex = (byte) in.readByte();
-				if (isHead == TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_NULL) {
-					if (byHex == TcpPackageModel.PACKAGE_FRAME_HEAD_BYTE_EE) {
-						isHead = TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_START;
-						logger.debug("Found Frame Head 0xEE.");
-						byteBuf.writeByte(byHex);
-					}
-				} else {
-					if (byHex == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FF) {
-						switch (isTail) {
-						case TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL:
-							logger.debug("Found Frame Tail 1 0xFF.");
-							isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_START;
-							break;
-						case TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_2:
-							logger.debug("Found Frame Tail 3 0xFF.");
-							isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_3;
-							break;
-						case TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_3:
-							logger.debug("Found Frame Tail 4 0xFF.");
-							isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_END;
-							break;
-						default:
-							logger.debug("Reset Frame Tail.");
-							isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
-							break;
-						}
-					} else if (byHex == TcpPackageModel.PACKAGE_FRAME_TAIL_BYTE_FC) {
-						if (isTail == TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_START) {
-							logger.debug("Found Frame Tail 2 0xFC.");
-							isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_2;
-						} else {
-							logger.debug("Reset Frame Tail.");
-							isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
-						}
-					} else {
-						// logger.debug("Reset Frame Tail.");
-						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
-					}
-					byteBuf.writeByte(byHex);
-					if (isTail == TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_END) {
-						byte[] hexByte = new byte[byteBuf.readableBytes()];
-						byteBuf.readBytes(hexByte);
-						TcpPackageModel tcpPackageModel = new TcpPackageModel(ctx, hexByte);
-						String hexStr = tcpPackageModel.toHexString();
-						logger.debug("Received Message: " + hexStr + " From Client: "
-								+ ((InetSocketAddress) (ctx.channel().remoteAddress())).getAddress().getHostAddress());
-
-						writePackageLog(tcpPackageModel, DIR_SUCCEED);
-
-						try {
-							jmsSend(tcpPackageModel);
-						} catch (Exception e) {
-							e.printStackTrace();
-							writePackageLog(tcpPackageModel, DIR_FAILED);
-						}
-
-						isHead = TcpPackageModel.PACKAGE_FRAME_HEAD_STATUS_NULL;
-						isTail = TcpPackageModel.PACKAGE_FRAME_TAIL_STATUS_NULL;
-
-						byteBuf.clear();
-						ctx.writeAndFlush(Unpooled.wrappedBuffer(msgSucceed));
-						logger.debug("Sent Response: " + Hex.encodeHexString(msgSucceed).toUpperCase() + " To Client: "
-								+ ctx.channel().remoteAddress().toString());
+			process(ctx, frame);
+		} finally {
+			frame.release();
+		}
+	}
 
+	/**
+	 * Hands a frame to the processing executor of its connection, which the
+	 * gateway number of the first frame picks. Only that number is read here;
+	 * frames are validated and parsed on the processing thread, so acks and
+	 * NAKs keep the order of the frames.
+	 * <p>
+	 * While the executor is saturated the channel stops reading, and reads
+	 * again once the executor has worked through the frames queued before
+	 * that point. A frame the full queue still rejects is NAKed for the
+	 * gateway to resend.
+	 */
+	private void dispatch(final ChannelHandlerContext ctx, final ByteBuf frame) {
+		int gatewayNo = peekGatewayNo(frame);
+		EventExecutor executor = processingGroup.executor(ctx.channel(),
+				gatewayNo == WireCapture.ANY_GATEWAY ? 0 : gatewayNo);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						process(ctx, frame);
+					} catch (Throwable cause) {
+						exceptionCaught(ctx, cause);
+					} finally {
+						frame.release();
 					}
 				}
+			});
+		} catch (RejectedExecutionException e) {
+			frame.release();
+			if (executor.isShuttingDown()) {
+				logger.warn("Processing stage shut down, dropped frame");
+				return;
 			}
-		} finally {
-			in.release();
+			logger.warn("Processing queue full, NAKed frame from " + ctx.channel().remoteAddress());
+			writeAck(ctx, ackFailed);
+		}
+		if (processingGroup.isSaturated(executor) && ctx.channel().config().isAutoRead()) {
+			pauseReads(ctx, executor);
+		}
+	}
+
+	private void pauseReads(ChannelHandlerContext ctx, EventExecutor executor) {
+		ctx.channel().config().setAutoRead(false);
+		resumeReadsAfter(ctx, executor);
+	}
+
+	/**
+	 * Queues the task that lets the channel read again behind the frames
+	 * already queued on {@code executor}, retrying while the queue is full.
+	 */
+	private void resumeReadsAfter(final ChannelHandlerContext ctx, final EventExecutor executor) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					ctx.channel().config().setAutoRead(true);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (executor.isShuttingDown()) {
+				ctx.channel().config().setAutoRead(true);
+				return;
+			}
+			ctx.executor().schedule(new Runnable() {
+				@Override
+				public void run() {
+					resumeReadsAfter(ctx, executor);
+				}
+			}, RESUME_RETRY_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void process(ChannelHandlerContext ctx, ByteBuf frame) {
+		TcpPackageFlyweight view = TcpPackageFlyweight.current();
+		int status = view.wrap(frame);
+		if (wireCapture.isActive()) {
+			wireCapture.capture(frame, ctx.channel().remoteAddress(), peekGatewayNo(frame), status);
+		}
+		if (status != TcpPackageModel.PACKAGE_PARSE_SUCCEED) {
+			reject(ctx, frame, status);
+			return;
+		}
+		ingestMetrics.frameReceived(view.getFuncCode());
+		channelRepository.bindGateway(view.getGatewayNo(), ctx.channel());
+		if (frameDeduplicator.isEnabled() && frameDeduplicator.isDuplicate(view)) {
+			// a retransmission: the gateway missed our ack, not the data
+			writeAck(ctx, ackSucceed);
+			return;
+		}
+		try {
+			handOff(ctx, frame, view);
+		} catch (RuntimeException | Error e) {
+			if (frameDeduplicator.isEnabled()) {
+				// not handed off: the resent frame must not be taken for a duplicate
+				frameDeduplicator.forget(view);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Parses a valid frame and hands it to every enabled stage, ending with
+	 * the JMS publisher or the spool.
+	 */
+	private void handOff(ChannelHandlerContext ctx, ByteBuf frame, TcpPackageFlyweight view) {
+		TcpPackageModel tcpPackageModel = new TcpPackageModel(ctx, view);
+
+		if (frameArchive.isEnabled() && !frameArchive.append(frame, view.getGatewayNo(), view.getFuncCode(),
+				tcpPackageModel.getDataModel().getDataTimeMillis())) {
+			logger.warn("Frame archive queue full, frame not archived");
+		}
+
+		if (latestValueCache.isEnabled()) {
+			latestValueCache.update(tcpPackageModel.getDataModel(), view.getFuncCode());
+		}
+
+		if (windowAggregator.isEnabled()) {
+			windowAggregator.add(tcpPackageModel.getDataModel(), view.getFuncCode());
+		}
+
+		// stored with every channel: the sink writes later, after the filter
+		// below may have reduced the model it would otherwise share
+		if (jdbcSink.isEnabled() && !jdbcSink.write(deadbandFilter.isEnabled()
+				? tcpPackageModel.getDataModel().copy() : tcpPackageModel.getDataModel())) {
+			logger.warn("JDBC sink queue full, frame not stored");
+		}
+
+		if (deadbandFilter.isEnabled() && !deadbandFilter.filter(tcpPackageModel.getDataModel(), view.getFuncCode())) {
+			writeAck(ctx, ackSucceed);
+			return;
+		}
+
+		if (!jmsPublisher.publish(new JmsPublishRequest(tcpPackageModel, ctx, this))) {
+			logger.warn("JMS publisher queue full, spooling package");
+			spool(tcpPackageModel);
+			writeAck(ctx, ackSucceed);
+		} else if (!jmsPublisher.isAckOnCommit()) {
+			writeAck(ctx, ackSucceed);
+		}
+	}
+
+	/**
+	 * Reads the gateway number of a frame that has not been validated, or
+	 * returns {@link WireCapture#ANY_GATEWAY} if it is too short.
+	 */
+	private static int peekGatewayNo(ByteBuf frame) {
+		return frame.readableBytes() >= TcpPackageFlyweight.OFFSET_GATEWAY_NO + 2
+				? frame.getUnsignedShort(frame.readerIndex() + TcpPackageFlyweight.OFFSET_GATEWAY_NO)
+				: WireCapture.ANY_GATEWAY;
+	}
+
+	/**
+	 * The only work done for a frame that failed validation: it is counted,
+	 * optionally quarantined and answered with a NAK. It is never parsed into
+	 * a model, archived, serialized or published.
+	 */
+	private void reject(ChannelHandlerContext ctx, ByteBuf frame, int status) {
+		ingestMetrics.parseFailed(status);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Dropped Message, Parse Status: " + status);
+		}
+		if (frameQuarantine != null && frameQuarantine.isEnabled()
+				&& !frameQuarantine.append(frame, String.valueOf(ctx.channel().remoteAddress()), status)) {
+			logger.debug("Quarantine queue full, rejected frame not kept");
 		}
+		writeAck(ctx, ackFailed);
+	}
+
+	/**
+	 * Flushes the acks written for all frames of the last read at once.
+	 */
+	@Override
+	public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+		ctx.flush();
 	}
 
 	@Override
-	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
 		logger.error(cause.getMessage(), cause);
 		ctx.close();
 	}
@@ -204,10 +358,6 @@ public class TcpServerHandler extends ChannelInboundHandlerAdapter {
 		String channelKey = ctx.channel().remoteAddress().toString();
 		this.channelRepository.remove(channelKey);
 
-		if (byteBuf != null)
-			byteBuf.release();
-		byteBuf = null;
-
 		logger.debug("Binded Channel Count is " + this.channelRepository.size());
 	}
 
@@ -215,15 +365,106 @@ public class TcpServerHandler extends ChannelInboundHandlerAdapter {
 		this.channelRepository = channelRepository;
 	}
 
-	public void jmsSend(TcpPackageModel tcpPackageModel) {
-		String json = tcpPackageModel.toJsonString();
-		logger.debug("Package JSON Data: " + json);
-		this.jmsMessagingTemplate.convertAndSend(this.queue, json);
+	public void setFrameArchive(FrameArchive frameArchive) {
+		this.frameArchive = frameArchive;
+	}
+
+	public void setJmsPublisher(JmsPublisher jmsPublisher) {
+		this.jmsPublisher = jmsPublisher;
+	}
+
+	public void setFrameSpool(FrameSpool frameSpool) {
+		this.frameSpool = frameSpool;
+	}
+
+	public void setProcessingGroup(GatewayExecutorGroup processingGroup) {
+		this.processingGroup = processingGroup;
+	}
+
+	public void setFrameQuarantine(FrameQuarantine frameQuarantine) {
+		this.frameQuarantine = frameQuarantine;
+	}
+
+	public void setIngestMetrics(IngestMetrics ingestMetrics) {
+		this.ingestMetrics = ingestMetrics;
+	}
+
+	public void setWireCapture(WireCapture wireCapture) {
+		this.wireCapture = wireCapture;
+	}
+
+	public void setFrameDeduplicator(FrameDeduplicator frameDeduplicator) {
+		this.frameDeduplicator = frameDeduplicator;
+	}
+
+	public void setDeadbandFilter(DeadbandFilter deadbandFilter) {
+		this.deadbandFilter = deadbandFilter;
+	}
+
+	public void setWindowAggregator(WindowAggregator windowAggregator) {
+		this.windowAggregator = windowAggregator;
+	}
+
+	public void setLatestValueCache(LatestValueCache latestValueCache) {
+		this.latestValueCache = latestValueCache;
+	}
+
+	public void setJdbcSink(JdbcSink jdbcSink) {
+		this.jdbcSink = jdbcSink;
+	}
+
+	@Override
+	public void published(JmsPublishRequest request) {
+		if (jmsPublisher.isAckOnCommit()) {
+			sendSucceed(request.getCtx());
+		}
+	}
+
+	@Override
+	public void failed(JmsPublishRequest request, Exception cause) {
+		spool(request.getTcpPackageModel());
+		if (jmsPublisher.isAckOnCommit()) {
+			sendSucceed(request.getCtx());
+		}
+	}
+
+	/**
+	 * Hands an undelivered package to the spool for replay, or writes it to
+	 * the {@code failed} directory when spooling is disabled.
+	 */
+	private void spool(TcpPackageModel tcpPackageModel) {
+		if (!frameSpool.isEnabled()) {
+			writePackageLog(tcpPackageModel, DIR_FAILED);
+		} else if (!frameSpool.append(tcpPackageModel.getDataModel())) {
+			logger.error("Spool full, dropped package: " + tcpPackageModel.toJsonString());
+		}
+	}
+
+	/**
+	 * Acks a frame after its read has completed, from a publisher thread.
+	 * Acks for a whole batch are consolidated by the flush handler in front of
+	 * the pipeline.
+	 */
+	private void sendSucceed(ChannelHandlerContext ctx) {
+		ctx.writeAndFlush(ackSucceed.duplicate(), ctx.voidPromise());
+	}
+
+	/**
+	 * Writes an ack during a read without flushing it, see
+	 * {@link #channelReadComplete(ChannelHandlerContext)}. Acks written from
+	 * the processing stage are flushed right away and consolidated like those
+	 * of {@link #sendSucceed(ChannelHandlerContext)}.
+	 */
+	private void writeAck(ChannelHandlerContext ctx, ByteBuf ack) {
+		if (ctx.executor().inEventLoop()) {
+			ctx.write(ack.duplicate(), ctx.voidPromise());
+		} else {
+			ctx.writeAndFlush(ack.duplicate(), ctx.voidPromise());
+		}
 	}
 
 	public void writePackageLog(TcpPackageModel pkgModel, String dir) {
-		String datetime = pkgModel.getDataModel().getDataTime().replaceAll("-", "").replaceAll(":", "").replaceAll(" ",
-				"");
+		String datetime = DataTimeFormat.compact(pkgModel.getDataModel().getDataTime());
 		String date = datetime.substring(0, 8);
 		String time = datetime.substring(8);
 		String fc = pkgModel.getDataModel().getFuncCode();
@@ -0,0 +1,587 @@
+package com.bdreport.socket.server.spool;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+
+/**
+ * Durable store-and-forward queue for packages the broker did not take.
+ * <p>
+ * Producers encode a package on their own thread and hand the record to a
+ * single writer thread, which appends it to the current segment and forces it
+ * to disk before the next group is taken. A single consumer reads records with
+ * {@link #poll(List, int)} and either {@link #commit()}s the read position to
+ * the checkpoint file or {@link #rewind()}s to the last checkpoint, so a
+ * package is delivered at least once across broker outages and restarts.
+ * Segments are deleted once the checkpoint has moved past them, and appends
+ * are refused when the segments would exceed {@code maxBytes}. See
+ * {@link SpoolFormat} for the layout.
+ * <p>
+ * A failed write cuts the segment back to its last forced record and seals
+ * it, and the next record starts a new segment, so no torn record is left in
+ * front of later ones. The records of the failed group are counted as
+ * dropped.
+ */
+@Component
+public class FrameSpool {
+
+	private static Logger logger = Logger.getLogger(FrameSpool.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+	private static final int GROUP_COMMIT_SIZE = WRITE_BUFFER_SIZE / 2;
+
+	@Value("${bdreport.spool.enabled:true}")
+	private boolean enabled = true;
+
+	@Value("${bdreport.spool.path:${bdreport.logpath:/var/log/}/spool}")
+	private String path;
+
+	@Value("${bdreport.spool.segment-size:16777216}")
+	private long segmentSize = 16 * 1024 * 1024;
+
+	@Value("${bdreport.spool.max-bytes:1073741824}")
+	private long maxBytes = 1024 * 1024 * 1024;
+
+	@Value("${bdreport.spool.fsync:true}")
+	private boolean fsync = true;
+
+	@Value("${bdreport.spool.queue-capacity:4096}")
+	private int queueCapacity = 4096;
+
+	private Queue<byte[]> queue;
+
+	private Thread writerThread;
+
+	private volatile boolean running;
+
+	private File directory;
+
+	private final AtomicLong diskUsage = new AtomicLong();
+
+	private final AtomicLong depth = new AtomicLong();
+
+	private final AtomicLong appendedCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	// writer thread
+
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+	private FileChannel segment;
+
+	private long segmentPosition;
+
+	private volatile int activeSequence;
+
+	private volatile long activeLength;
+
+	private int pendingRecords;
+
+	private long pendingBytes;
+
+	// consumer thread
+
+	private FileChannel readChannel;
+
+	private int readChannelSequence;
+
+	private int readSequence;
+
+	private long readOffset;
+
+	private int checkpointSequence;
+
+	private long checkpointOffset;
+
+	private long uncommitted;
+
+	private final ByteBuffer recordHeader = ByteBuffer.allocate(SpoolFormat.RECORD_HEADER_LENGTH);
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		directory = new File(path);
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create spool directory " + directory);
+		}
+		int last = -1;
+		long usage = 0;
+		for (String name : list()) {
+			int sequence = SpoolFormat.sequence(name);
+			if (sequence >= 0) {
+				File file = new File(directory, name);
+				last = Math.max(last, sequence);
+				if (file.length() <= SpoolFormat.SEGMENT_HEADER_LENGTH && file.delete()) {
+					continue;
+				}
+				usage += file.length();
+			}
+		}
+		diskUsage.set(usage);
+		int first = nextSequence(-1);
+
+		readCheckpoint();
+		if (first < 0 || checkpointSequence < first || checkpointSequence > last) {
+			checkpointSequence = first < 0 ? last + 1 : first;
+			checkpointOffset = SpoolFormat.SEGMENT_HEADER_LENGTH;
+		}
+		rewind();
+		openSegment(last + 1);
+		depth.set(countRecords());
+		rewind();
+
+		queue = PlatformDependent.newFixedMpscQueue(queueCapacity);
+		running = true;
+		writerThread = new DefaultThreadFactory("frame-spool").newThread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		});
+		writerThread.start();
+		logger.info("Spooling undelivered packages to " + directory + ", " + depth.get() + " waiting");
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (writerThread != null) {
+			LockSupport.unpark(writerThread);
+			writerThread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		closeReadChannel();
+	}
+
+	/**
+	 * Queues a package for the spool.
+	 *
+	 * @return {@code false} if spooling is disabled, the queue is full or the
+	 *         spool has reached {@code maxBytes}
+	 */
+	public boolean append(JmsRealDataModel model) {
+		if (!running) {
+			return false;
+		}
+		byte[] record = SpoolFormat.encode(model);
+		if (diskUsage.addAndGet(record.length) > maxBytes || !queue.offer(record)) {
+			diskUsage.addAndGet(-record.length);
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		depth.incrementAndGet();
+		appendedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Reads up to {@code max} records past the current read position. Must
+	 * only be called from one thread.
+	 *
+	 * @return the number of records added to {@code out}
+	 */
+	public int poll(List<JmsRealDataModel> out, int max) throws IOException {
+		int count = 0;
+		while (count < max && openReadChannel()) {
+			boolean active = readSequence == activeSequence;
+			long limit = readChannel.size();
+			if (active) {
+				limit = Math.min(limit, activeLength);
+			}
+			if (readOffset + SpoolFormat.RECORD_HEADER_LENGTH <= limit) {
+				recordHeader.clear();
+				readFully(readChannel, recordHeader, readOffset);
+				recordHeader.flip();
+				int payloadLength = recordHeader.getInt();
+				int crc = recordHeader.getInt();
+				long end = readOffset + SpoolFormat.RECORD_HEADER_LENGTH + (long) payloadLength;
+				if (payloadLength >= 0 && end <= limit) {
+					ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+					readFully(readChannel, payload, readOffset + SpoolFormat.RECORD_HEADER_LENGTH);
+					payload.flip();
+					JmsRealDataModel model = null;
+					if (SpoolFormat.crc(payload.array(), 0, payloadLength) == crc) {
+						try {
+							model = SpoolFormat.decode(payload);
+						} catch (IllegalArgumentException e) {
+							logger.debug(e.getMessage());
+						}
+					}
+					if (model == null) {
+						logger.error("Corrupt record at " + readOffset + " in spool segment "
+								+ SpoolFormat.segmentName(readSequence) + ", skipping " + (limit - readOffset)
+								+ " bytes");
+						readOffset = limit;
+						continue;
+					}
+					out.add(model);
+					readOffset = end;
+					uncommitted++;
+					count++;
+					continue;
+				}
+			}
+			if (active) {
+				break;
+			}
+			if (readOffset < limit) {
+				logger.warn("Skipping torn record at end of spool segment " + SpoolFormat.segmentName(readSequence));
+			}
+			readSequence = nextSequence(readSequence);
+			readOffset = SpoolFormat.SEGMENT_HEADER_LENGTH;
+		}
+		return count;
+	}
+
+	/**
+	 * Stores the current read position as the checkpoint and deletes the
+	 * segments that have been read completely.
+	 */
+	public void commit() throws IOException {
+		File checkpoint = new File(directory, SpoolFormat.CHECKPOINT_FILE);
+		File temp = new File(directory, SpoolFormat.CHECKPOINT_FILE + ".tmp");
+		ByteBuffer buf = ByteBuffer.allocate(SpoolFormat.CHECKPOINT_LENGTH);
+		buf.putInt(readSequence).putLong(readOffset).flip();
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			if (fsync) {
+				channel.force(false);
+			}
+		}
+		Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		depth.addAndGet(-uncommitted);
+		uncommitted = 0;
+		checkpointSequence = readSequence;
+		checkpointOffset = readOffset;
+
+		for (int sequence = nextSequence(-1); sequence >= 0 && sequence < checkpointSequence; sequence = nextSequence(
+				sequence)) {
+			if (readChannel != null && readChannelSequence == sequence) {
+				closeReadChannel();
+			}
+			File file = new File(directory, SpoolFormat.segmentName(sequence));
+			long length = file.length();
+			if (file.delete()) {
+				diskUsage.addAndGet(-length);
+				logger.debug("Deleted spool segment " + file);
+			}
+		}
+	}
+
+	/**
+	 * Moves the read position back to the last checkpoint.
+	 */
+	public void rewind() {
+		readSequence = checkpointSequence;
+		readOffset = checkpointOffset;
+		uncommitted = 0;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the number of records waiting to be forwarded.
+	 */
+	public long getDepth() {
+		return depth.get();
+	}
+
+	/**
+	 * Returns the number of bytes taken by spool segments.
+	 */
+	public long getDiskUsage() {
+		return diskUsage.get();
+	}
+
+	public long getAppendedCount() {
+		return appendedCount.get();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public void setFsync(boolean fsync) {
+		this.fsync = fsync;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	private void writeLoop() {
+		while (running || !queue.isEmpty()) {
+			byte[] record = queue.poll();
+			if (record == null) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			try {
+				do {
+					write(record);
+				} while (writeBuffer.position() < GROUP_COMMIT_SIZE && (record = queue.poll()) != null);
+				flush();
+			} catch (IOException e) {
+				logger.error("Spool write failed: " + e.getMessage(), e);
+				discardPending();
+			}
+		}
+		closeSegment();
+	}
+
+	private void write(byte[] record) throws IOException {
+		boolean pending = false;
+		try {
+			if (segment == null) {
+				openSegment(activeSequence + 1);
+			} else if (segmentPosition + writeBuffer.position() + record.length > segmentSize
+					&& segmentPosition + writeBuffer.position() > SpoolFormat.SEGMENT_HEADER_LENGTH) {
+				flush();
+				closeSegment();
+				openSegment(activeSequence + 1);
+			}
+			if (record.length > writeBuffer.remaining()) {
+				flush();
+			}
+			pendingRecords++;
+			pendingBytes += record.length;
+			pending = true;
+			if (record.length > writeBuffer.capacity()) {
+				ByteBuffer buf = ByteBuffer.wrap(record);
+				while (buf.hasRemaining()) {
+					segmentPosition += segment.write(buf);
+				}
+				committed();
+				return;
+			}
+			writeBuffer.put(record);
+		} catch (IOException e) {
+			if (!pending) {
+				// lost together with the group already buffered
+				pendingRecords++;
+				pendingBytes += record.length;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Drops the records written since the last force: cuts the segment back
+	 * to its last forced record and seals it, and takes the records off the
+	 * depth and disk usage.
+	 */
+	private void discardPending() {
+		writeBuffer.clear();
+		if (segment != null) {
+			try {
+				segment.truncate(activeLength);
+			} catch (IOException e) {
+				logger.error("Truncating spool segment failed: " + e.getMessage(), e);
+			}
+			closeSegment();
+		}
+		if (pendingRecords > 0) {
+			droppedCount.addAndGet(pendingRecords);
+			depth.addAndGet(-pendingRecords);
+			diskUsage.addAndGet(-pendingBytes);
+			logger.error("Dropped " + pendingRecords + " packages not yet spooled");
+		}
+		pendingRecords = 0;
+		pendingBytes = 0;
+	}
+
+	private void flush() throws IOException {
+		if (writeBuffer.position() == 0) {
+			return;
+		}
+		writeBuffer.flip();
+		while (writeBuffer.hasRemaining()) {
+			segmentPosition += segment.write(writeBuffer);
+		}
+		writeBuffer.clear();
+		committed();
+	}
+
+	private void committed() throws IOException {
+		force();
+		activeLength = segmentPosition;
+		pendingRecords = 0;
+		pendingBytes = 0;
+	}
+
+	private void force() throws IOException {
+		if (fsync) {
+			segment.force(false);
+		}
+	}
+
+	private void openSegment(int sequence) throws IOException {
+		File file = new File(directory, SpoolFormat.segmentName(sequence));
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(SpoolFormat.SEGMENT_HEADER_LENGTH);
+		header.putInt(SpoolFormat.SEGMENT_MAGIC).putInt(SpoolFormat.SEGMENT_VERSION).flip();
+		try {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} catch (IOException e) {
+			// the next attempt must be able to create the file again
+			channel.close();
+			file.delete();
+			throw e;
+		}
+		segment = channel;
+		segmentPosition = SpoolFormat.SEGMENT_HEADER_LENGTH;
+		diskUsage.addAndGet(SpoolFormat.SEGMENT_HEADER_LENGTH);
+		activeLength = segmentPosition;
+		activeSequence = sequence;
+		logger.debug("Opened spool segment " + file);
+	}
+
+	private void closeSegment() {
+		if (segment != null) {
+			try {
+				segment.close();
+			} catch (IOException e) {
+				logger.error("Closing spool segment failed: " + e.getMessage(), e);
+			}
+		}
+		segment = null;
+	}
+
+	private boolean openReadChannel() throws IOException {
+		if (readChannel != null && readChannelSequence == readSequence) {
+			return true;
+		}
+		closeReadChannel();
+		while (readSequence >= 0) {
+			File file = new File(directory, SpoolFormat.segmentName(readSequence));
+			if (file.exists()) {
+				readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				readChannelSequence = readSequence;
+				return true;
+			}
+			readSequence = nextSequence(readSequence);
+			readOffset = SpoolFormat.SEGMENT_HEADER_LENGTH;
+		}
+		return false;
+	}
+
+	private void closeReadChannel() {
+		if (readChannel != null) {
+			try {
+				readChannel.close();
+			} catch (IOException e) {
+				logger.error("Closing spool segment failed: " + e.getMessage(), e);
+			}
+		}
+		readChannel = null;
+	}
+
+	private void readCheckpoint() throws IOException {
+		File checkpoint = new File(directory, SpoolFormat.CHECKPOINT_FILE);
+		checkpointSequence = -1;
+		if (checkpoint.length() == SpoolFormat.CHECKPOINT_LENGTH) {
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(checkpoint.toPath()));
+			checkpointSequence = buf.getInt();
+			checkpointOffset = buf.getLong();
+		}
+	}
+
+	private long countRecords() throws IOException {
+		long count = 0;
+		List<JmsRealDataModel> records = new ArrayList<JmsRealDataModel>();
+		int read;
+		while ((read = poll(records, 1024)) > 0) {
+			count += read;
+			records.clear();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the lowest segment sequence above {@code sequence}, or {@code -1}
+	 * if there is none.
+	 */
+	private int nextSequence(int sequence) throws IOException {
+		int next = -1;
+		for (String name : list()) {
+			int candidate = SpoolFormat.sequence(name);
+			if (candidate > sequence && (next < 0 || candidate < next)) {
+				next = candidate;
+			}
+		}
+		return next;
+	}
+
+	private String[] list() throws IOException {
+		String[] names = directory.list();
+		if (names == null) {
+			throw new IOException("Cannot list spool directory " + directory);
+		}
+		return names;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new IOException("Unexpected end of spool segment");
+			}
+		}
+	}
+}
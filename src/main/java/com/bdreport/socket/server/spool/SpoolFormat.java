@@ -0,0 +1,173 @@
+package com.bdreport.socket.server.spool;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+
+/**
+ * On-disk layout of spool segments. All values are big-endian.
+ *
+ * <pre>
+ * segment  := header record*
+ * header   := magic:int version:int
+ * record   := payloadLength:int crc32:int payload:byte[payloadLength]
+ * payload  := gatewayNo:u16 inetPort:u16 dataTimeMillis:long dataLength:int
+ *             funcCode:string ipAddr:string dataTime:string
+ *             count:int sample:float[count] [indexCount:int index:u16[indexCount]]
+ * string   := length:u16 utf8:byte[length]
+ * </pre>
+ *
+ * A {@code count} of {@code -1} stands for a model without a data list. The
+ * channel indexes of a model reduced to its changed channels follow the
+ * samples; records of models with all channels end after the samples. The
+ * payload keeps every field of {@link JmsRealDataModel}, so a replayed message
+ * is identical to the one that failed, whatever the queue format.
+ * <p>
+ * Segments are named {@code NNNNNNNNNN.spool} after a sequence number that
+ * grows across restarts. The read position is kept in the {@code checkpoint}
+ * file as {@code sequence:int offset:long}.
+ */
+public final class SpoolFormat {
+
+	public static final int SEGMENT_MAGIC = 0x42445350; // "BDSP"
+
+	public static final int SEGMENT_VERSION = 1;
+
+	public static final int SEGMENT_HEADER_LENGTH = 8;
+
+	public static final int RECORD_HEADER_LENGTH = 4 + 4;
+
+	public static final String SEGMENT_SUFFIX = ".spool";
+
+	public static final String CHECKPOINT_FILE = "checkpoint";
+
+	public static final int CHECKPOINT_LENGTH = 4 + 8;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private SpoolFormat() {
+	}
+
+	public static String segmentName(int sequence) {
+		return String.format("%010d", sequence) + SEGMENT_SUFFIX;
+	}
+
+	/**
+	 * Returns the sequence number of a segment file name, or {@code -1} if the
+	 * name is not one of a segment.
+	 */
+	public static int sequence(String name) {
+		if (!name.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Encodes a model into a complete record, header included.
+	 */
+	public static byte[] encode(JmsRealDataModel model) {
+		byte[] funcCode = bytes(model.getFuncCode());
+		byte[] ipAddr = bytes(model.getIpAddr());
+		byte[] dataTime = bytes(model.getDataTime());
+		float[] dataList = model.getDataList();
+		int[] dataIndex = model.getDataIndex();
+		int payloadLength = 2 + 2 + 8 + 4 + 2 + funcCode.length + 2 + ipAddr.length + 2 + dataTime.length + 4
+				+ (dataList == null ? 0 : dataList.length * 4) + (dataIndex == null ? 0 : 4 + dataIndex.length * 2);
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payloadLength);
+		record.putInt(payloadLength);
+		record.putInt(0);
+		record.putShort((short) model.getGatewayNo());
+		record.putShort((short) model.getInetPort());
+		record.putLong(model.getDataTimeMillis());
+		record.putInt(model.getDataLength());
+		putString(record, funcCode);
+		putString(record, ipAddr);
+		putString(record, dataTime);
+		if (dataList == null) {
+			record.putInt(-1);
+		} else {
+			record.putInt(dataList.length);
+			for (float sample : dataList) {
+				record.putFloat(sample);
+			}
+		}
+		if (dataIndex != null) {
+			record.putInt(dataIndex.length);
+			for (int index : dataIndex) {
+				record.putShort((short) index);
+			}
+		}
+		record.putInt(4, crc(record.array(), RECORD_HEADER_LENGTH, payloadLength));
+		return record.array();
+	}
+
+	/**
+	 * Decodes the payload of a record.
+	 *
+	 * @throws IllegalArgumentException if the payload is truncated
+	 */
+	public static JmsRealDataModel decode(ByteBuffer payload) {
+		try {
+			JmsRealDataModel model = new JmsRealDataModel();
+			model.setGatewayNo(payload.getShort() & 0xFFFF);
+			model.setInetPort(payload.getShort() & 0xFFFF);
+			model.setDataTimeMillis(payload.getLong());
+			model.setDataLength(payload.getInt());
+			model.setFuncCode(getString(payload));
+			model.setIpAddr(getString(payload));
+			model.setDataTime(getString(payload));
+			int count = payload.getInt();
+			if (count >= 0) {
+				float[] dataList = new float[count];
+				for (int i = 0; i < count; i++) {
+					dataList[i] = payload.getFloat();
+				}
+				model.setDataList(dataList);
+			}
+			if (payload.hasRemaining()) {
+				int[] dataIndex = new int[payload.getInt()];
+				for (int i = 0; i < dataIndex.length; i++) {
+					dataIndex[i] = payload.getShort() & 0xFFFF;
+				}
+				model.setDataIndex(dataIndex);
+			}
+			return model;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated spool record", e);
+		}
+	}
+
+	public static int crc(byte[] buf, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(buf, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] bytes(String value) {
+		return value == null ? new byte[0] : value.getBytes(UTF_8);
+	}
+
+	private static void putString(ByteBuffer buf, byte[] value) {
+		buf.putShort((short) value.length);
+		buf.put(value);
+	}
+
+	private static String getString(ByteBuffer buf) {
+		int length = buf.getShort() & 0xFFFF;
+		if (length > buf.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, UTF_8);
+		buf.position(buf.position() + length);
+		return value;
+	}
+}
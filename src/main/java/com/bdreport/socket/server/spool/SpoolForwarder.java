@@ -0,0 +1,201 @@
+package com.bdreport.socket.server.spool;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.jms.JmsPublishListener;
+import com.bdreport.socket.server.jms.JmsPublishRequest;
+import com.bdreport.socket.server.jms.JmsPublisher;
+
+/**
+ * Replays the {@link FrameSpool} through the {@link JmsPublisher} at no more
+ * than {@code replayRate} packages per second.
+ * <p>
+ * Packages are forwarded in chunks, and the spool checkpoint only moves once
+ * every package of a chunk has been committed to the broker. After a failure
+ * the chunk is rewound and retried as a single package every
+ * {@code retryDelayMs} until the broker takes it again, so an outage costs one
+ * probe per interval rather than a replay storm. Replay also pauses while the
+ * publisher queues are more than half full, leaving room for live traffic.
+ * Packages of a chunk that failed part way may be delivered twice.
+ */
+@Component
+public class SpoolForwarder {
+
+	private static Logger logger = Logger.getLogger(SpoolForwarder.class.getName());
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final int MAX_CHUNK_SIZE = 100;
+
+	@Value("${bdreport.spool.replay-rate:200}")
+	private int replayRate = 200;
+
+	@Value("${bdreport.spool.retry-delay-ms:5000}")
+	private long retryDelayMs = 5000;
+
+	@Value("${bdreport.spool.publish-timeout-ms:30000}")
+	private long publishTimeoutMs = 30000;
+
+	@Value("${bdreport.jms.publisher.queue-capacity:8192}")
+	private int publisherQueueCapacity = 8192;
+
+	@Autowired
+	private FrameSpool frameSpool;
+
+	@Autowired
+	private JmsPublisher jmsPublisher;
+
+	private Thread forwarderThread;
+
+	private volatile boolean running;
+
+	private final AtomicLong forwardedCount = new AtomicLong();
+
+	@PostConstruct
+	public void start() {
+		if (!frameSpool.isEnabled()) {
+			return;
+		}
+		running = true;
+		forwarderThread = new DefaultThreadFactory("spool-forwarder").newThread(new Runnable() {
+			@Override
+			public void run() {
+				forwardLoop();
+			}
+		});
+		forwarderThread.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (forwarderThread != null) {
+			LockSupport.unpark(forwarderThread);
+			forwarderThread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	public long getForwardedCount() {
+		return forwardedCount.get();
+	}
+
+	public void setReplayRate(int replayRate) {
+		this.replayRate = replayRate;
+	}
+
+	public void setRetryDelayMs(long retryDelayMs) {
+		this.retryDelayMs = retryDelayMs;
+	}
+
+	public void setPublishTimeoutMs(long publishTimeoutMs) {
+		this.publishTimeoutMs = publishTimeoutMs;
+	}
+
+	public void setPublisherQueueCapacity(int publisherQueueCapacity) {
+		this.publisherQueueCapacity = publisherQueueCapacity;
+	}
+
+	public void setFrameSpool(FrameSpool frameSpool) {
+		this.frameSpool = frameSpool;
+	}
+
+	public void setJmsPublisher(JmsPublisher jmsPublisher) {
+		this.jmsPublisher = jmsPublisher;
+	}
+
+	private void forwardLoop() {
+		int maxChunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, replayRate / 10));
+		int chunkSize = maxChunkSize;
+		List<JmsRealDataModel> chunk = new ArrayList<JmsRealDataModel>(maxChunkSize);
+		while (running) {
+			if (frameSpool.getDepth() == 0 || jmsPublisher.getQueueDepth() > publisherQueueCapacity / 2) {
+				LockSupport.parkNanos(IDLE_PARK_NANOS);
+				continue;
+			}
+			long startNanos = System.nanoTime();
+			chunk.clear();
+			try {
+				frameSpool.poll(chunk, chunkSize);
+				if (chunk.isEmpty()) {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+					continue;
+				}
+				if (forward(chunk)) {
+					frameSpool.commit();
+					forwardedCount.addAndGet(chunk.size());
+					if (chunkSize < maxChunkSize) {
+						logger.info("Broker available again, replaying " + frameSpool.getDepth() + " spooled packages");
+					}
+					chunkSize = maxChunkSize;
+				} else {
+					frameSpool.rewind();
+					chunkSize = 1;
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryDelayMs));
+					continue;
+				}
+			} catch (IOException e) {
+				logger.error("Reading spool failed: " + e.getMessage(), e);
+				frameSpool.rewind();
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryDelayMs));
+				continue;
+			}
+			long pauseNanos = TimeUnit.SECONDS.toNanos(chunk.size()) / replayRate - (System.nanoTime() - startNanos);
+			if (pauseNanos > 0) {
+				LockSupport.parkNanos(pauseNanos);
+			}
+		}
+	}
+
+	private boolean forward(List<JmsRealDataModel> chunk) {
+		final CountDownLatch latch = new CountDownLatch(chunk.size());
+		final AtomicBoolean failed = new AtomicBoolean();
+		JmsPublishListener listener = new JmsPublishListener() {
+			@Override
+			public void published(JmsPublishRequest request) {
+				latch.countDown();
+			}
+
+			@Override
+			public void failed(JmsPublishRequest request, Exception cause) {
+				failed.set(true);
+				latch.countDown();
+			}
+		};
+		for (JmsRealDataModel model : chunk) {
+			TcpPackageModel tcpPackageModel = new TcpPackageModel();
+			tcpPackageModel.setDataModel(model);
+			if (!jmsPublisher.publish(new JmsPublishRequest(tcpPackageModel, null, listener))) {
+				failed.set(true);
+				latch.countDown();
+			}
+		}
+		try {
+			if (!latch.await(publishTimeoutMs, TimeUnit.MILLISECONDS)) {
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return !failed.get();
+	}
+}
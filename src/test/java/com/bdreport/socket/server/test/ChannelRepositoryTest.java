@@ -0,0 +1,70 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import com.bdreport.socket.server.netty.ChannelRepository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChannelRepositoryTest {
+
+	private byte[] msg = { (byte) 0xEE, (byte) 0x60, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	@Test
+	public void testGatewayIndex() throws Exception {
+		ChannelRepository channelRepository = new ChannelRepository();
+		EmbeddedChannel first = new EmbeddedChannel();
+		EmbeddedChannel second = new EmbeddedChannel();
+		channelRepository.put("first", first).put("second", second);
+		assertEquals(2, channelRepository.size());
+		assertNull(channelRepository.getByGateway(1));
+
+		channelRepository.bindGateway(1, first);
+		channelRepository.bindGateway(0x10002, second);
+		assertSame(first, channelRepository.getByGateway(1));
+		assertSame(second, channelRepository.getByGateway(2));
+
+		// a reconnected gateway moves to its new channel, and closing the old one keeps it there
+		channelRepository.bindGateway(1, second);
+		channelRepository.remove("first");
+		assertSame(second, channelRepository.getByGateway(1));
+
+		channelRepository.remove("second");
+		assertNull(channelRepository.getByGateway(2));
+		assertEquals(0, channelRepository.size());
+		assertFalse(channelRepository.send(2, Unpooled.wrappedBuffer(msg)));
+	}
+
+	@Test
+	public void testBroadcastSharesBuffer() throws Exception {
+		ChannelRepository channelRepository = new ChannelRepository();
+		EmbeddedChannel[] channels = new EmbeddedChannel[3];
+		for (int i = 0; i < channels.length; i++) {
+			channels[i] = new EmbeddedChannel();
+			channelRepository.put("channel" + i, channels[i]);
+		}
+		channels[2].close();
+
+		ByteBuf buf = Unpooled.directBuffer().writeBytes(msg);
+		assertEquals(2, channelRepository.broadcast(buf));
+		for (int i = 0; i < 2; i++) {
+			ByteBuf written = (ByteBuf) channels[i].readOutbound();
+			assertEquals(Unpooled.wrappedBuffer(msg), written);
+			assertEquals(buf.memoryAddress(), written.memoryAddress());
+			written.release();
+		}
+		assertEquals(0, buf.refCnt());
+
+		channelRepository.bindGateway(7, channels[1]);
+		assertTrue(channelRepository.send(7, Unpooled.wrappedBuffer(msg)));
+		assertEquals(Unpooled.wrappedBuffer(msg), channels[1].readOutbound());
+	}
+}
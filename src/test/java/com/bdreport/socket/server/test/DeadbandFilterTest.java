@@ -0,0 +1,152 @@
+package com.bdreport.socket.server.test;
+
+import com.alibaba.fastjson.JSON;
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.deadband.DeadbandFilter;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryDecoder;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryEncoder;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryFormat;
+import com.bdreport.socket.server.jms.codec.RealDataRecord;
+import com.bdreport.socket.server.spool.SpoolFormat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class DeadbandFilterTest {
+
+	private static final byte B1 = (byte) 0xB1;
+
+	private static final byte B2 = (byte) 0xB2;
+
+	private static JmsRealDataModel model(int gatewayNo, float... samples) {
+		return new JmsRealDataModel("127.0.0.1", 56167, "B1", gatewayNo, "2017-06-13 09:00:00", samples.length,
+				samples);
+	}
+
+	private static DeadbandFilter filter(float absolute, float percent, long snapshotIntervalS) {
+		DeadbandFilter deadbandFilter = new DeadbandFilter();
+		deadbandFilter.setFuncCodes("B1", " B3");
+		deadbandFilter.setAbsolute(absolute);
+		deadbandFilter.setPercent(percent);
+		deadbandFilter.setSnapshotIntervalS(snapshotIntervalS);
+		deadbandFilter.start();
+		return deadbandFilter;
+	}
+
+	@Test
+	public void testChangeOnly() throws Exception {
+		DeadbandFilter deadbandFilter = filter(0.5f, 0, 300);
+		assertTrue(deadbandFilter.isEnabled());
+
+		JmsRealDataModel first = model(1, 20.0f, 21.0f, 22.0f, Float.NaN);
+		assertTrue(deadbandFilter.filter(first, B1));
+		assertNull(first.getDataIndex());
+		assertEquals(4, first.getDataList().length);
+
+		JmsRealDataModel same = model(1, 20.4f, 21.0f, 22.0f, Float.NaN);
+		assertFalse(deadbandFilter.filter(same, B1));
+
+		JmsRealDataModel changed = model(1, 20.6f, 21.0f, 21.4f, 5.0f);
+		assertTrue(deadbandFilter.filter(changed, B1));
+		assertArrayEquals(new int[] { 0, 2, 3 }, changed.getDataIndex());
+		assertArrayEquals(new float[] { 20.6f, 21.4f, 5.0f }, changed.getDataList(), 0.0f);
+		assertEquals(4, changed.getDataLength());
+		assertEquals("{\"gateway_no\":1,\"data_type\":\"B1\",\"data_date_time\":\"2017-06-13 09:00:00\","
+				+ "\"remote_ip\":\"127.0.0.1\",\"remote_port\":56167,\"data_length\":4,"
+				+ "\"data_list\":[20.6,21.4,5.0],\"data_index\":[0,2,3]}", JSON.toJSONString(changed));
+
+		// compared with the last published value, not the last received one
+		assertFalse(deadbandFilter.filter(model(1, 20.9f, 21.0f, 21.4f, 5.0f), B1));
+		JmsRealDataModel drift = model(1, 21.2f, 21.0f, 21.4f, 5.0f);
+		assertTrue(deadbandFilter.filter(drift, B1));
+		assertArrayEquals(new int[] { 0 }, drift.getDataIndex());
+
+		JmsRealDataModel otherGateway = model(2, 20.0f, 21.0f, 22.0f, Float.NaN);
+		assertTrue(deadbandFilter.filter(otherGateway, B1));
+		assertNull(otherGateway.getDataIndex());
+		JmsRealDataModel otherFuncCode = model(1, 20.0f, 21.0f, 22.0f, Float.NaN);
+		assertTrue(deadbandFilter.filter(otherFuncCode, B2));
+		assertTrue(deadbandFilter.filter(otherFuncCode, B2));
+		assertNull(otherFuncCode.getDataIndex());
+
+		JmsRealDataModel wider = model(1, 21.2f, 21.0f, 21.4f, 5.0f, 1.0f);
+		assertTrue(deadbandFilter.filter(wider, B1));
+		assertNull(wider.getDataIndex());
+
+		assertEquals(29, deadbandFilter.getSamplesReceived());
+		assertEquals(17, deadbandFilter.getSamplesPublished());
+		assertEquals(3, deadbandFilter.getSnapshotCount());
+		assertEquals(2, deadbandFilter.getDeltaCount());
+		assertEquals(2, deadbandFilter.getSuppressedCount());
+	}
+
+	@Test
+	public void testPercentAndSnapshots() throws Exception {
+		DeadbandFilter deadbandFilter = filter(0, 10, 300);
+		assertTrue(deadbandFilter.filter(model(1, 100.0f, -1.0f), B1));
+		assertFalse(deadbandFilter.filter(model(1, 109.0f, -0.95f), B1));
+		JmsRealDataModel changed = model(1, 111.0f, -0.95f);
+		assertTrue(deadbandFilter.filter(changed, B1));
+		assertArrayEquals(new int[] { 0 }, changed.getDataIndex());
+
+		deadbandFilter = filter(0, 0, 0);
+		for (int i = 0; i < 3; i++) {
+			JmsRealDataModel snapshot = model(1, 1.0f, 2.0f);
+			assertTrue(deadbandFilter.filter(snapshot, B1));
+			assertNull(snapshot.getDataIndex());
+		}
+		assertEquals(3, deadbandFilter.getSnapshotCount());
+
+		deadbandFilter = new DeadbandFilter();
+		deadbandFilter.start();
+		assertFalse(deadbandFilter.isEnabled());
+	}
+
+	@Test
+	public void testChangedChannelsEncoding() throws Exception {
+		JmsRealDataModel changed = model(3, 20.6f, 21.4f);
+		changed.setDataLength(300);
+		changed.setDataIndex(new int[] { 7, 299 });
+
+		RealDataBinaryEncoder encoder = new RealDataBinaryEncoder();
+		int length = encoder.encode(changed);
+		RealDataRecord record = RealDataBinaryDecoder.decode(Arrays.copyOf(encoder.array(), length));
+		assertEquals(RealDataBinaryFormat.VERSION_2, record.getVersion());
+		assertArrayEquals(new float[] { 20.6f, 21.4f }, record.getDataList(), 0.0f);
+		assertArrayEquals(new int[] { 7, 299 }, record.getDataIndex());
+
+		byte[] spooled = SpoolFormat.encode(changed);
+		JmsRealDataModel replayed = SpoolFormat.decode(ByteBuffer.wrap(spooled, SpoolFormat.RECORD_HEADER_LENGTH,
+				spooled.length - SpoolFormat.RECORD_HEADER_LENGTH).slice());
+		assertEquals(JSON.toJSONString(changed), JSON.toJSONString(replayed));
+
+		JmsRealDataModel full = model(3, 20.6f, 21.4f);
+		length = encoder.encode(full);
+		record = RealDataBinaryDecoder.decode(Arrays.copyOf(encoder.array(), length));
+		assertEquals(RealDataBinaryFormat.VERSION_1, record.getVersion());
+		assertNull(record.getDataIndex());
+		spooled = SpoolFormat.encode(full);
+		replayed = SpoolFormat.decode(ByteBuffer.wrap(spooled, SpoolFormat.RECORD_HEADER_LENGTH,
+				spooled.length - SpoolFormat.RECORD_HEADER_LENGTH).slice());
+		assertNull(replayed.getDataIndex());
+
+		// samples decoded from a frame are sent as the half floats they were
+		JmsRealDataModel halves = model(3, 25.6875f, -0.5f);
+		halves.setDataIndex(new int[] { 7, 299 });
+		length = encoder.encode(halves);
+		assertEquals(RealDataBinaryFormat.FIXED_LENGTH_V1 + 4 + 2 * RealDataBinaryFormat.SAMPLE_LENGTH_V3
+				+ 2 * RealDataBinaryFormat.INDEX_LENGTH_V2, length);
+		record = RealDataBinaryDecoder.decode(Arrays.copyOf(encoder.array(), length));
+		assertEquals(RealDataBinaryFormat.VERSION_4, record.getVersion());
+		assertArrayEquals(new float[] { 25.6875f, -0.5f }, record.getDataList(), 0.0f);
+		assertArrayEquals(new int[] { 7, 299 }, record.getDataIndex());
+	}
+}
@@ -0,0 +1,182 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.bdreport.socket.server.archive.ArchiveFormat;
+import com.bdreport.socket.server.archive.ArchiveFsyncPolicy;
+import com.bdreport.socket.server.archive.ArchiveIndex;
+import com.bdreport.socket.server.archive.ArchivedFrame;
+import com.bdreport.socket.server.archive.FrameArchive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrameArchiveTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	@Test
+	public void testAppendAndRoll() throws Exception {
+		int recordLength = ArchiveFormat.RECORD_HEADER_LENGTH + frame.length;
+		int recordsPerSegment = 10;
+
+		FrameArchive archive = new FrameArchive();
+		archive.setPath(folder.getRoot().getPath());
+		archive.setSegmentSize(ArchiveFormat.SEGMENT_HEADER_LENGTH + recordsPerSegment * recordLength);
+		archive.setFsyncPolicy(ArchiveFsyncPolicy.BATCH);
+		archive.start();
+		for (int i = 0; i < 25; i++) {
+			ByteBuf buf = Unpooled.copiedBuffer(frame);
+			assertTrue(archive.append(buf, 1, (byte) 0xB1, 1497315600000L + i));
+			buf.release();
+		}
+		archive.stop();
+
+		File[] segments = folder.getRoot().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(ArchiveFormat.SEGMENT_SUFFIX);
+			}
+		});
+		Arrays.sort(segments);
+		assertEquals(3, segments.length);
+		assertTrue(segments[0].getName().endsWith("-000001" + ArchiveFormat.SEGMENT_SUFFIX));
+
+		ByteBuffer segment = ByteBuffer.wrap(Files.readAllBytes(segments[0].toPath()));
+		assertEquals(ArchiveFormat.SEGMENT_HEADER_LENGTH + recordsPerSegment * recordLength, segment.remaining());
+		assertEquals(ArchiveFormat.SEGMENT_MAGIC, segment.getInt());
+		assertEquals(ArchiveFormat.SEGMENT_VERSION, segment.getInt());
+		assertEquals(frame.length, segment.getInt());
+		segment.getLong();
+		assertEquals(1497315600000L, segment.getLong());
+		assertEquals(1, segment.getShort());
+		assertEquals((byte) 0xB1, segment.get());
+		byte[] archived = new byte[frame.length];
+		segment.get(archived);
+		assertArrayEquals(frame, archived);
+
+		assertEquals(ArchiveFormat.SEGMENT_HEADER_LENGTH + 5 * recordLength, segments[2].length());
+	}
+
+	@Test
+	public void testFailedWriteCountsDroppedFrames() throws Exception {
+		int recordLength = ArchiveFormat.RECORD_HEADER_LENGTH + frame.length;
+		File directory = folder.newFolder("archive");
+
+		FrameArchive archive = new FrameArchive();
+		archive.setPath(directory.getPath());
+		archive.setSegmentSize(ArchiveFormat.SEGMENT_HEADER_LENGTH + recordLength);
+		archive.setFsyncPolicy(ArchiveFsyncPolicy.BATCH);
+		archive.setIndexEnabled(false);
+		archive.start();
+		append(archive);
+		waitForSegments(directory, 1);
+
+		// the next segment cannot be created
+		for (File file : directory.listFiles()) {
+			assertTrue(file.delete());
+		}
+		assertTrue(directory.delete());
+		append(archive);
+		for (int i = 0; i < 500 && archive.getDroppedCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, archive.getDroppedCount());
+
+		assertTrue(directory.mkdir());
+		append(archive);
+		waitForSegments(directory, 1);
+		archive.stop();
+		assertEquals(1, archive.getDroppedCount());
+	}
+
+	private void append(FrameArchive archive) {
+		ByteBuf buf = Unpooled.copiedBuffer(frame);
+		assertTrue(archive.append(buf, 1, (byte) 0xB1, 1497315600000L));
+		buf.release();
+	}
+
+	private static void waitForSegments(File directory, int count) throws InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			String[] names = directory.list();
+			if (names != null && names.length >= count) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testQueryIndex() throws Exception {
+		int recordLength = ArchiveFormat.RECORD_HEADER_LENGTH + frame.length;
+		long base = 1497315600000L;
+
+		FrameArchive archive = new FrameArchive();
+		archive.setPath(folder.getRoot().getPath());
+		archive.setSegmentSize(ArchiveFormat.SEGMENT_HEADER_LENGTH + 10 * recordLength);
+		archive.setFsyncPolicy(ArchiveFsyncPolicy.NEVER);
+		archive.start();
+		for (int i = 0; i < 25; i++) {
+			ByteBuf buf = Unpooled.copiedBuffer(frame);
+			// gateways 1 to 3 in turn, each with data time descending within a segment
+			assertTrue(archive.append(buf, 1 + i % 3, i % 2 == 0 ? (byte) 0xB1 : (byte) 0xB2,
+					base + (i / 10) * 10000 + (9 - i % 10) * 1000));
+			buf.release();
+		}
+		List<ArchivedFrame> frames;
+		for (long deadline = System.currentTimeMillis() + 5000;;) {
+			frames = archive.query(2, ArchiveIndex.ANY_FUNC_CODE, base, base + 60000, 100);
+			if (frames.size() == 8 || System.currentTimeMillis() > deadline) {
+				break;
+			}
+			Thread.sleep(10);
+		}
+		assertEquals(8, frames.size());
+		for (int i = 1; i < frames.size(); i++) {
+			assertTrue(frames.get(i - 1).getDataTimeMillis() <= frames.get(i).getDataTimeMillis());
+		}
+		assertArrayEquals(frame, frames.get(0).getFrame());
+		archive.stop();
+
+		assertQuery(archive.getIndex());
+		for (File file : folder.getRoot().listFiles()) {
+			if (file.getName().endsWith(ArchiveFormat.INDEX_SUFFIX)) {
+				assertTrue(file.delete());
+			}
+		}
+		ArchiveIndex rebuilt = new ArchiveIndex(folder.getRoot());
+		rebuilt.open();
+		assertQuery(rebuilt);
+	}
+
+	private void assertQuery(ArchiveIndex index) throws Exception {
+		long base = 1497315600000L;
+		assertEquals(8, index.query(2, ArchiveIndex.ANY_FUNC_CODE, base, base + 60000, 100).size());
+		assertEquals(3, index.query(2, ArchiveIndex.ANY_FUNC_CODE, base, base + 60000, 3).size());
+		// gateway 2 with B2 is i = 1, 7, 13 and 19; the last two are in the second ten seconds
+		List<ArchivedFrame> frames = index.query(2, 0xB2, base + 10000, base + 20000, 100);
+		assertEquals(2, frames.size());
+		assertEquals(base + 10000, frames.get(0).getDataTimeMillis());
+		assertEquals(base + 16000, frames.get(1).getDataTimeMillis());
+		assertEquals((byte) 0xB2, frames.get(0).getFuncCode());
+		assertEquals(0, index.query(4, ArchiveIndex.ANY_FUNC_CODE, base, base + 60000, 100).size());
+	}
+}
@@ -0,0 +1,71 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.Unpooled;
+
+import com.bdreport.socket.server.data.TcpPackageFlyweight;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.dedup.FrameDeduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FrameDeduplicatorTest {
+
+	private static TcpPackageFlyweight view(int gatewayNo, int minute, int second, int sample) {
+		byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) (gatewayNo >> 8), (byte) gatewayNo, (byte) 0x07,
+				(byte) 0xE1, (byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) minute, (byte) second, (byte) 0x00,
+				(byte) 0x02, (byte) (sample >> 8), (byte) sample, (byte) 0x00, (byte) 0xFF, (byte) 0xFC,
+				(byte) 0xFF, (byte) 0xFF };
+		frame[15] = (byte) (frame[13] + frame[14]);
+		TcpPackageFlyweight view = TcpPackageFlyweight.current();
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_SUCCEED, view.wrap(Unpooled.wrappedBuffer(frame)));
+		return view;
+	}
+
+	private static FrameDeduplicator deduplicator(int capacity, long windowMs) {
+		FrameDeduplicator frameDeduplicator = new FrameDeduplicator();
+		frameDeduplicator.setEnabled(true);
+		frameDeduplicator.setCapacity(capacity);
+		frameDeduplicator.setWindowMs(windowMs);
+		frameDeduplicator.start();
+		return frameDeduplicator;
+	}
+
+	@Test
+	public void testDuplicates() throws Exception {
+		FrameDeduplicator frameDeduplicator = deduplicator(65536, 60000);
+		assertFalse(frameDeduplicator.isDuplicate(view(1, 0, 0, 0x4E6C)));
+		assertTrue(frameDeduplicator.isDuplicate(view(1, 0, 0, 0x4E6C)));
+		assertFalse(frameDeduplicator.isDuplicate(view(2, 0, 0, 0x4E6C)));
+		assertFalse(frameDeduplicator.isDuplicate(view(1, 0, 1, 0x4E6C)));
+		assertFalse(frameDeduplicator.isDuplicate(view(1, 0, 0, 0x4E6D)));
+		assertTrue(frameDeduplicator.isDuplicate(view(1, 0, 0, 0x4E6C)));
+		assertEquals(6, frameDeduplicator.getLookupCount());
+		assertEquals(2, frameDeduplicator.getHitCount());
+		assertEquals(2.0 / 6, frameDeduplicator.getHitRate(), 1e-9);
+
+		frameDeduplicator.forget(view(1, 0, 0, 0x4E6C));
+		assertFalse(frameDeduplicator.isDuplicate(view(1, 0, 0, 0x4E6C)));
+		assertTrue(frameDeduplicator.isDuplicate(view(2, 0, 0, 0x4E6C)));
+	}
+
+	@Test
+	public void testWindowAndCapacity() throws Exception {
+		FrameDeduplicator frameDeduplicator = deduplicator(1, 20);
+		assertFalse(frameDeduplicator.isDuplicate(view(7, 0, 0, 1)));
+		Thread.sleep(40);
+		assertFalse(frameDeduplicator.isDuplicate(view(7, 0, 0, 1)));
+
+		frameDeduplicator = deduplicator(1, 60000);
+		for (int minute = 0; minute < 60; minute++) {
+			for (int second = 0; second < 60; second++) {
+				assertFalse(frameDeduplicator.isDuplicate(view(7, minute, second, 1)));
+			}
+		}
+		assertTrue(frameDeduplicator.isDuplicate(view(7, 59, 59, 1)));
+		assertFalse(frameDeduplicator.isDuplicate(view(7, 0, 0, 1)));
+	}
+}
@@ -0,0 +1,131 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.bdreport.socket.server.data.FrameKernels;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.jms.codec.HalfFloat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FrameKernelsTest {
+
+	private static void assertSameFloat(String message, float expected, float actual) {
+		assertEquals(message, Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual));
+	}
+
+	@Test
+	public void testToFloatMatchesReference() throws Exception {
+		for (int i = 0; i < 0x10000; i++) {
+			assertSameFloat(Integer.toHexString(i), TcpPackageModel.toFloat((short) i), FrameKernels.toFloat((short) i));
+		}
+	}
+
+	@Test
+	public void testSpecialValues() throws Exception {
+		assertSameFloat("+0", 0.0f, FrameKernels.toFloat((short) 0x0000));
+		assertSameFloat("+inf", Float.POSITIVE_INFINITY, FrameKernels.toFloat((short) 0x7C00));
+		short[] special = { (short) 0x8000, (short) 0xFC00, 0x0001, 0x03FF, (short) 0x8001, (short) 0x83FF, 0x7C01,
+				0x7FFF, (short) 0xFFFF, 0x0400, 0x7BFF };
+		for (short half : special) {
+			assertSameFloat(Integer.toHexString(half & 0xFFFF), TcpPackageModel.toFloat(half),
+					FrameKernels.toFloat(half));
+		}
+	}
+
+	@Test
+	public void testHalfFloatRoundTrip() throws Exception {
+		for (int i = 0; i < 0x10000; i++) {
+			if ((i & 0x7C00) == 0x7C00 && i != 0x7C00) {
+				continue; // no float maps back to these
+			}
+			assertEquals(Integer.toHexString(i), (short) i,
+					TcpPackageModel.toHalfFloat(FrameKernels.toFloat((short) i)));
+		}
+	}
+
+	@Test
+	public void testCodecHalfFloat() throws Exception {
+		for (int i = 0; i < 0x10000; i++) {
+			float value = FrameKernels.toFloat((short) i);
+			assertSameFloat(Integer.toHexString(i), value, HalfFloat.toFloat((short) i));
+			int half = HalfFloat.toHalf(value);
+			assertSameFloat(Integer.toHexString(i), value, HalfFloat.toFloat((short) half));
+		}
+		assertEquals(HalfFloat.NOT_HALF, HalfFloat.toHalf(20.6f));
+		assertEquals(HalfFloat.NOT_HALF, HalfFloat.toHalf(Float.NaN));
+		assertEquals(HalfFloat.NOT_HALF, HalfFloat.toHalf(1e-30f));
+		assertEquals(0x4E6C, HalfFloat.toHalf(25.6875f));
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		byte[] all = new byte[3 + 0x10000 * 2];
+		for (int i = 0; i < 0x10000; i++) {
+			all[3 + 2 * i] = (byte) (i >> 8);
+			all[3 + 2 * i + 1] = (byte) i;
+		}
+		float[] dst = new float[0x10000];
+		FrameKernels.decode(all, 3, 0x10000, dst);
+		assertDecoded(dst, 0x10000);
+
+		ByteBuf heap = Unpooled.wrappedBuffer(all);
+		ByteBuf direct = Unpooled.directBuffer(all.length).writeBytes(all);
+		try {
+			for (ByteBuf buf : new ByteBuf[] { heap, direct }) {
+				for (int count : new int[] { 0x10000, 0xFFFF, 7, 1, 0 }) {
+					dst = new float[count];
+					FrameKernels.decode(buf, 3, count, dst);
+					assertDecoded(dst, count);
+					assertEquals(0, buf.readerIndex());
+				}
+			}
+		} finally {
+			direct.release();
+		}
+	}
+
+	private static void assertDecoded(float[] dst, int count) {
+		for (int i = 0; i < count; i++) {
+			assertSameFloat(Integer.toHexString(i), TcpPackageModel.toFloat((short) i), dst[i]);
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testDecodeOutOfRange() throws Exception {
+		FrameKernels.decode(Unpooled.wrappedBuffer(new byte[8]), 2, 4, new float[4]);
+	}
+
+	@Test
+	public void testCheckSum() throws Exception {
+		Random random = new Random(42);
+		byte[] bytes = new byte[300];
+		random.nextBytes(bytes);
+		ByteBuf heap = Unpooled.wrappedBuffer(bytes);
+		ByteBuf direct = Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+		try {
+			for (int offset = 0; offset < 9; offset++) {
+				for (int length = 0; offset + length <= bytes.length; length++) {
+					byte expected = 0;
+					for (int i = offset; i < offset + length; i++) {
+						expected = (byte) (expected + bytes[i]);
+					}
+					assertEquals(expected, FrameKernels.checkSum(bytes, offset, length));
+					assertEquals(expected, FrameKernels.checkSum(heap, offset, length));
+					assertEquals(expected, FrameKernels.checkSum(direct, offset, length));
+				}
+			}
+			byte[] ones = new byte[0xFFFF];
+			Arrays.fill(ones, (byte) 0xFF);
+			assertEquals((byte) (-0xFFFF), FrameKernels.checkSum(ones, 0, ones.length));
+		} finally {
+			direct.release();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.bdreport.socket.server.test;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.jms.JmsPublisher;
+import com.bdreport.socket.server.spool.FrameSpool;
+import com.bdreport.socket.server.spool.SpoolForwarder;
+import com.bdreport.socket.server.spool.SpoolFormat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrameSpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	private FrameSpool newSpool(long segmentSize) throws Exception {
+		FrameSpool spool = new FrameSpool();
+		spool.setPath(folder.getRoot().getPath());
+		spool.setSegmentSize(segmentSize);
+		spool.setFsync(false);
+		spool.start();
+		return spool;
+	}
+
+	private JmsRealDataModel model(int gatewayNo) {
+		JmsRealDataModel model = new TcpPackageModel(frame).getDataModel();
+		model.setGatewayNo(gatewayNo);
+		model.setIpAddr("192.168.0.14");
+		model.setInetPort(56167);
+		return model;
+	}
+
+	private int pollAll(FrameSpool spool, List<JmsRealDataModel> out) throws Exception {
+		return pollAll(spool, out, 25);
+	}
+
+	private int pollAll(FrameSpool spool, List<JmsRealDataModel> out, int max) throws Exception {
+		int count = 0;
+		for (long deadline = System.currentTimeMillis() + 5000; count < max
+				&& System.currentTimeMillis() < deadline;) {
+			count += spool.poll(out, max - count);
+		}
+		return count;
+	}
+
+	@Test
+	public void testCheckpointSurvivesRestart() throws Exception {
+		int recordLength = SpoolFormat.encode(model(1)).length;
+		FrameSpool spool = newSpool(SpoolFormat.SEGMENT_HEADER_LENGTH + 10 * recordLength);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(spool.append(model(i)));
+		}
+		assertEquals(25, spool.getDepth());
+
+		List<JmsRealDataModel> records = new ArrayList<JmsRealDataModel>();
+		assertEquals(25, pollAll(spool, records));
+		assertEquals(0, records.get(0).getGatewayNo());
+		assertEquals(24, records.get(24).getGatewayNo());
+		assertEquals(new TcpPackageModel(frame).toJsonString().replace("\"remote_ip\":\"\",\"remote_port\":0",
+				"\"remote_ip\":\"192.168.0.14\",\"remote_port\":56167").replace("\"gateway_no\":1",
+						"\"gateway_no\":0"), toJson(records.get(0)));
+
+		spool.rewind();
+		records.clear();
+		assertEquals(15, spool.poll(records, 15));
+		spool.commit();
+		assertEquals(10, spool.getDepth());
+		spool.stop();
+
+		spool = newSpool(SpoolFormat.SEGMENT_HEADER_LENGTH + 10 * recordLength);
+		assertEquals(10, spool.getDepth());
+		records.clear();
+		assertEquals(10, spool.poll(records, 25));
+		assertEquals(15, records.get(0).getGatewayNo());
+		spool.commit();
+		assertEquals(0, spool.getDepth());
+		spool.stop();
+	}
+
+	@Test
+	public void testFailedWriteDropsGroup() throws Exception {
+		int recordLength = SpoolFormat.encode(model(1)).length;
+		File directory = folder.newFolder("spool");
+		FrameSpool spool = new FrameSpool();
+		spool.setPath(directory.getPath());
+		spool.setSegmentSize(SpoolFormat.SEGMENT_HEADER_LENGTH + recordLength);
+		spool.setFsync(false);
+		spool.start();
+
+		List<JmsRealDataModel> records = new ArrayList<JmsRealDataModel>();
+		assertTrue(spool.append(model(1)));
+		assertEquals(1, pollAll(spool, records, 1));
+		spool.commit();
+		long diskUsage = spool.getDiskUsage();
+
+		// the next segment cannot be created
+		for (File file : directory.listFiles()) {
+			assertTrue(file.delete());
+		}
+		assertTrue(directory.delete());
+		assertTrue(spool.append(model(2)));
+		for (int i = 0; i < 500 && spool.getDroppedCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, spool.getDroppedCount());
+		assertEquals(0, spool.getDepth());
+		assertEquals(diskUsage, spool.getDiskUsage());
+
+		// later packages go to a new segment
+		assertTrue(directory.mkdir());
+		assertTrue(spool.append(model(3)));
+		records.clear();
+		assertEquals(1, pollAll(spool, records, 1));
+		assertEquals(3, records.get(0).getGatewayNo());
+		spool.commit();
+		assertEquals(0, spool.getDepth());
+		spool.stop();
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		int recordLength = SpoolFormat.encode(model(1)).length;
+		FrameSpool spool = new FrameSpool();
+		spool.setPath(folder.getRoot().getPath());
+		spool.setFsync(false);
+		spool.setMaxBytes(SpoolFormat.SEGMENT_HEADER_LENGTH + 3 * recordLength);
+		spool.start();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(spool.append(model(i)));
+		}
+		assertFalse(spool.append(model(3)));
+		assertEquals(3, spool.getDepth());
+		assertEquals(1, spool.getDroppedCount());
+		spool.stop();
+	}
+
+	@Test
+	public void testForwarderReplays() throws Exception {
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
+				"vm://spool-test?broker.persistent=false&broker.useJmx=false");
+		ActiveMQQueue queue = new ActiveMQQueue("bdreport.spool.test.queue");
+		JmsPublisher jmsPublisher = new JmsPublisher();
+		jmsPublisher.setConnectionFactory(connectionFactory);
+		jmsPublisher.setQueue(queue);
+		jmsPublisher.setBatchWindowMs(5);
+
+		FrameSpool spool = newSpool(1024);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(spool.append(model(i)));
+		}
+
+		Connection connection = connectionFactory.createConnection();
+		jmsPublisher.start();
+		SpoolForwarder forwarder = new SpoolForwarder();
+		forwarder.setFrameSpool(spool);
+		forwarder.setJmsPublisher(jmsPublisher);
+		forwarder.setReplayRate(1000);
+		forwarder.start();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer consumer = session.createConsumer(queue);
+			for (int i = 0; i < 25; i++) {
+				TextMessage message = (TextMessage) consumer.receive(5000);
+				assertNotNull(message);
+				assertTrue(message.getText().contains("\"remote_ip\":\"192.168.0.14\""));
+			}
+			for (long deadline = System.currentTimeMillis() + 5000; forwarder.getForwardedCount() < 25
+					&& System.currentTimeMillis() < deadline;) {
+				Thread.sleep(10);
+			}
+			assertEquals(25, forwarder.getForwardedCount());
+			assertEquals(0, spool.getDepth());
+		} finally {
+			forwarder.stop();
+			jmsPublisher.stop();
+			spool.stop();
+			connection.close();
+		}
+	}
+
+	private static String toJson(JmsRealDataModel model) {
+		TcpPackageModel tcpPackageModel = new TcpPackageModel();
+		tcpPackageModel.setDataModel(model);
+		return tcpPackageModel.toJsonString();
+	}
+}
@@ -0,0 +1,80 @@
+package com.bdreport.socket.server.test;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.metrics.IngestMetrics;
+import com.bdreport.socket.server.metrics.LatencyHistogram;
+import com.bdreport.socket.server.metrics.MetricsHttpServer;
+import com.bdreport.socket.server.netty.ChannelRepository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class IngestMetricsTest {
+
+	@Test
+	public void testLatencyHistogram() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(500);
+		histogram.record(3000);
+		histogram.record(4000);
+		histogram.record(Long.MAX_VALUE / 2);
+		assertEquals(1, histogram.getBucketCount(0));
+		assertEquals(2, histogram.getBucketCount(2));
+		assertEquals(1, histogram.getBucketCount(LatencyHistogram.BUCKETS - 1));
+		assertEquals(4, histogram.getCount());
+		assertEquals(4, LatencyHistogram.getUpperBoundMicros(2));
+	}
+
+	@Test
+	public void testScrape() throws Exception {
+		IngestMetrics ingestMetrics = new IngestMetrics();
+		ChannelRepository channelRepository = new ChannelRepository();
+		channelRepository.put("gateway", new EmbeddedChannel());
+		ingestMetrics.setChannelRepository(channelRepository);
+		ingestMetrics.frameReceived((byte) 0xB1);
+		ingestMetrics.frameReceived((byte) 0xB1);
+		ingestMetrics.frameReceived((byte) 0xB3);
+		ingestMetrics.parseFailed(TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_CHECKSUM_ERROR);
+		ingestMetrics.bytesRead(44);
+
+		assertEquals(3, ingestMetrics.getFramesReceived());
+		assertEquals(1, ingestMetrics.getParseFailures());
+		String text = ingestMetrics.scrape();
+		assertTrue(text.contains("bdreport_frames_total{func_code=\"B1\"} 2\n"));
+		assertTrue(text.contains("bdreport_frames_total{func_code=\"B3\"} 1\n"));
+		assertTrue(text.contains("bdreport_parse_failures_total{reason=\"data_checksum_error\"} 1\n"));
+		assertTrue(text.contains("bdreport_parse_failures_total{reason=\"package_broken\"} 0\n"));
+		assertTrue(text.contains("bdreport_bytes_in_total 44\n"));
+		assertTrue(text.contains("bdreport_active_connections 1\n"));
+
+		MetricsHttpServer server = new MetricsHttpServer();
+		server.setIngestMetrics(ingestMetrics);
+		server.setHost("127.0.0.1");
+		server.setPort(0);
+		server.start();
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://127.0.0.1:" + server.getPort() + "/metrics").openConnection();
+			assertEquals(200, connection.getResponseCode());
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			try (InputStream in = connection.getInputStream()) {
+				byte[] buffer = new byte[4096];
+				for (int n; (n = in.read(buffer)) > 0;) {
+					body.write(buffer, 0, n);
+				}
+			}
+			assertTrue(body.toString("utf-8").contains("bdreport_frames_total{func_code=\"B1\"} 2\n"));
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.bdreport.socket.server.test;
+
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.jdbc.JdbcSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class JdbcSinkTest {
+
+	private static final long T0 = 1497315600000L;
+
+	private JdbcDataSource dataSource;
+
+	private Connection keepAlive;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:sink");
+		keepAlive = dataSource.getConnection();
+		try (Statement statement = keepAlive.createStatement()) {
+			statement.execute("CREATE TABLE real_data_sample (gateway_no INT NOT NULL, data_type CHAR(2) NOT NULL, "
+					+ "data_time TIMESTAMP NOT NULL, channel INT NOT NULL, value REAL)");
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		keepAlive.close();
+	}
+
+	private static JmsRealDataModel model(int gatewayNo, long timeMillis, float... samples) {
+		JmsRealDataModel dataModel = new JmsRealDataModel("127.0.0.1", 56167, "B1", gatewayNo, null, samples.length,
+				samples);
+		dataModel.setDataTimeMillis(timeMillis);
+		return dataModel;
+	}
+
+	private JdbcSink sink(DataSource dataSource) {
+		JdbcSink jdbcSink = new JdbcSink();
+		jdbcSink.setEnabled(true);
+		jdbcSink.setDataSource(dataSource);
+		jdbcSink.setThreadCount(2);
+		jdbcSink.setBatchRows(4);
+		jdbcSink.setFlushIntervalMs(5);
+		jdbcSink.setRetryDelayMs(10);
+		jdbcSink.start();
+		return jdbcSink;
+	}
+
+	private int count(String where) throws SQLException {
+		try (Statement statement = keepAlive.createStatement();
+				ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM real_data_sample " + where)) {
+			result.next();
+			return result.getInt(1);
+		}
+	}
+
+	@Test
+	public void testMultiRowInserts() throws Exception {
+		JdbcSink jdbcSink = sink(dataSource);
+		assertTrue(jdbcSink.isEnabled());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(jdbcSink.write(model(1 + i % 3, T0 + i * 1000, i, i + 0.5f, Float.NaN)));
+		}
+		JmsRealDataModel changed = model(9, T0, 7.0f, 8.0f);
+		changed.setDataIndex(new int[] { 2, 5 });
+		assertTrue(jdbcSink.write(changed));
+		jdbcSink.stop();
+		assertFalse(jdbcSink.write(changed));
+
+		assertEquals(302, jdbcSink.getRowsWritten());
+		assertEquals(0, jdbcSink.getRowsFailed());
+		assertEquals(1, jdbcSink.getFramesDropped());
+		assertEquals(302, count(""));
+		assertEquals(100, count("WHERE value IS NULL AND channel = 2"));
+		assertEquals(34, count("WHERE gateway_no = 1 AND channel = 0"));
+
+		try (Statement statement = keepAlive.createStatement();
+				ResultSet result = statement.executeQuery(
+						"SELECT data_type, data_time, value FROM real_data_sample WHERE gateway_no = 2 AND channel = 1"
+								+ " ORDER BY data_time")) {
+			assertTrue(result.next());
+			assertEquals("B1", result.getString(1));
+			assertEquals(new Timestamp(T0 + 1000), result.getTimestamp(2));
+			assertEquals(1.5f, result.getFloat(3), 0.0f);
+		}
+		assertEquals(1, count("WHERE gateway_no = 9 AND channel = 5 AND value = 8"));
+	}
+
+	@Test
+	public void testRetryTransientErrors() throws Exception {
+		DataSource failing = mock(DataSource.class);
+		when(failing.getConnection()).thenThrow(new SQLTransientConnectionException("Connection refused"))
+				.thenThrow(new SQLException("Communications link failure", "08S01"))
+				.thenAnswer(new Answer<Connection>() {
+					@Override
+					public Connection answer(InvocationOnMock invocation) throws Throwable {
+						return dataSource.getConnection();
+					}
+				});
+		JdbcSink jdbcSink = sink(failing);
+		assertTrue(jdbcSink.write(model(1, T0, 1.0f, 2.0f)));
+		jdbcSink.stop();
+
+		assertEquals(2, jdbcSink.getRetryCount());
+		assertEquals(2, jdbcSink.getRowsWritten());
+		assertEquals(2, count(""));
+	}
+
+	@Test
+	public void testPermanentErrorsNotRetried() throws Exception {
+		JdbcSink jdbcSink = new JdbcSink();
+		jdbcSink.setEnabled(true);
+		jdbcSink.setDataSource(dataSource);
+		jdbcSink.setTable("missing_table");
+		jdbcSink.setFlushIntervalMs(5);
+		jdbcSink.start();
+		assertTrue(jdbcSink.write(model(1, T0, 1.0f, 2.0f, 3.0f)));
+		jdbcSink.stop();
+
+		assertEquals(0, jdbcSink.getRetryCount());
+		assertEquals(3, jdbcSink.getRowsFailed());
+		assertEquals(0, jdbcSink.getRowsWritten());
+	}
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		JdbcSink jdbcSink = new JdbcSink();
+		jdbcSink.start();
+		assertFalse(jdbcSink.isEnabled());
+		jdbcSink.stop();
+	}
+}
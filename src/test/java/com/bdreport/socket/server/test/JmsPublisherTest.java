@@ -0,0 +1,200 @@
+package com.bdreport.socket.server.test;
+
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.jms.JmsAckPolicy;
+import com.bdreport.socket.server.jms.JmsMessageFormat;
+import com.bdreport.socket.server.jms.JmsPublishListener;
+import com.bdreport.socket.server.jms.JmsPublishRequest;
+import com.bdreport.socket.server.jms.JmsPublisher;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryDecoder;
+import com.bdreport.socket.server.jms.codec.RealDataBinaryFormat;
+import com.bdreport.socket.server.jms.codec.RealDataRecord;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JmsPublisherTest {
+
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	private ActiveMQConnectionFactory connectionFactory;
+
+	private ActiveMQQueue queue = new ActiveMQQueue("bdreport.test.queue");
+
+	private JmsPublisher jmsPublisher;
+
+	@Before
+	public void setUp() throws Exception {
+		connectionFactory = new ActiveMQConnectionFactory("vm://publisher-test?broker.persistent=false&broker.useJmx=false");
+		jmsPublisher = new JmsPublisher();
+		jmsPublisher.setConnectionFactory(connectionFactory);
+		jmsPublisher.setQueue(queue);
+		jmsPublisher.setThreadCount(2);
+		jmsPublisher.setQueueCapacity(1024);
+		jmsPublisher.setBatchSize(16);
+		jmsPublisher.setBatchWindowMs(5);
+		jmsPublisher.setReconnectDelayMs(100);
+		jmsPublisher.setAckPolicy(JmsAckPolicy.COMMIT);
+		jmsPublisher.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		jmsPublisher.stop();
+	}
+
+	@Test
+	public void testPublishBatches() throws Exception {
+		int count = 100;
+		final CountDownLatch latch = new CountDownLatch(count);
+		final AtomicInteger failed = new AtomicInteger();
+		JmsPublishListener listener = new JmsPublishListener() {
+			@Override
+			public void published(JmsPublishRequest request) {
+				latch.countDown();
+			}
+
+			@Override
+			public void failed(JmsPublishRequest request, Exception cause) {
+				failed.incrementAndGet();
+				latch.countDown();
+			}
+		};
+		for (int i = 0; i < count; i++) {
+			assertTrue(jmsPublisher.publish(new JmsPublishRequest(new TcpPackageModel(frame), null, listener)));
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(0, failed.get());
+
+		Connection connection = connectionFactory.createConnection();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer consumer = session.createConsumer(queue);
+			for (int i = 0; i < count; i++) {
+				TextMessage message = (TextMessage) consumer.receive(1000);
+				assertNotNull(message);
+				assertTrue(message.getText().contains("\"data_list\":[25.6875,25.796875]"));
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testPublishBinary() throws Exception {
+		jmsPublisher.stop();
+		jmsPublisher.setMessageFormat(JmsMessageFormat.BINARY);
+		jmsPublisher.start();
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		JmsPublishListener listener = new JmsPublishListener() {
+			@Override
+			public void published(JmsPublishRequest request) {
+				latch.countDown();
+			}
+
+			@Override
+			public void failed(JmsPublishRequest request, Exception cause) {
+			}
+		};
+		TcpPackageModel tcpPackageModel = new TcpPackageModel(frame);
+		tcpPackageModel.getDataModel().setIpAddr("192.168.0.14");
+		tcpPackageModel.getDataModel().setInetPort(56167);
+		assertTrue(jmsPublisher.publish(new JmsPublishRequest(tcpPackageModel, null, listener)));
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+		Connection connection = connectionFactory.createConnection();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer consumer = session.createConsumer(queue);
+			BytesMessage message = (BytesMessage) consumer.receive(1000);
+			assertEquals(RealDataBinaryFormat.JMS_TYPE, message.getJMSType());
+			RealDataRecord record = RealDataBinaryDecoder.decode(message);
+			assertEquals(RealDataBinaryFormat.VERSION_3, record.getVersion());
+			assertEquals("B1", record.getFuncCodeName());
+			assertEquals(1, record.getGatewayNo());
+			assertEquals(tcpPackageModel.getDataModel().getDataTimeMillis(), record.getDataTimeMillis());
+			assertEquals("192.168.0.14", record.getIpAddr());
+			assertEquals(56167, record.getInetPort());
+			assertArrayEquals(new float[] { 25.6875f, 25.796875f }, record.getDataList(), 0.0f);
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testPartialBatchNotTransacted() throws Exception {
+		jmsPublisher.stop();
+		MessageProducer producer = mock(MessageProducer.class);
+		doNothing().doNothing().doThrow(new JMSException("Broker gone")).when(producer).send(any(Message.class));
+		Session session = mock(Session.class);
+		when(session.createTextMessage(any(String.class))).thenReturn(mock(TextMessage.class));
+		when(session.createProducer(queue)).thenReturn(producer);
+		Connection connection = mock(Connection.class);
+		when(connection.createSession(anyBoolean(), anyInt())).thenReturn(session);
+		ConnectionFactory failingFactory = mock(ConnectionFactory.class);
+		when(failingFactory.createConnection()).thenReturn(connection);
+		jmsPublisher.setConnectionFactory(failingFactory);
+		jmsPublisher.setTransacted(false);
+		jmsPublisher.setThreadCount(1);
+		jmsPublisher.setBatchSize(5);
+		jmsPublisher.setBatchWindowMs(10000);
+		jmsPublisher.start();
+
+		final CountDownLatch latch = new CountDownLatch(5);
+		final AtomicInteger published = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		JmsPublishListener listener = new JmsPublishListener() {
+			@Override
+			public void published(JmsPublishRequest request) {
+				published.incrementAndGet();
+				latch.countDown();
+			}
+
+			@Override
+			public void failed(JmsPublishRequest request, Exception cause) {
+				failed.incrementAndGet();
+				latch.countDown();
+			}
+		};
+		for (int i = 0; i < 5; i++) {
+			assertTrue(jmsPublisher.publish(new JmsPublishRequest(new TcpPackageModel(frame), null, listener)));
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(2, published.get());
+		assertEquals(3, failed.get());
+	}
+}
@@ -0,0 +1,125 @@
+package com.bdreport.socket.server.test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.deadband.DeadbandFilter;
+import com.bdreport.socket.server.latest.LatestValueCache;
+import com.bdreport.socket.server.metrics.IngestMetrics;
+import com.bdreport.socket.server.metrics.MetricsHttpServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class LatestValueCacheTest {
+
+	private static final byte B1 = (byte) 0xB1;
+
+	private static final byte B2 = (byte) 0xB2;
+
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	private static JmsRealDataModel model(int gatewayNo, String funcCode, float... samples) {
+		return new JmsRealDataModel("127.0.0.1", 56167, funcCode, gatewayNo, "2017-06-13 09:00:00", samples.length,
+				samples);
+	}
+
+	private static String get(int port, String query) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://127.0.0.1:" + port + "/latest" + query).openConnection();
+		if (connection.getResponseCode() != 200) {
+			return String.valueOf(connection.getResponseCode());
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = connection.getInputStream()) {
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				body.write(buffer, 0, n);
+			}
+		}
+		return body.toString("utf-8");
+	}
+
+	@Test
+	public void testLatestFrame() throws Exception {
+		LatestValueCache latestValueCache = new LatestValueCache();
+		latestValueCache.start();
+		assertFalse(latestValueCache.isEnabled());
+
+		latestValueCache.setEnabled(true);
+		latestValueCache.start();
+		assertTrue(latestValueCache.isEnabled());
+
+		latestValueCache.update(model(1, "B1", 1.0f, 2.0f), B1);
+		latestValueCache.update(model(1, "B2", 3.0f), B2);
+		JmsRealDataModel second = model(1, "B1", 4.0f, 5.0f);
+		latestValueCache.update(second, B1);
+		latestValueCache.update(model(0xFFFF, "B1", 6.0f), B1);
+
+		// change-only publishing of the frame must not reach the cached copy
+		DeadbandFilter deadbandFilter = new DeadbandFilter();
+		deadbandFilter.setFuncCodes("B1");
+		deadbandFilter.start();
+		deadbandFilter.filter(model(1, "B1", 4.0f, 0.0f), B1);
+		assertTrue(deadbandFilter.filter(second, B1));
+		assertArrayEquals(new int[] { 1 }, second.getDataIndex());
+
+		JmsRealDataModel latest = latestValueCache.get(1, B1);
+		assertArrayEquals(new float[] { 4.0f, 5.0f }, latest.getDataList(), 0.0f);
+		assertNull(latest.getDataIndex());
+		assertNull(latestValueCache.get(2, B1));
+		assertEquals(2, latestValueCache.get(1).size());
+		assertEquals(3, latestValueCache.getAll().size());
+		assertEquals(3, latestValueCache.getEntryCount());
+
+		TcpPackageModel tcpPackageModel = new TcpPackageModel(frame);
+		latestValueCache.update(tcpPackageModel.getDataModel(), B1);
+		assertEquals("2017-06-13 09:00:00", latestValueCache.get(1, B1).getDataTime());
+		assertEquals(tcpPackageModel.getDataModel().getDataTimeMillis(),
+				latestValueCache.get(1, B1).getDataTimeMillis());
+	}
+
+	@Test
+	public void testEndpoint() throws Exception {
+		MetricsHttpServer server = new MetricsHttpServer();
+		server.setIngestMetrics(new IngestMetrics());
+		server.setHost("127.0.0.1");
+		server.setPort(0);
+		server.start();
+		try {
+			LatestValueCache latestValueCache = new LatestValueCache();
+			latestValueCache.setEnabled(true);
+			latestValueCache.setMetricsHttpServer(server);
+			latestValueCache.start();
+			latestValueCache.update(model(1, "B1", 1.0f, 2.0f), B1);
+			latestValueCache.update(model(1, "B2", 3.0f), B2);
+			latestValueCache.update(model(7, "B1", 4.0f), B1);
+
+			assertEquals(3, JSON.parseArray(get(server.getPort(), "")).size());
+			assertEquals(2, JSON.parseArray(get(server.getPort(), "?gateway=1")).size());
+			JSONArray bulk = JSON.parseArray(get(server.getPort(), "?gateway=1,7,9&data_type=B1"));
+			assertEquals(2, bulk.size());
+			assertEquals(1, bulk.getJSONObject(0).getIntValue("gateway_no"));
+			assertEquals("[1.0,2.0]", bulk.getJSONObject(0).getJSONArray("data_list").toJSONString());
+			assertEquals(7, bulk.getJSONObject(1).getIntValue("gateway_no"));
+			assertEquals("2017-06-13 09:00:00", bulk.getJSONObject(1).getString("data_date_time"));
+			assertEquals("400", get(server.getPort(), "?gateway=x"));
+			assertEquals("400", get(server.getPort(), "?data_type=B1"));
+		} finally {
+			server.stop();
+		}
+	}
+}
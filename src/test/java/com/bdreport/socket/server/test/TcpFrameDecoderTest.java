@@ -0,0 +1,81 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import com.bdreport.socket.server.netty.handler.TcpFrameDecoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TcpFrameDecoderTest {
+
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	@Test
+	public void testSingleFrame() throws Exception {
+		EmbeddedChannel channel = new EmbeddedChannel(new TcpFrameDecoder());
+		channel.writeInbound(Unpooled.wrappedBuffer(frame));
+		assertFrame(channel.readInbound());
+		assertNull(channel.readInbound());
+		assertFalse(channel.finish());
+	}
+
+	@Test
+	public void testFrameSplitAcrossReads() throws Exception {
+		for (int split = 1; split < frame.length; split++) {
+			EmbeddedChannel channel = new EmbeddedChannel(new TcpFrameDecoder());
+			channel.writeInbound(Unpooled.wrappedBuffer(Arrays.copyOfRange(frame, 0, split)));
+			channel.writeInbound(Unpooled.wrappedBuffer(Arrays.copyOfRange(frame, split, frame.length)));
+			assertFrame(channel.readInbound());
+			assertNull(channel.readInbound());
+			assertFalse(channel.finish());
+		}
+	}
+
+	@Test
+	public void testFramesInOneReadWithNoise() throws Exception {
+		ByteBuf in = Unpooled.buffer();
+		in.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF, 0x01 });
+		in.writeBytes(frame);
+		in.writeByte(0xFF);
+		in.writeBytes(frame);
+		EmbeddedChannel channel = new EmbeddedChannel(new TcpFrameDecoder());
+		channel.writeInbound(in);
+		assertFrame(channel.readInbound());
+		assertFrame(channel.readInbound());
+		assertNull(channel.readInbound());
+		assertFalse(channel.finish());
+	}
+
+	@Test
+	public void testFrameTooLong() throws Exception {
+		ByteBuf in = Unpooled.buffer();
+		in.writeByte(0xEE);
+		in.writeZero(64);
+		EmbeddedChannel channel = new EmbeddedChannel(new TcpFrameDecoder(32));
+		channel.writeInbound(in);
+		assertNull(channel.readInbound());
+		channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF }));
+		assertNull(channel.readInbound());
+		channel.writeInbound(Unpooled.wrappedBuffer(frame));
+		assertFrame(channel.readInbound());
+		assertFalse(channel.finish());
+	}
+
+	private void assertFrame(Object msg) {
+		ByteBuf buf = (ByteBuf) msg;
+		byte[] bytes = new byte[buf.readableBytes()];
+		buf.readBytes(bytes);
+		buf.release();
+		assertArrayEquals(frame, bytes);
+	}
+}
@@ -0,0 +1,108 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.alibaba.fastjson.JSON;
+import com.bdreport.socket.server.data.DataTimeFormat;
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.data.TcpPackageFlyweight;
+import com.bdreport.socket.server.data.TcpPackageModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TcpPackageFlyweightTest {
+
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
+	@Test
+	public void testWrap() throws Exception {
+		ByteBuf buf = Unpooled.buffer();
+		buf.writeBytes(new byte[] { 0x01, 0x02 });
+		buf.writeBytes(frame);
+		buf.readerIndex(2);
+
+		TcpPackageFlyweight view = TcpPackageFlyweight.current();
+		assertSame(view, TcpPackageFlyweight.current());
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_SUCCEED, view.wrap(buf));
+		assertEquals(2, buf.readerIndex());
+		assertEquals("B1", view.getFuncCodeName());
+		assertEquals(1, view.getGatewayNo());
+		assertEquals(2017, view.getYear());
+		assertEquals(6, view.getMonth());
+		assertEquals(13, view.getDay());
+		assertEquals(9, view.getHour());
+		assertEquals(2, view.getSampleCount());
+		assertEquals(25.6875f, view.getSample(0), 0.0f);
+		assertEquals(25.796875f, view.getSample(1), 0.0f);
+	}
+
+	@Test
+	public void testWrapBroken() throws Exception {
+		TcpPackageFlyweight view = TcpPackageFlyweight.current();
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_NULL, view.wrap(null));
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_EMPTY,
+				view.wrap(Unpooled.wrappedBuffer(frame, 0, 1)));
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_FAILED_PACKAGE_BROKEN,
+				view.wrap(Unpooled.wrappedBuffer(frame, 0, 12)));
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_BROKEN,
+				view.wrap(Unpooled.wrappedBuffer(frame, 0, 17)));
+
+		byte[] unknown = Arrays.copyOf(frame, frame.length);
+		unknown[1] = (byte) 0xCA;
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_FAILED_FUNCCODE_UNKOWN, view.wrap(Unpooled.wrappedBuffer(unknown)));
+
+		byte[] corrupt = Arrays.copyOf(frame, frame.length);
+		corrupt[14]++;
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_CHECKSUM_ERROR,
+				view.wrap(Unpooled.wrappedBuffer(corrupt)));
+	}
+
+	@Test
+	public void testCompatibilityPath() throws Exception {
+		TcpPackageModel model = new TcpPackageModel(frame);
+		assertEquals(TcpPackageModel.PACKAGE_PARSE_SUCCEED, model.getParseStatus());
+		assertEquals("{\"gateway_no\":1,\"data_type\":\"B1\",\"data_date_time\":\"2017-06-13 09:00:00\","
+				+ "\"remote_ip\":\"\",\"remote_port\":0,\"data_length\":2,\"data_list\":[25.6875,25.796875]}",
+				model.toJsonString());
+	}
+
+	@Test
+	public void testDataListJson() throws Exception {
+		JmsRealDataModel dataModel = new JmsRealDataModel("127.0.0.1", 56167, "B2", 3, "2017-06-13 09:00:00", 4,
+				new float[] { 1.0f, -0.5f, Float.POSITIVE_INFINITY, Float.NaN });
+		assertEquals("{\"gateway_no\":3,\"data_type\":\"B2\",\"data_date_time\":\"2017-06-13 09:00:00\","
+				+ "\"remote_ip\":\"127.0.0.1\",\"remote_port\":56167,\"data_length\":4,"
+				+ "\"data_list\":[1.0,-0.5,null,null]}", JSON.toJSONString(dataModel));
+	}
+
+	@Test
+	public void testDataTimeFormat() throws Exception {
+		int[][] times = { { 2017, 6, 13, 9, 0, 0 }, { 2017, 6, 13, 9, 0, 0 }, { 2017, 6, 13, 23, 59, 59 },
+				{ 2017, 6, 14, 0, 0, 1 }, { 999, 1, 2, 3, 4, 5 }, { 65535, 12, 31, 23, 59, 59 },
+				{ 2017, -1, 13, 9, 0, 0 }, { 2017, 127, 100, -128, 60, 99 }, { 0, 0, 0, 0, 0, 0 } };
+		for (int[] t : times) {
+			String expected = String.format("%04d-%02d-%02d %02d:%02d:%02d", t[0], t[1], t[2], t[3], t[4], t[5]);
+			long packed = DataTimeFormat.pack(t[0], t[1], t[2], t[3], t[4], t[5]);
+			assertEquals(expected, DataTimeFormat.format(packed));
+			assertEquals(expected.replaceAll("-", "").replaceAll(":", "").replaceAll(" ", ""),
+					DataTimeFormat.compact(expected));
+
+			JmsRealDataModel dataModel = new JmsRealDataModel();
+			dataModel.setPackedDataTime(packed);
+			assertEquals(t[5], DataTimeFormat.getSecond(dataModel.getPackedDataTime()));
+			assertEquals(expected, dataModel.getDataTime());
+		}
+
+		TcpPackageFlyweight view = TcpPackageFlyweight.current();
+		view.wrap(Unpooled.wrappedBuffer(frame));
+		assertEquals("2017-06-13 09:00:00", DataTimeFormat.format(view.getPackedDataTime()));
+	}
+}
@@ -2,29 +2,71 @@ package com.bdreport.socket.server.test;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
 
+import com.bdreport.socket.server.aggregate.WindowAggregator;
+import com.bdreport.socket.server.archive.FrameArchive;
+import com.bdreport.socket.server.archive.FrameQuarantine;
+import com.bdreport.socket.server.data.JmsRealDataModel;
 import com.bdreport.socket.server.data.TcpPackageModel;
+import com.bdreport.socket.server.deadband.DeadbandFilter;
+import com.bdreport.socket.server.dedup.FrameDeduplicator;
+import com.bdreport.socket.server.diagnostics.WireCapture;
+import com.bdreport.socket.server.jdbc.JdbcSink;
+import com.bdreport.socket.server.jms.JmsPublishRequest;
+import com.bdreport.socket.server.jms.JmsPublisher;
+import com.bdreport.socket.server.latest.LatestValueCache;
+import com.bdreport.socket.server.metrics.IngestMetrics;
 import com.bdreport.socket.server.netty.ChannelRepository;
+import com.bdreport.socket.server.netty.GatewayExecutorGroup;
+import com.bdreport.socket.server.netty.handler.TcpFrameDecoder;
 import com.bdreport.socket.server.netty.handler.TcpServerHandler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Hex;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class TcpServerHandlerTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private TcpServerHandler tcpServerHandler;
 
 	private ChannelHandlerContext channelHandlerContext;
@@ -33,10 +75,18 @@ public class TcpServerHandlerTest {
 
 	private SocketAddress remoteAddress;
 
+	private JmsPublisher jmsPublisher;
+
+	private FrameArchive frameArchive;
+
 	private byte[] testMsg = { (byte) 0xEE, (byte) 0xCA, (byte) 0x0C, (byte) 0xA1, (byte) 0x00, (byte) 0x5A,
 			(byte) 0xA2, (byte) 0x00, (byte) 0x5A, (byte) 0xA3, (byte) 0x00, (byte) 0x5A, (byte) 0xA4, (byte) 0x00,
 			(byte) 0x5A, (byte) 0xF2, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF };
 
+	private byte[] frame = { (byte) 0xEE, (byte) 0xB1, (byte) 0x00, (byte) 0x01, (byte) 0x07, (byte) 0xE1,
+			(byte) 0x06, (byte) 0x0D, (byte) 0x09, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04, (byte) 0x4E,
+			(byte) 0x6C, (byte) 0x4E, (byte) 0x73, (byte) 0x7B, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF };
+
 	private byte[] testCheckSum = { (byte) 0x4E, (byte) 0x6C, (byte) 0x4E, (byte) 0x73 };
 
 	@Before
@@ -48,6 +98,33 @@ public class TcpServerHandlerTest {
 		channel = mock(Channel.class);
 		remoteAddress = mock(SocketAddress.class);
 
+		jmsPublisher = mock(JmsPublisher.class);
+		when(jmsPublisher.publish(any(JmsPublishRequest.class))).thenReturn(true);
+		frameArchive = mock(FrameArchive.class);
+		when(frameArchive.isEnabled()).thenReturn(true);
+		when(frameArchive.append(any(ByteBuf.class), anyInt(), anyByte(), anyLong())).thenReturn(true);
+		tcpServerHandler.setJmsPublisher(jmsPublisher);
+		tcpServerHandler.setFrameArchive(frameArchive);
+		tcpServerHandler.setIngestMetrics(new IngestMetrics());
+		tcpServerHandler.setWireCapture(new WireCapture());
+		tcpServerHandler.setFrameDeduplicator(new FrameDeduplicator());
+		tcpServerHandler.setDeadbandFilter(new DeadbandFilter());
+		tcpServerHandler.setWindowAggregator(new WindowAggregator());
+		tcpServerHandler.setLatestValueCache(new LatestValueCache());
+		tcpServerHandler.setJdbcSink(new JdbcSink());
+	}
+
+	/**
+	 * Returns a channel with the frame decoder and the handler under test,
+	 * connected from a fixed remote address.
+	 */
+	private EmbeddedChannel newChannel() {
+		return new EmbeddedChannel(new TcpFrameDecoder(), tcpServerHandler) {
+			@Override
+			protected SocketAddress remoteAddress0() {
+				return new InetSocketAddress("192.168.0.14", 56167);
+			}
+		};
 	}
 
 	@After
@@ -66,11 +143,267 @@ public class TcpServerHandlerTest {
 	public void testChannelRead() throws Exception {
 		when(channelHandlerContext.channel()).thenReturn(channel);
 		when(channelHandlerContext.channel().remoteAddress()).thenReturn(remoteAddress);
-		tcpServerHandler.setByteBuf(Unpooled.buffer(10240));
 		// tcpServerHandler.channelRead(channelHandlerContext,
 		// Unpooled.wrappedBuffer(testMsg));
 	}
 
+	@Test
+	public void testAcksFlushedOnReadComplete() throws Exception {
+		EmbeddedChannel embeddedChannel = newChannel();
+		byte[] badCheckSum = frame.clone();
+		badCheckSum[17] = (byte) 0x7C;
+		ByteBuf read = Unpooled.buffer();
+		read.writeBytes(frame).writeBytes(badCheckSum).writeBytes(frame);
+
+		embeddedChannel.pipeline().fireChannelRead(read);
+		assertNull(embeddedChannel.readOutbound());
+
+		embeddedChannel.pipeline().fireChannelReadComplete();
+		embeddedChannel.runPendingTasks();
+		assertEquals("EE60FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) embeddedChannel.readOutbound()).toUpperCase());
+		assertEquals("EE61FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) embeddedChannel.readOutbound()).toUpperCase());
+		assertEquals("EE60FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) embeddedChannel.readOutbound()).toUpperCase());
+		assertNull(embeddedChannel.readOutbound());
+		verify(jmsPublisher, times(2)).publish(any(JmsPublishRequest.class));
+		embeddedChannel.finish();
+	}
+
+	@Test
+	public void testRejectedFramesSkipPipeline() throws Exception {
+		IngestMetrics ingestMetrics = new IngestMetrics();
+		FrameQuarantine frameQuarantine = new FrameQuarantine();
+		frameQuarantine.setEnabled(true);
+		frameQuarantine.setPath(folder.getRoot().getPath());
+		frameQuarantine.start();
+		tcpServerHandler.setIngestMetrics(ingestMetrics);
+		tcpServerHandler.setFrameQuarantine(frameQuarantine);
+
+		EmbeddedChannel embeddedChannel = newChannel();
+		byte[] badCheckSum = frame.clone();
+		badCheckSum[17] = (byte) 0x7C;
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(badCheckSum));
+		frameQuarantine.stop();
+
+		assertEquals("EE61FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) embeddedChannel.readOutbound()).toUpperCase());
+		verify(jmsPublisher, never()).publish(any(JmsPublishRequest.class));
+		verify(frameArchive, never()).append(any(ByteBuf.class), anyInt(), anyByte(), anyLong());
+		assertEquals(1, ingestMetrics.getParseFailureCount(TcpPackageModel.PACKAGE_PARSE_FAILED_DATA_CHECKSUM_ERROR));
+		assertEquals(0, ingestMetrics.getFramesReceived());
+		assertEquals(1, frameQuarantine.getWrittenCount());
+		File[] files = folder.getRoot().listFiles();
+		assertEquals(1, files.length);
+		String line = new String(Files.readAllBytes(files[0].toPath()), Charset.forName("US-ASCII"));
+		assertTrue(line.contains(" /192.168.0.14:56167 status=0x50 " + Hex.encodeHexString(badCheckSum).toUpperCase()));
+		embeddedChannel.finish();
+	}
+
+	@Test
+	public void testDuplicateFramesAckedOnce() throws Exception {
+		FrameDeduplicator frameDeduplicator = new FrameDeduplicator();
+		frameDeduplicator.setEnabled(true);
+		frameDeduplicator.start();
+		IngestMetrics ingestMetrics = new IngestMetrics();
+		ingestMetrics.setFrameDeduplicator(frameDeduplicator);
+		tcpServerHandler.setFrameDeduplicator(frameDeduplicator);
+		tcpServerHandler.setIngestMetrics(ingestMetrics);
+
+		EmbeddedChannel embeddedChannel = newChannel();
+		byte[] nextSecond = frame.clone();
+		nextSecond[10] = (byte) 0x01;
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(frame));
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(frame));
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(nextSecond));
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals("EE60FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) embeddedChannel.readOutbound()).toUpperCase());
+		}
+		verify(jmsPublisher, times(2)).publish(any(JmsPublishRequest.class));
+		verify(frameArchive, times(2)).append(any(ByteBuf.class), anyInt(), anyByte(), anyLong());
+		assertEquals(3, ingestMetrics.getFramesReceived());
+		assertEquals(1, ingestMetrics.getDuplicateFrames());
+		assertTrue(ingestMetrics.scrape().contains("bdreport_dedup_hits_total 1\n"));
+		embeddedChannel.finish();
+	}
+
+	@Test
+	public void testFailedFrameProcessedWhenResent() throws Exception {
+		when(jmsPublisher.publish(any(JmsPublishRequest.class))).thenThrow(new IllegalStateException("test"))
+				.thenReturn(true);
+		FrameDeduplicator frameDeduplicator = new FrameDeduplicator();
+		frameDeduplicator.setEnabled(true);
+		frameDeduplicator.start();
+		tcpServerHandler.setFrameDeduplicator(frameDeduplicator);
+
+		EmbeddedChannel failing = newChannel();
+		failing.writeInbound(Unpooled.wrappedBuffer(frame));
+		assertNull(failing.readOutbound());
+		assertFalse(failing.isOpen());
+
+		EmbeddedChannel reconnected = newChannel();
+		reconnected.writeInbound(Unpooled.wrappedBuffer(frame));
+		assertEquals("EE60FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) reconnected.readOutbound()).toUpperCase());
+		verify(jmsPublisher, times(2)).publish(any(JmsPublishRequest.class));
+		assertEquals(0, frameDeduplicator.getHitCount());
+		reconnected.finish();
+	}
+
+	@Test
+	public void testUnchangedFramesAckedNotPublished() throws Exception {
+		DeadbandFilter deadbandFilter = new DeadbandFilter();
+		deadbandFilter.setFuncCodes("B1");
+		deadbandFilter.start();
+		tcpServerHandler.setDeadbandFilter(deadbandFilter);
+		JdbcSink jdbcSink = mock(JdbcSink.class);
+		when(jdbcSink.isEnabled()).thenReturn(true);
+		when(jdbcSink.write(any(JmsRealDataModel.class))).thenReturn(true);
+		tcpServerHandler.setJdbcSink(jdbcSink);
+
+		EmbeddedChannel embeddedChannel = newChannel();
+		byte[] nextSecond = frame.clone();
+		nextSecond[10] = (byte) 0x01;
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(frame));
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(nextSecond));
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals("EE60FFFCFFFF", ByteBufUtil.hexDump((ByteBuf) embeddedChannel.readOutbound()).toUpperCase());
+		}
+		verify(jmsPublisher, times(1)).publish(any(JmsPublishRequest.class));
+		// the database still gets every frame
+		verify(jdbcSink, times(2)).write(any(JmsRealDataModel.class));
+		assertEquals(1, deadbandFilter.getSuppressedCount());
+		embeddedChannel.finish();
+	}
+
+	@Test
+	public void testProcessingStageKeepsGatewayOrder() throws Exception {
+		final List<String> published = Collections.synchronizedList(new ArrayList<String>());
+		when(jmsPublisher.isAckOnCommit()).thenReturn(true);
+		when(jmsPublisher.publish(any(JmsPublishRequest.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) {
+				JmsPublishRequest request = (JmsPublishRequest) invocation.getArguments()[0];
+				published.add(request.getTcpPackageModel().getDataModel().getGatewayNo() + " "
+						+ request.getTcpPackageModel().getDataModel().getDataTime() + " "
+						+ Thread.currentThread().getName());
+				return true;
+			}
+		});
+		GatewayExecutorGroup processingGroup = new GatewayExecutorGroup(2, "test-processing");
+		tcpServerHandler.setProcessingGroup(processingGroup);
+
+		EmbeddedChannel[] embeddedChannels = new EmbeddedChannel[4];
+		for (int gatewayNo = 1; gatewayNo <= 4; gatewayNo++) {
+			embeddedChannels[gatewayNo - 1] = newChannel();
+		}
+		for (int second = 0; second < 50; second++) {
+			for (int gatewayNo = 1; gatewayNo <= 4; gatewayNo++) {
+				byte[] next = frame.clone();
+				next[3] = (byte) gatewayNo;
+				next[10] = (byte) second;
+				embeddedChannels[gatewayNo - 1].writeInbound(Unpooled.wrappedBuffer(next));
+			}
+		}
+		for (int i = 0; i < 500 && published.size() < 200; i++) {
+			Thread.sleep(10);
+		}
+		processingGroup.shutdownGracefully().sync();
+
+		assertEquals(200, published.size());
+		Map<String, String> threads = new HashMap<String, String>();
+		Map<String, Integer> seconds = new HashMap<String, Integer>();
+		for (String entry : published) {
+			String[] fields = entry.split(" ");
+			String gatewayNo = fields[0];
+			int second = Integer.parseInt(fields[2].substring(6));
+			Integer previous = seconds.put(gatewayNo, second);
+			assertEquals(previous == null ? 0 : previous + 1, second);
+			String thread = threads.put(gatewayNo, fields[3]);
+			assertTrue(thread == null || thread.equals(fields[3]));
+		}
+		assertEquals(4, seconds.size());
+		assertTrue(!threads.get("1").equals(threads.get("2")));
+		for (EmbeddedChannel embeddedChannel : embeddedChannels) {
+			embeddedChannel.finish();
+		}
+	}
+
+	@Test
+	public void testCorruptFrameNakedInOrder() throws Exception {
+		when(jmsPublisher.publish(any(JmsPublishRequest.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws InterruptedException {
+				Thread.sleep(50);
+				return true;
+			}
+		});
+		GatewayExecutorGroup processingGroup = new GatewayExecutorGroup(2, "test-processing");
+		tcpServerHandler.setProcessingGroup(processingGroup);
+
+		EmbeddedChannel embeddedChannel = newChannel();
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(frame.clone()));
+		// claims a gateway of the other executor
+		byte[] corrupt = frame.clone();
+		corrupt[3] = (byte) 2;
+		corrupt[17] = (byte) 0x7C;
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(corrupt));
+		byte[] next = frame.clone();
+		next[10] = (byte) 1;
+		embeddedChannel.writeInbound(Unpooled.wrappedBuffer(next));
+		processingGroup.shutdownGracefully().sync();
+		embeddedChannel.flush();
+
+		String[] acks = { "ee60fffcffff", "ee61fffcffff", "ee60fffcffff" };
+		for (String ack : acks) {
+			ByteBuf written = embeddedChannel.readOutbound();
+			assertEquals(ack, ByteBufUtil.hexDump(written));
+			written.release();
+		}
+		embeddedChannel.finish();
+	}
+
+	@Test
+	public void testSaturatedProcessingStagePausesReads() throws Exception {
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		when(jmsPublisher.isAckOnCommit()).thenReturn(true);
+		when(jmsPublisher.publish(any(JmsPublishRequest.class))).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws InterruptedException {
+				entered.countDown();
+				release.await();
+				return true;
+			}
+		});
+		GatewayExecutorGroup processingGroup = new GatewayExecutorGroup(1, "test-processing", 16);
+		tcpServerHandler.setProcessingGroup(processingGroup);
+
+		EmbeddedChannel embeddedChannel = newChannel();
+		for (int second = 0; second < 17; second++) {
+			byte[] next = frame.clone();
+			next[10] = (byte) second;
+			embeddedChannel.writeInbound(Unpooled.wrappedBuffer(next));
+			if (second == 0) {
+				assertTrue(entered.await(5, TimeUnit.SECONDS));
+			}
+		}
+		// twelve frames saturate the queue behind the blocked one, the
+		// resume task and three more frames fill it, the last is rejected
+		assertFalse(embeddedChannel.config().isAutoRead());
+		ByteBuf nak = embeddedChannel.readOutbound();
+		assertEquals("ee61fffcffff", ByteBufUtil.hexDump(nak));
+		nak.release();
+		assertNull(embeddedChannel.readOutbound());
+
+		release.countDown();
+		for (int i = 0; i < 500 && !embeddedChannel.config().isAutoRead(); i++) {
+			Thread.sleep(10);
+		}
+		processingGroup.shutdownGracefully().sync();
+		assertTrue(embeddedChannel.config().isAutoRead());
+		verify(jmsPublisher, times(16)).publish(any(JmsPublishRequest.class));
+		embeddedChannel.finish();
+	}
+
 	@Test
 	public void testCheckSum() throws Exception {
 		TcpPackageModel jmsDataModel = new TcpPackageModel();
@@ -0,0 +1,236 @@
+package com.bdreport.socket.server.test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.bdreport.socket.server.aggregate.AggregateBinaryFormat;
+import com.bdreport.socket.server.aggregate.AggregatePublisher;
+import com.bdreport.socket.server.aggregate.AggregateRecord;
+import com.bdreport.socket.server.aggregate.WindowAggregator;
+import com.bdreport.socket.server.data.JmsRealDataModel;
+import com.bdreport.socket.server.jms.JmsMessageFormat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.Test;
+
+public class WindowAggregatorTest {
+
+	private static final byte B1 = (byte) 0xB1;
+
+	private static final long T0 = 1497315600000L;
+
+	private static class CapturingPublisher extends AggregatePublisher {
+
+		final List<AggregateRecord> records = new ArrayList<AggregateRecord>();
+
+		@Override
+		public synchronized void start() {
+		}
+
+		@Override
+		public boolean publish(AggregateRecord record) {
+			records.add(record);
+			return true;
+		}
+	}
+
+	private static JmsRealDataModel model(long timeMillis, float... samples) {
+		JmsRealDataModel dataModel = new JmsRealDataModel("127.0.0.1", 56167, "B1", 1, null, samples.length, samples);
+		dataModel.setDataTimeMillis(timeMillis);
+		return dataModel;
+	}
+
+	private static WindowAggregator aggregator(CapturingPublisher publisher) {
+		WindowAggregator windowAggregator = new WindowAggregator();
+		windowAggregator.setEnabled(true);
+		windowAggregator.setWindowS(10);
+		windowAggregator.setLatenessMs(2000);
+		windowAggregator.setSweepIntervalMs(60000);
+		windowAggregator.setAggregatePublisher(publisher);
+		windowAggregator.start();
+		return windowAggregator;
+	}
+
+	@Test
+	public void testTumblingWindows() throws Exception {
+		CapturingPublisher publisher = new CapturingPublisher();
+		WindowAggregator windowAggregator = aggregator(publisher);
+		assertTrue(windowAggregator.isEnabled());
+
+		windowAggregator.add(model(T0, 1.0f, 10.0f), B1);
+		windowAggregator.add(model(T0 + 3000, 3.0f, Float.NaN), B1);
+		windowAggregator.add(model(T0 + 9000, 2.0f, 30.0f), B1);
+		windowAggregator.add(model(T0 + 11000, 100.0f, 100.0f, 100.0f), B1);
+		// late, but within the lateness of the first window
+		windowAggregator.add(model(T0 + 5000, 6.0f, 20.0f), B1);
+		assertTrue(publisher.records.isEmpty());
+
+		windowAggregator.add(model(T0 + 12000, 200.0f, 200.0f, 200.0f), B1);
+		assertEquals(1, publisher.records.size());
+		// the first window has closed
+		windowAggregator.add(model(T0 + 4000, 7.0f, 7.0f), B1);
+		assertEquals(1, windowAggregator.getLateFrameCount());
+
+		AggregateRecord first = publisher.records.get(0);
+		assertEquals(1, first.getGatewayNo());
+		assertEquals("B1", first.getFuncCode());
+		assertEquals(T0, first.getWindowStartMillis());
+		assertEquals(10, first.getWindowSeconds());
+		assertEquals(4, first.getFrameCount());
+		assertEquals(2, first.getDataLength());
+		assertArrayEquals(new int[] { 4, 3 }, first.getCount());
+		assertArrayEquals(new float[] { 1.0f, 10.0f }, first.getMin(), 0.0f);
+		assertArrayEquals(new float[] { 6.0f, 30.0f }, first.getMax(), 0.0f);
+		assertArrayEquals(new float[] { 3.0f, 20.0f }, first.getAvg(), 0.0f);
+		assertArrayEquals(new float[] { 2.0f, 30.0f }, first.getLast(), 0.0f);
+
+		windowAggregator.stop();
+		assertEquals(2, publisher.records.size());
+		AggregateRecord second = publisher.records.get(1);
+		assertEquals(T0 + 10000, second.getWindowStartMillis());
+		assertEquals(2, second.getFrameCount());
+		assertArrayEquals(new float[] { 150.0f, 150.0f, 150.0f }, second.getAvg(), 0.0f);
+		assertEquals(2, windowAggregator.getWindowCount());
+		assertEquals(7, windowAggregator.getFrameCount());
+	}
+
+	@Test
+	public void testGrowingChannelCount() throws Exception {
+		CapturingPublisher publisher = new CapturingPublisher();
+		WindowAggregator windowAggregator = aggregator(publisher);
+
+		windowAggregator.add(model(T0, 1.0f), B1);
+		windowAggregator.add(model(T0 + 1000, 2.0f, 4.0f), B1);
+		windowAggregator.add(model(T0 + 10000, 5.0f), B1);
+		windowAggregator.add(model(T0 + 11000, 6.0f, 7.0f, 8.0f), B1);
+		windowAggregator.stop();
+
+		assertEquals(2, publisher.records.size());
+		AggregateRecord first = publisher.records.get(0);
+		assertArrayEquals(new int[] { 2, 1 }, first.getCount());
+		assertArrayEquals(new float[] { 1.5f, 4.0f }, first.getAvg(), 0.0f);
+		AggregateRecord second = publisher.records.get(1);
+		assertArrayEquals(new int[] { 2, 1, 1 }, second.getCount());
+		assertArrayEquals(new float[] { 5.5f, 7.0f, 8.0f }, second.getAvg(), 0.0f);
+	}
+
+	@Test
+	public void testFutureFramesIgnored() throws Exception {
+		CapturingPublisher publisher = new CapturingPublisher();
+		WindowAggregator windowAggregator = aggregator(publisher);
+
+		windowAggregator.add(model(T0, 1.0f), B1);
+		// a gateway clock gone wrong, e.g. 2099
+		windowAggregator.add(model(4070908800000L, 99.0f), B1);
+		windowAggregator.add(model(System.currentTimeMillis() + 11000, 99.0f), B1);
+		windowAggregator.add(model(T0 + 1000, 3.0f), B1);
+		assertEquals(2, windowAggregator.getFutureFrameCount());
+		assertEquals(0, windowAggregator.getLateFrameCount());
+		windowAggregator.stop();
+
+		assertEquals(1, publisher.records.size());
+		assertEquals(T0, publisher.records.get(0).getWindowStartMillis());
+		assertEquals(2, publisher.records.get(0).getFrameCount());
+		assertArrayEquals(new float[] { 2.0f }, publisher.records.get(0).getAvg(), 0.0f);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLatenessShorterThanWindow() throws Exception {
+		WindowAggregator windowAggregator = new WindowAggregator();
+		windowAggregator.setEnabled(true);
+		windowAggregator.setWindowS(5);
+		windowAggregator.setLatenessMs(5000);
+		windowAggregator.start();
+	}
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		WindowAggregator windowAggregator = new WindowAggregator();
+		windowAggregator.start();
+		assertFalse(windowAggregator.isEnabled());
+	}
+
+	@Test
+	public void testPublish() throws Exception {
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(
+				"vm://aggregate-test?broker.persistent=false&broker.useJmx=false");
+		AggregateRecord record = new AggregateRecord();
+		record.setGatewayNo(0xFFFE);
+		record.setFuncCode("B2");
+		record.setWindowStartMillis(T0);
+		record.setWindowSeconds(60);
+		record.setFrameCount(12);
+		record.setDataLength(2);
+		record.setCount(new int[] { 12, 0 });
+		record.setMin(new float[] { 1.0f, Float.NaN });
+		record.setMax(new float[] { 3.0f, Float.NaN });
+		record.setAvg(new float[] { 2.0f, Float.NaN });
+		record.setLast(new float[] { 2.5f, Float.NaN });
+
+		Connection connection = connectionFactory.createConnection();
+		try {
+			connection.start();
+			Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageConsumer consumer = session.createConsumer(session.createQueue("bdreport.aggregate.test"));
+
+			for (JmsMessageFormat format : JmsMessageFormat.values()) {
+				AggregatePublisher publisher = new AggregatePublisher();
+				publisher.setConnectionFactory(connectionFactory);
+				publisher.setQueueName("bdreport.aggregate.test");
+				publisher.setMessageFormat(format);
+				publisher.setQueueCapacity(16);
+				publisher.start();
+				assertTrue(publisher.publish(record));
+				publisher.stop();
+				assertEquals(1, publisher.getSentCount());
+				assertFalse(publisher.publish(record));
+				assertEquals(1, publisher.getDroppedCount());
+
+				AggregateRecord received;
+				if (format == JmsMessageFormat.BINARY) {
+					BytesMessage message = (BytesMessage) consumer.receive(1000);
+					assertNotNull(message);
+					assertEquals(AggregateBinaryFormat.JMS_TYPE, message.getJMSType());
+					byte[] body = new byte[(int) message.getBodyLength()];
+					message.readBytes(body);
+					assertEquals(AggregateBinaryFormat.FIXED_LENGTH_V1 + 2 * AggregateBinaryFormat.CHANNEL_LENGTH_V1,
+							body.length);
+					received = AggregateBinaryFormat.decode(ByteBuffer.wrap(body));
+				} else {
+					TextMessage message = (TextMessage) consumer.receive(1000);
+					assertNotNull(message);
+					JSONObject json = JSON.parseObject(message.getText());
+					assertEquals(65534, json.getIntValue("gateway_no"));
+					assertEquals(T0, json.getLongValue("window_start"));
+					assertTrue(message.getText().contains("\"avg\":[2.0,null]"));
+					continue;
+				}
+				assertEquals(0xFFFE, received.getGatewayNo());
+				assertEquals("B2", received.getFuncCode());
+				assertEquals(T0, received.getWindowStartMillis());
+				assertEquals(60, received.getWindowSeconds());
+				assertEquals(12, received.getFrameCount());
+				assertArrayEquals(new int[] { 12, 0 }, received.getCount());
+				assertArrayEquals(record.getMin(), received.getMin(), 0.0f);
+				assertArrayEquals(record.getLast(), received.getLast(), 0.0f);
+			}
+		} finally {
+			connection.close();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.bdreport.socket.server.test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import com.bdreport.socket.server.diagnostics.WireCapture;
+import com.bdreport.socket.server.metrics.IngestMetrics;
+import com.bdreport.socket.server.metrics.MetricsHttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class WireCaptureTest {
+
+	private final InetSocketAddress first = new InetSocketAddress("192.168.0.14", 56167);
+
+	private final InetSocketAddress second = new InetSocketAddress("192.168.0.15", 56168);
+
+	private ByteBuf frame(int gatewayNo) {
+		return Unpooled.wrappedBuffer(new byte[] { (byte) 0xEE, (byte) 0xB1, (byte) (gatewayNo >> 8),
+				(byte) gatewayNo, (byte) 0xFF, (byte) 0xFC, (byte) 0xFF, (byte) 0xFF });
+	}
+
+	@Test
+	public void testFiltersAndRing() throws Exception {
+		WireCapture wireCapture = new WireCapture();
+		wireCapture.setCapacity(2);
+		assertFalse(wireCapture.isActive());
+		assertEquals("", wireCapture.dump());
+
+		wireCapture.captureGateway(2);
+		assertTrue(wireCapture.isActive());
+		wireCapture.capture(frame(1), first, 1, 0);
+		wireCapture.capture(frame(2), first, 2, 0);
+		assertEquals(1, wireCapture.dump().split("\n").length);
+		assertTrue(wireCapture.dump().endsWith(" /192.168.0.14:56167 gw=2 status=0x0 EEB10002FFFCFFFF\n"));
+
+		wireCapture.captureAddress("192.168.0.15");
+		wireCapture.capture(frame(3), first, 3, 0);
+		wireCapture.capture(frame(4), second, 4, 0x50);
+		wireCapture.capture(frame(5), second, 5, 0);
+		String[] lines = wireCapture.dump().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].contains("gw=4 status=0x50"));
+		assertTrue(lines[1].contains("gw=5 status=0x0"));
+
+		wireCapture.stop();
+		assertFalse(wireCapture.isActive());
+		assertEquals(2, wireCapture.dump().split("\n").length);
+		wireCapture.clear();
+		assertEquals("", wireCapture.dump());
+	}
+
+	@Test
+	public void testSampling() throws Exception {
+		WireCapture wireCapture = new WireCapture();
+		wireCapture.setCapacity(10000);
+		wireCapture.captureSample(10);
+		for (int i = 0; i < 10000; i++) {
+			wireCapture.capture(frame(i), first, i, 0);
+		}
+		long captured = wireCapture.getCapturedCount();
+		assertTrue(String.valueOf(captured), captured > 800 && captured < 1200);
+	}
+
+	private static int request(int port, String method, String query) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://127.0.0.1:" + port + "/capture" + query).openConnection();
+		connection.setRequestMethod(method);
+		return connection.getResponseCode();
+	}
+
+	@Test
+	public void testEndpointControlNeedsPost() throws Exception {
+		MetricsHttpServer server = new MetricsHttpServer();
+		server.setIngestMetrics(new IngestMetrics());
+		server.setPort(0);
+		server.start();
+		try {
+			WireCapture wireCapture = new WireCapture();
+			wireCapture.setMetricsHttpServer(server);
+			wireCapture.registerEndpoint();
+
+			assertEquals(405, request(server.getPort(), "GET", "?gateway=2"));
+			assertFalse(wireCapture.isActive());
+			assertEquals(200, request(server.getPort(), "POST", "?gateway=2"));
+			assertTrue(wireCapture.isActive());
+			assertEquals(200, request(server.getPort(), "GET", ""));
+			assertEquals(200, request(server.getPort(), "POST", "?stop"));
+			assertFalse(wireCapture.isActive());
+		} finally {
+			server.stop();
+		}
+	}
+}